@@ -55,6 +55,164 @@ public final class AppConfig extends Config {
   /// **Default:**: "gcc"
   public static final String CC = INSTANCE.get("CC", "gcc");
 
+  /// Whether to precompile the runtime headers included by the generated C code, which avoids
+  /// parsing them at each native compilation.
+  ///
+  /// **Default:**: true.
+  public static final boolean PRECOMPILED_HEADERS = INSTANCE.get("PRECOMPILED_HEADERS", true);
+
+  /// Directory where precompiled runtime headers are stored. They are reused across runs as long
+  /// as the headers, the compiler and its flags don't change.
+  ///
+  /// Like the other caches below, it must be private to the user running the server: it is
+  /// created accessible only by them, and not used (with a warning) if it is owned by someone else
+  /// or accessible by others.
+  ///
+  /// **Default:**: `rsh-<user>-pch` in the temporary directory.
+  public static final String PCH_DIR = INSTANCE.get("PCH_DIR", privateTmpDir("pch"));
+
+  /// Directory where the outputs of the C compiler are cached, keyed by a hash of the source and
+  /// the flags. An empty string disables the cache.
+  ///
+  /// **Default:**: `rsh-<user>-objects` in the temporary directory.
+  public static final String OBJECT_CACHE_DIR =
+      INSTANCE.get("OBJECT_CACHE_DIR", privateTmpDir("objects"));
+
+  /// Directory where snapshots of the `base` package are stored. Loading a snapshot is a single
+  /// read of an uncompressed file, instead of inflating and linking every object of `base.rdb`.
+  /// They are rebuilt when R changes. An empty string disables the snapshots.
+  ///
+  /// **Default:**: `rsh-<user>-base` in the temporary directory.
+  public static final String BASE_SNAPSHOT_DIR =
+      INSTANCE.get("BASE_SNAPSHOT_DIR", privateTmpDir("base"));
+
+  /// Maximum number of C compiler processes running at the same time.
+  ///
+  /// **Default:**: the number of available processors.
+  public static final int CC_MAX_JOBS =
+      INSTANCE.get("CC_MAX_JOBS", Runtime.getRuntime().availableProcessors());
+
+  /// How long a C compilation waits for one of the [#CC_MAX_JOBS] slots before it is rejected.
+  ///
+  /// **Default:**: 30 seconds.
+  public static final long CC_QUEUE_TIMEOUT_SECONDS = INSTANCE.get("CC_QUEUE_TIMEOUT_SECONDS", 30L);
+
+  /// How long a C compiler process may run before it is killed.
+  ///
+  /// **Default:**: 120 seconds.
+  public static final long CC_TIMEOUT_SECONDS = INSTANCE.get("CC_TIMEOUT_SECONDS", 120L);
+
+  /// Maximum size in bytes of the server's bytecode cache, measured as the size of the serialized
+  /// bytecode. `0` means unbounded.
+  ///
+  /// **Default:**: 128 MiB.
+  public static final long BC_CACHE_MAX_BYTES = INSTANCE.get("BC_CACHE_MAX_BYTES", 128L << 20);
+
+  /// Maximum size in bytes of the server's native code cache, measured as the size of the object
+  /// files and serialized constant pools. `0` means unbounded.
+  ///
+  /// **Default:**: 256 MiB.
+  public static final long NATIVE_CACHE_MAX_BYTES =
+      INSTANCE.get("NATIVE_CACHE_MAX_BYTES", 256L << 20);
+
+  /// Directory where the server persists compilation results, so that they survive restarts. They
+  /// are dropped when the code generators, the C compiler or the runtime headers change. Like the
+  /// caches above, it must be private, and only one server may use it at a time. An empty string
+  /// disables the persistent cache.
+  ///
+  /// **Default:**: disabled.
+  public static final String COMPILE_CACHE_DIR = INSTANCE.get("COMPILE_CACHE_DIR", "");
+
+  /// Maximum size in bytes of the persistent compile cache. Beyond it, the oldest results are
+  /// dropped. `0` means unbounded.
+  ///
+  /// **Default:**: 1 GiB.
+  public static final long COMPILE_CACHE_MAX_BYTES =
+      INSTANCE.get("COMPILE_CACHE_MAX_BYTES", 1L << 30);
+
+  /// Number of threads compiling native code in the background, for requests which don't wait for
+  /// it.
+  ///
+  /// **Default:**: the number of available processors.
+  public static final int NATIVE_COMPILE_THREADS =
+      INSTANCE.get("NATIVE_COMPILE_THREADS", Runtime.getRuntime().availableProcessors());
+
+  /// Maximum number of functions of a batch compile request which are compiled into the same C
+  /// unit, and therefore by the same C compiler invocation. Units are compiled in parallel.
+  ///
+  /// **Default:**: 32.
+  public static final int BATCH_UNIT_SIZE = INSTANCE.get("BATCH_UNIT_SIZE", 32);
+
+  /// Maximum number of R sessions the server keeps loaded, one per setup of its clients. The least
+  /// recently used session is dropped beyond it, and its clients have to init again.
+  ///
+  /// **Default:**: 8.
+  public static final int MAX_SESSIONS = INSTANCE.get("MAX_SESSIONS", 8);
+
+  /// How the gRPC server runs requests: [RequestExecutor#VIRTUAL] runs each request on its own
+  /// virtual thread, as they mostly wait for the caches and the C compiler, whose parallelism is
+  /// bounded separately. [RequestExecutor#FIXED] uses a pool of [#REQUEST_THREADS] platform
+  /// threads.
+  ///
+  /// **Default:**: [RequestExecutor#VIRTUAL].
+  public static final RequestExecutor REQUEST_EXECUTOR =
+      INSTANCE.get("REQUEST_EXECUTOR", RequestExecutor.VIRTUAL);
+
+  /// Number of threads running requests with the [RequestExecutor#FIXED] executor.
+  ///
+  /// **Default:**: twice the number of available processors.
+  public static final int REQUEST_THREADS =
+      INSTANCE.get("REQUEST_THREADS", 2 * Runtime.getRuntime().availableProcessors());
+
+  /// Maximum number of bytecode (BASELINE) compile requests handled at the same time. Requests
+  /// beyond it fail with `RESOURCE_EXHAUSTED`. 0 for no limit.
+  ///
+  /// **Default:**: 4 times the number of available processors.
+  public static final int MAX_BASELINE_REQUESTS =
+      INSTANCE.get("MAX_BASELINE_REQUESTS", 4 * Runtime.getRuntime().availableProcessors());
+
+  /// Maximum number of native (OPTIMIZED) compilations, requested or in the background, at the
+  /// same time. Requests beyond it fail with `RESOURCE_EXHAUSTED`, or get the bytecode if they
+  /// defer the native code. 0 for no limit.
+  ///
+  /// **Default:**: twice the number of available processors.
+  public static final int MAX_OPTIMIZED_REQUESTS =
+      INSTANCE.get("MAX_OPTIMIZED_REQUESTS", 2 * Runtime.getRuntime().availableProcessors());
+
+  /// How long, in milliseconds, clients turned away with `RESOURCE_EXHAUSTED` are asked to wait
+  /// before retrying (the `grpc-retry-pushback-ms` trailer).
+  ///
+  /// **Default:**: 200.
+  public static final long RETRY_PUSHBACK_MS = INSTANCE.get("RETRY_PUSHBACK_MS", 200L);
+
+  /// Which entries the server's compilation caches evict first when they are full.
+  ///
+  /// **Default:**: [#LRU].
+  public static final CacheEvictionPolicy CACHE_EVICTION_POLICY =
+      INSTANCE.get("CACHE_EVICTION_POLICY", CacheEvictionPolicy.LRU);
+
+  /// Whether the symbol pool only references symbols weakly, so that those which nothing else
+  /// references are collected instead of being kept for the lifetime of the server.
+  ///
+  /// **Default:**: false.
+  public static final boolean WEAK_SYMBOLS = INSTANCE.get("WEAK_SYMBOLS", false);
+
+  /// Whether the objects of package databases share their structurally equal language objects,
+  /// pairlists and attributes without vectors (e.g. common subexpressions), which reduces the
+  /// memory taken by loaded namespaces.
+  ///
+  /// **Default:**: false.
+  public static final boolean SHARE_PACKAGE_ASTS = INSTANCE.get("SHARE_PACKAGE_ASTS", false);
+
+  /// A directory of the temporary directory which is specific to the current user, so that the
+  /// servers of different users don't share (or fight over) their caches.
+  private static String privateTmpDir(String name) {
+    return Path.of(
+            System.getProperty("java.io.tmpdir"),
+            "rsh-" + System.getProperty("user.name") + "-" + name)
+        .toString();
+  }
+
   public enum CfgDebugLevel implements Comparable<CfgDebugLevel> {
     /// No extra checks.
     NONE,
@@ -62,6 +220,20 @@ public final class AppConfig extends Config {
     AFTER_STEP,
   }
 
+  public enum RequestExecutor {
+    /// One virtual thread per request.
+    VIRTUAL,
+    /// A fixed pool of platform threads.
+    FIXED,
+  }
+
+  public enum CacheEvictionPolicy {
+    /// Evict the least recently used entries.
+    LRU,
+    /// Evict the least frequently used entries (ties broken by recency).
+    LFU,
+  }
+
   public enum OptimizationLogLevel implements Comparable<OptimizationLogLevel> {
     /// Don't log anything wrt. optimizations (excluding compiler bugs).
     NONE,
@@ -132,6 +304,11 @@ abstract class Config {
     return value != null ? Integer.parseInt(value) : defaultValue;
   }
 
+  protected long get(String name, long defaultValue) {
+    var value = get(name);
+    return value != null ? Long.parseLong(value) : defaultValue;
+  }
+
   protected boolean get(String name, boolean defaultValue) {
     var value = get(name);
     return value != null ? Boolean.parseBoolean(value) : defaultValue;
@@ -7,9 +7,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.BiFunction;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 import org.prlprg.primitive.Complex;
-import org.prlprg.primitive.Logical;
 import org.prlprg.sexp.*;
 import org.prlprg.util.Arithmetic;
 
@@ -111,24 +111,24 @@ public final class ConstantFolding {
         var from = fromV.asInt(0);
         var to = toV.asInt(0);
         var by = byV.asInt(0);
-        var ans = Arithmetic.INTEGER.createResult((to - from) / by + 1);
+        var ans = new int[(to - from) / by + 1];
         for (int i = 0, x = from; x <= to; i++, x += by) {
           ans[i] = x;
         }
-        yield Optional.of(SEXPs.integer(ans));
+        yield Optional.of(SEXPs.integerOwned(ans, Attributes.NONE));
       }
       case REAL -> {
         var from = fromV.asReal(0);
         var to = toV.asReal(0);
         var by = byV.asReal(0);
         var size = (int) ((to - from) / by) + 1;
-        var ans = Arithmetic.DOUBLE.createResult(size);
+        var ans = new double[size];
         var x = from;
         for (int i = 0; i < size; i++) {
           ans[i] = x;
           x += by;
         }
-        yield Optional.of(SEXPs.real(ans));
+        yield Optional.of(SEXPs.realOwned(ans, Attributes.NONE));
       }
       default -> Optional.empty();
     };
@@ -221,7 +221,7 @@ public final class ConstantFolding {
     return SEXPs.primVector(xs.type(), res.build());
   }
 
-  private static Optional<SEXP> doubleMath1(List<SEXP> args, Function<Double, Double> f) {
+  private static Optional<SEXP> doubleMath1(List<SEXP> args, DoubleUnaryOperator f) {
     if (args.size() != 1) {
       return Optional.empty();
     }
@@ -229,12 +229,12 @@ public final class ConstantFolding {
       return Optional.empty();
     }
 
-    var res = Arrays.copyOf(n.coerceToReals(), n.size());
+    var res = Coercions.toReals(n);
     for (var i = 0; i < res.length; i++) {
-      res[i] = f.apply(res[i]);
+      res[i] = f.applyAsDouble(res[i]);
     }
 
-    return Optional.of(SEXPs.real(res));
+    return Optional.of(SEXPs.realOwned(res, Attributes.NONE));
   }
 
   private static Optional<SEXP> math1(Arithmetic.Operation op, List<SEXP> args) {
@@ -298,26 +298,9 @@ public final class ConstantFolding {
                       vecArgs.stream()
                           .flatMap(x -> Arrays.stream(x.coerceToStrings()))
                           .toArray(String[]::new)));
-          case REAL ->
-              Optional.of(
-                  SEXPs.real(
-                      vecArgs.stream()
-                          .flatMap(x -> Arrays.stream(x.coerceToReals()))
-                          .mapToDouble(d -> d)
-                          .toArray()));
-          case INT ->
-              Optional.of(
-                  SEXPs.integer(
-                      vecArgs.stream()
-                          .flatMap(x -> Arrays.stream(x.coerceToInts()))
-                          .mapToInt(i -> i)
-                          .toArray()));
-          case LGL ->
-              Optional.of(
-                  SEXPs.logical(
-                      vecArgs.stream()
-                          .flatMap(x -> Arrays.stream(x.coerceToLogicals()))
-                          .toArray(Logical[]::new)));
+          case REAL -> Optional.of(SEXPs.realOwned(concatReals(vecArgs), Attributes.NONE));
+          case INT -> Optional.of(SEXPs.integerOwned(concatInts(vecArgs), Attributes.NONE));
+          case LGL -> Optional.of(SEXPs.logicalOwned(concatInts(vecArgs), Attributes.NONE));
           case CPLX ->
               Optional.of(
                   SEXPs.complex(
@@ -342,6 +325,58 @@ public final class ConstantFolding {
         });
   }
 
+  /**
+   * The elements of {@code args}, which are logicals or integers, as integers (or logicals, which
+   * have the same representation).
+   */
+  private static int[] concatInts(List<VectorSXP<?>> args) {
+    var res = new int[args.stream().mapToInt(VectorSXP::size).sum()];
+    var offset = 0;
+    for (var arg : args) {
+      switch (arg) {
+        case IntSXP ints -> ints.copyInto(res, offset);
+        case LglSXP lgls -> lgls.copyInto(res, offset);
+        default -> {
+          var ints = arg.coerceToInts();
+          for (int i = 0; i < ints.length; i++) {
+            res[offset + i] = ints[i];
+          }
+        }
+      }
+      offset += arg.size();
+    }
+    return res;
+  }
+
+  /** The elements of {@code args}, which are logicals, integers or reals, as reals. */
+  private static double[] concatReals(List<VectorSXP<?>> args) {
+    var res = new double[args.stream().mapToInt(VectorSXP::size).sum()];
+    var offset = 0;
+    for (var arg : args) {
+      switch (arg) {
+        case RealSXP reals -> reals.copyInto(res, offset);
+        case IntSXP ints -> {
+          for (int i = 0; i < ints.size(); i++) {
+            res[offset + i] = Coercions.realFromInteger(ints.asInt(i));
+          }
+        }
+        case LglSXP lgls -> {
+          for (int i = 0; i < lgls.size(); i++) {
+            res[offset + i] = Coercions.realFromInteger(lgls.asInt(i));
+          }
+        }
+        default -> {
+          var reals = arg.coerceToReals();
+          for (int i = 0; i < reals.length; i++) {
+            res[offset + i] = reals[i];
+          }
+        }
+      }
+      offset += arg.size();
+    }
+    return res;
+  }
+
   public static Optional<SEXP> colon(List<SEXP> args) {
     if (args.size() != 2) {
       return Optional.empty();
@@ -364,6 +399,6 @@ public final class ConstantFolding {
       ints[j] = i;
     }
 
-    return Optional.of(SEXPs.integer(ints));
+    return Optional.of(SEXPs.integerOwned(ints, Attributes.NONE));
   }
 }
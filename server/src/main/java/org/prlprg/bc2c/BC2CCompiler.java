@@ -1,5 +1,7 @@
 package org.prlprg.bc2c;
 
+import com.google.common.collect.ImmutableList;
+import java.util.List;
 import org.prlprg.bc.*;
 import org.prlprg.gen2c.*;
 
@@ -12,4 +14,22 @@ public class BC2CCompiler {
     assert item.cName().equals(name);
     return new CompiledModule(module.cUnit(), item.constantPool());
   }
+
+  /// Compiles several closures into a single C unit, so that they can be compiled by a single C
+  /// compiler invocation.
+  ///
+  /// The `i`-th closure is named `names.get(i)`. Each closure keeps its own constant pool.
+  public static CompiledBatch compile(List<Bc> bcs, List<String> names, boolean compilePromises) {
+    if (bcs.size() != names.size()) {
+      throw new IllegalArgumentException("Expected as many names as closures");
+    }
+
+    var module = new BC2CModule(compilePromises);
+    var items = ImmutableList.<CompiledItem>builderWithExpectedSize(bcs.size());
+    for (int i = 0; i < bcs.size(); i++) {
+      items.add(module.compileNamedClosure(bcs.get(i), names.get(i)));
+    }
+
+    return new CompiledBatch(module.cUnit(), items.build());
+  }
 }
@@ -20,6 +20,12 @@ class BC2CModule {
 
   CompiledItem compileClosure(Bc bc, String baseName) {
     var name = funId == 0 ? baseName : baseName + "_" + funId;
+    return compileNamedClosure(bc, name);
+  }
+
+  /// Compiles a closure named exactly `name`, which unlike [#compileClosure(Bc, String)] doesn't
+  /// depend on how many closures have already been compiled into this module.
+  CompiledItem compileNamedClosure(Bc bc, String name) {
     funId++;
 
     var compiler = new ClosureCompiler(this, name, bc);
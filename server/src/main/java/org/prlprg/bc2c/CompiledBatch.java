@@ -0,0 +1,7 @@
+package org.prlprg.bc2c;
+
+import com.google.common.collect.ImmutableList;
+import org.prlprg.gen2c.CUnit;
+
+/// Several closures compiled into the same C unit, in the order they were given.
+public record CompiledBatch(CUnit code, ImmutableList<CompiledItem> items) {}
@@ -400,17 +400,19 @@ public final class Builtins {
             IntStream.range(0, len)
                 .map(
                     i ->
-                        i1.get(i % i1.size()) == Constants.NA_INT
-                                || i2.get(i % i2.size()) == Constants.NA_INT
+                        i1.asInt(i % i1.size()) == Constants.NA_INT
+                                || i2.asInt(i % i2.size()) == Constants.NA_INT
                             ? Constants.NA_INT
-                            : (int) fn.applyAsDouble(i1.get(i % i1.size()), i2.get(i % i2.size())))
+                            : (int)
+                                fn.applyAsDouble(i1.asInt(i % i1.size()), i2.asInt(i % i2.size())))
                 .toArray());
       }
       case RealSXP r1 when s2 instanceof RealSXP r2 -> {
         int len = Math.max(r1.size(), r2.size());
         return SEXPs.real(
             IntStream.range(0, len)
-                .mapToDouble(i -> fn.applyAsDouble(r1.get(i % r1.size()), r2.get(i % r2.size())))
+                .mapToDouble(
+                    i -> fn.applyAsDouble(r1.asReal(i % r1.size()), r2.asReal(i % r2.size())))
                 .toArray());
       }
       case LglSXP l1 when s2 instanceof LglSXP l2 -> {
@@ -419,11 +421,11 @@ public final class Builtins {
             IntStream.range(0, len)
                 .map(
                     i ->
-                        l1.get(i % l1.size()) == Logical.NA || l2.get(i % l2.size()) == Logical.NA
+                        l1.asInt(i % l1.size()) == Constants.NA_INT
+                                || l2.asInt(i % l2.size()) == Constants.NA_INT
                             ? Constants.NA_INT
                             : (int)
-                                fn.applyAsDouble(
-                                    l1.get(i % l1.size()).toInt(), l2.get(i % l2.size()).toInt()))
+                                fn.applyAsDouble(l1.asInt(i % l1.size()), l2.asInt(i % l2.size())))
                 .toArray());
       }
       case IntSXP i1 when s2 instanceof RealSXP r2 -> {
@@ -432,9 +434,9 @@ public final class Builtins {
             IntStream.range(0, len)
                 .mapToDouble(
                     i ->
-                        i1.get(i % i1.size()) == Constants.NA_INT
+                        i1.asInt(i % i1.size()) == Constants.NA_INT
                             ? Double.NaN
-                            : fn.applyAsDouble(i1.get(i % i1.size()), r2.get(i % r2.size())))
+                            : fn.applyAsDouble(i1.asInt(i % i1.size()), r2.asReal(i % r2.size())))
                 .toArray());
       }
       case IntSXP i1 when s2 instanceof LglSXP l2 -> {
@@ -443,12 +445,11 @@ public final class Builtins {
             IntStream.range(0, len)
                 .map(
                     i ->
-                        i1.get(i % i1.size()) == Constants.NA_INT
-                                || l2.get(i % l2.size()) == Logical.NA
+                        i1.asInt(i % i1.size()) == Constants.NA_INT
+                                || l2.asInt(i % l2.size()) == Constants.NA_INT
                             ? Constants.NA_INT
                             : (int)
-                                fn.applyAsDouble(
-                                    i1.get(i % i1.size()), l2.get(i % l2.size()).toInt()))
+                                fn.applyAsDouble(i1.asInt(i % i1.size()), l2.asInt(i % l2.size())))
                 .toArray());
       }
       case RealSXP r1 when s2 instanceof IntSXP i2 -> {
@@ -457,9 +458,9 @@ public final class Builtins {
             IntStream.range(0, len)
                 .mapToDouble(
                     i ->
-                        i2.get(i % i2.size()) == Constants.NA_INT
+                        i2.asInt(i % i2.size()) == Constants.NA_INT
                             ? Double.NaN
-                            : fn.applyAsDouble(r1.get(i % r1.size()), i2.get(i % i2.size())))
+                            : fn.applyAsDouble(r1.asReal(i % r1.size()), i2.asInt(i % i2.size())))
                 .toArray());
       }
       case RealSXP r1 when s2 instanceof LglSXP l2 -> {
@@ -468,10 +469,9 @@ public final class Builtins {
             IntStream.range(0, len)
                 .mapToDouble(
                     i ->
-                        l2.get(i % l2.size()) == Logical.NA
+                        l2.asInt(i % l2.size()) == Constants.NA_INT
                             ? Double.NaN
-                            : fn.applyAsDouble(
-                                r1.get(i % r1.size()), l2.get(i % l2.size()).toInt()))
+                            : fn.applyAsDouble(r1.asReal(i % r1.size()), l2.asInt(i % l2.size())))
                 .toArray());
       }
       case LglSXP l1 when s2 instanceof IntSXP i2 -> {
@@ -480,12 +480,11 @@ public final class Builtins {
             IntStream.range(0, len)
                 .map(
                     i ->
-                        l1.get(i % l1.size()) == Logical.NA
-                                || i2.get(i % i2.size()) == Constants.NA_INT
+                        l1.asInt(i % l1.size()) == Constants.NA_INT
+                                || i2.asInt(i % i2.size()) == Constants.NA_INT
                             ? Constants.NA_INT
                             : (int)
-                                fn.applyAsDouble(
-                                    l1.get(i % l1.size()).toInt(), i2.get(i % i2.size())))
+                                fn.applyAsDouble(l1.asInt(i % l1.size()), i2.asInt(i % i2.size())))
                 .toArray());
       }
       case LglSXP l1 when s2 instanceof RealSXP r2 -> {
@@ -494,10 +493,10 @@ public final class Builtins {
             IntStream.range(0, len)
                 .mapToDouble(
                     i ->
-                        l1.get(i % l1.size()) == Logical.NA || r2.get(i % r2.size()).isNaN()
+                        l1.asInt(i % l1.size()) == Constants.NA_INT
+                                || Double.isNaN(r2.asReal(i % r2.size()))
                             ? Double.NaN
-                            : fn.applyAsDouble(
-                                l1.get(i % l1.size()).toInt(), r2.get(i % r2.size())))
+                            : fn.applyAsDouble(l1.asInt(i % l1.size()), r2.asReal(i % r2.size())))
                 .toArray());
       }
       default -> {}
@@ -521,20 +520,19 @@ public final class Builtins {
               IntStream.range(0, iv.size())
                   .map(
                       i ->
-                          iv.get(i) == Constants.NA_INT
+                          iv.asInt(i) == Constants.NA_INT
                               ? Constants.NA_INT
-                              : (int) fn.applyAsDouble(iv.get(i)))
+                              : (int) fn.applyAsDouble(iv.asInt(i)))
                   .toArray());
       case RealSXP rv ->
           SEXPs.real(
               IntStream.range(0, rv.size())
-                  .mapToDouble(i -> fn.applyAsDouble(rv.get(i)))
+                  .mapToDouble(i -> fn.applyAsDouble(rv.asReal(i)))
                   .toArray());
       case LglSXP lv ->
           SEXPs.integer(
               IntStream.range(0, lv.size())
-                  .map(i -> lv.get(i) == Logical.NA ? Constants.NA_INT : lv.get(i).toInt())
-                  .map(j -> (int) fn.applyAsDouble(j))
+                  .map(i -> (int) fn.applyAsDouble(lv.asInt(i)))
                   .toArray());
       default ->
           throw interpreter.failUnsupported(
@@ -80,6 +80,7 @@ import org.prlprg.fir.ir.variable.Variable;
 import org.prlprg.parseprint.Printer;
 import org.prlprg.primitive.Logical;
 import org.prlprg.session.GNURSession;
+import org.prlprg.sexp.AltRepSXP;
 import org.prlprg.sexp.ArgumentMatcher.MatchException;
 import org.prlprg.sexp.Attributes;
 import org.prlprg.sexp.BaseEnvSXP;
@@ -826,7 +827,18 @@ public final class InternalInterpreter implements Interpreter {
           throw fail("Can't subscript with non-integer index: " + indexValue);
         }
 
-        subscriptStore(vector, index, valueValue);
+        var target = vector;
+        if (vector instanceof AltRepSXP) {
+          // Compact vectors are immutable. The target is owned, so its register is the only
+          // reference to it: rebind the register to a concrete copy, and write into the copy.
+          target = vector.copy();
+          switch (statement.arg(0)) {
+            case Read(var register) -> topFrame().put(register, new Value.Sexp(target));
+            case Consume(var register) -> topFrame().put(register, new Value.Sexp(target));
+            case Constant _ -> throw fail("Can't subscript write into a constant: " + vectorValue);
+          }
+        }
+        subscriptStore(target, index, valueValue);
         yield null;
       }
     };
@@ -26,6 +26,15 @@ class AltRepUnserializer {
   static {
     // Add here all the alt reps you want to support
     addAltRep(new BaseAltrRep.CompactIntSeq());
+    addAltRep(new BaseAltrRep.CompactRealSeq());
+    addAltRep(new BaseAltrRep.DeferredString());
+    addAltRep(new BaseAltrRep.Wrapper(SEXPType.INT, "wrap_integer"));
+    addAltRep(new BaseAltrRep.Wrapper(SEXPType.REAL, "wrap_real"));
+    addAltRep(new BaseAltrRep.Wrapper(SEXPType.LGL, "wrap_logical"));
+    addAltRep(new BaseAltrRep.Wrapper(SEXPType.CPLX, "wrap_complex"));
+    addAltRep(new BaseAltrRep.Wrapper(SEXPType.RAW, "wrap_raw"));
+    addAltRep(new BaseAltrRep.Wrapper(SEXPType.STR, "wrap_string"));
+    addAltRep(new BaseAltrRep.Wrapper(SEXPType.VEC, "wrap_list"));
   }
 
   public AltRepUnserializer(ListSXP info, SEXP state) {
@@ -1,6 +1,5 @@
 package org.prlprg.rds;
 
-import java.util.stream.IntStream;
 import org.prlprg.sexp.*;
 
 /**
@@ -8,6 +7,24 @@ import org.prlprg.sexp.*;
  * href="https://github.com/wch/r-source/blob/abaa89600f4f024a80121ebb95fc4d80ea0a9b12/src/main/altclasses.c">...</a>
  */
 public class BaseAltrRep {
+  /** The number of elements of a compact sequence, from its state {@code c(n, n1, inc)}. */
+  private static int seqLength(NumericSXP<?> state) {
+    var length = state.asReal(0);
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new RDSException("Unsupported length of compact sequence: " + length);
+    }
+    return (int) length;
+  }
+
+  /** The increment of a compact sequence, from its state {@code c(n, n1, inc)}. */
+  private static int seqStep(NumericSXP<?> state) {
+    var step = state.asInt(2);
+    if (step != 1 && step != -1) {
+      throw new RDSException("Unsupported increment of compact sequence: " + step);
+    }
+    return step;
+  }
+
   public static class CompactIntSeq implements AltRep {
 
     @Override
@@ -27,19 +44,101 @@ public class BaseAltrRep {
 
     @Override
     public SEXP unserialize(SEXP state) {
-      var l = (RealSXP) state;
-      var length = l.get(0).intValue(); // we might need a double there though
-      var start = l.get(1).intValue();
-      var direction = l.get(2).intValue();
-
-      if (direction == 1) {
-        return SEXPs.integer(IntStream.rangeClosed(start, start + length).toArray());
-      } else {
-        return SEXPs.integer(
-            IntStream.rangeClosed(start - length, start)
-                .map(i -> start - length + (start - 1 - i))
-                .toArray());
+      // `c(n, n1, inc)`, reals since R 3.6 and integers before.
+      var info = (NumericSXP<?>) state;
+      return SEXPs.intSeq(seqLength(info), info.asInt(1), seqStep(info), Attributes.NONE);
+    }
+  }
+
+  public static class CompactRealSeq implements AltRep {
+
+    @Override
+    public SEXPType getType() {
+      return SEXPType.REAL;
+    }
+
+    @Override
+    public String getClassName() {
+      return "compact_realseq";
+    }
+
+    @Override
+    public String getPackageName() {
+      return "base";
+    }
+
+    @Override
+    public SEXP unserialize(SEXP state) {
+      var info = (RealSXP) state;
+      return SEXPs.realSeq(seqLength(info), info.asReal(1), seqStep(info), Attributes.NONE);
+    }
+  }
+
+  /**
+   * A vector wrapped with metadata (whether it is sorted and has no NAs), which are only hints, so
+   * it is read as the wrapped vector.
+   */
+  public static class Wrapper implements AltRep {
+    private final SEXPType type;
+    private final String className;
+
+    public Wrapper(SEXPType type, String className) {
+      this.type = type;
+      this.className = className;
+    }
+
+    @Override
+    public SEXPType getType() {
+      return type;
+    }
+
+    @Override
+    public String getClassName() {
+      return className;
+    }
+
+    @Override
+    public String getPackageName() {
+      return "base";
+    }
+
+    @Override
+    public SEXP unserialize(SEXP state) {
+      // `(x . meta)`
+      var wrapped = ((ListSXP) state).get(0).value();
+      if (wrapped.type() != type) {
+        throw new RDSException("Expected wrapped " + type + ", got " + wrapped.type());
+      }
+      return wrapped;
+    }
+  }
+
+  public static class DeferredString implements AltRep {
+
+    @Override
+    public SEXPType getType() {
+      return SEXPType.STR;
+    }
+
+    @Override
+    public String getClassName() {
+      return "deferred_string";
+    }
+
+    @Override
+    public String getPackageName() {
+      return "base";
+    }
+
+    @Override
+    public SEXP unserialize(SEXP state) {
+      // `(arg . scipen)`
+      var pair = (ListSXP) state;
+      if (!(pair.get(0).value() instanceof NumericSXP<?> arg)) {
+        throw new RDSException("Expected deferred string of numbers");
       }
+      var scipen = ((IntSXP) pair.get(1).value()).asInt(0);
+      return SEXPs.deferredString(arg, scipen, Attributes.NONE);
     }
   }
 }
@@ -4,6 +4,7 @@ import com.google.common.primitives.ImmutableIntArray;
 import java.util.Arrays;
 import java.util.List;
 import org.prlprg.bc.*;
+import org.prlprg.sexp.Attributes;
 import org.prlprg.sexp.IntSXP;
 import org.prlprg.sexp.SEXP;
 import org.prlprg.sexp.SEXPs;
@@ -293,6 +294,6 @@ class GNURByteCodeDecoderFactory {
 
   private IntSXP remapLabels(IntSXP oldLabels) {
     var remapped = Arrays.stream(oldLabels.data()).map(labelMapping::getTarget).toArray();
-    return SEXPs.integer(remapped);
+    return SEXPs.integerOwned(remapped, Attributes.NONE);
   }
 }
@@ -0,0 +1,150 @@
+package org.prlprg.rds;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.prlprg.sexp.Attributes;
+import org.prlprg.sexp.LangSXP;
+import org.prlprg.sexp.ListSXP;
+import org.prlprg.sexp.NilSXP;
+import org.prlprg.sexp.SEXP;
+
+/// Hash-consing of the nodes read by [RDSReader]: structurally equal language objects, pairlists
+/// and attributes are read into the same instance, e.g. the common subexpressions like `x[[i]]` or
+/// `is.null(x)` of the closures of a package.
+///
+/// The reader builds trees bottom-up, so the children of a node are already shared when the node
+/// is. Nodes are therefore compared by the identity of their children, which makes hashing and
+/// comparing them constant time (or linear in the number of elements, for lists), rather than
+/// linear in the size of the tree.
+///
+/// Vectors are never shared, since they can be mutated (their `set` is public), and neither are
+/// the nodes which contain one: the vectors of two such nodes are different instances. This
+/// includes calls with a literal argument, like `x[[1]]` or `paste(x, "")`, and everything with a
+/// `srcref` attribute, which is an integer vector: the table only pays off for code read without
+/// source references. So only immutable trees are shared, and this is meant for code which is
+/// loaded and then only read, like the objects of a [org.prlprg.session.PackageDatabase]. Readers
+/// may use the same table concurrently.
+public final class HashConsTable {
+  private final ConcurrentHashMap<Node, Object> table = new ConcurrentHashMap<>();
+
+  /// The number of distinct nodes in the table.
+  public int size() {
+    return table.size();
+  }
+
+  /// The node structurally equal to `sexp` which was read before, or `sexp` itself if there is
+  /// none or it can't be shared.
+  SEXP share(SEXP sexp) {
+    return switch (sexp) {
+      case NilSXP _ -> sexp;
+      case LangSXP _, ListSXP _ -> intern(sexp);
+      default -> sexp;
+    };
+  }
+
+  /// The attributes equal to `attributes` which were read before, or `attributes` itself.
+  Attributes share(Attributes attributes) {
+    return attributes.isEmpty() ? Attributes.NONE : intern(attributes);
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T intern(T node) {
+    var key = new Node(node);
+    var previous = table.putIfAbsent(key, node);
+    return previous != null ? (T) previous : node;
+  }
+
+  /// A node of the table, compared shallowly: its children are compared by identity.
+  private static final class Node {
+    private final Object node;
+    private final int hash;
+
+    Node(Object node) {
+      this.node = node;
+      this.hash = shallowHash(node);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Node other && hash == other.hash && shallowEquals(node, other.node);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static int shallowHash(Object node) {
+    var hash =
+        switch (node) {
+          case LangSXP lang ->
+              System.identityHashCode(lang.fun()) * 31 + System.identityHashCode(lang.args());
+          case ListSXP list -> {
+            var h = 1;
+            for (var elem : list) {
+              h = h * 31 + elem.tag().hashCode();
+              h = h * 31 + System.identityHashCode(elem.value());
+            }
+            yield h;
+          }
+          case Attributes attributes -> {
+            var h = 1;
+            for (var entry : attributes.entrySet()) {
+              h = h * 31 + entry.getKey().hashCode();
+              h = h * 31 + System.identityHashCode(entry.getValue());
+            }
+            yield h;
+          }
+          default -> throw new IllegalArgumentException("Can't share " + node);
+        };
+    var attributes = node instanceof SEXP sexp ? sexp.attributes() : null;
+    return Objects.hash(node.getClass(), hash, System.identityHashCode(attributes));
+  }
+
+  private static boolean shallowEquals(Object a, Object b) {
+    if (a == b) {
+      return true;
+    }
+    if (a.getClass() != b.getClass()) {
+      return false;
+    }
+    if (a instanceof SEXP x && x.attributes() != ((SEXP) b).attributes()) {
+      return false;
+    }
+    return switch (a) {
+      case LangSXP x -> {
+        var y = (LangSXP) b;
+        yield x.fun() == y.fun() && x.args() == y.args();
+      }
+      case ListSXP x -> {
+        var y = (ListSXP) b;
+        if (x.size() != y.size()) {
+          yield false;
+        }
+        for (int i = 0; i < x.size(); i++) {
+          if (!x.get(i).tag().equals(y.get(i).tag()) || x.value(i) != y.value(i)) {
+            yield false;
+          }
+        }
+        yield true;
+      }
+      case Attributes x -> {
+        var y = (Attributes) b;
+        if (x.size() != y.size()) {
+          yield false;
+        }
+        // Attributes are ordered.
+        var ys = y.entrySet().iterator();
+        for (var entry : x.entrySet()) {
+          var other = ys.next();
+          if (!entry.getKey().equals(other.getKey()) || entry.getValue() != other.getValue()) {
+            yield false;
+          }
+        }
+        yield true;
+      }
+      default -> false;
+    };
+  }
+}
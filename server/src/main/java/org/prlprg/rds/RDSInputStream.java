@@ -1,21 +1,44 @@
 package org.prlprg.rds;
 
 import java.io.Closeable;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import org.jspecify.annotations.Nullable;
 
+/// Big-endian decoding of the primitives of an RDS stream.
+///
+/// The input is read through a buffer, and vectors (integers, doubles...) are decoded in bulk
+/// from it, instead of one element (and one virtual call on a stream) at a time. Input which is
+/// already in memory (e.g. a protobuf `ByteString`) is decoded directly from its buffer, without
+/// any copy.
 class RDSInputStream implements Closeable {
-  private final DataInputStream in;
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // Refills the buffer, or `null` if the buffer holds the whole input.
+  private final @Nullable InputStream source;
+  // Big-endian, in read mode: the unread bytes are between the position and the limit.
+  private final ByteBuffer buffer;
 
   RDSInputStream(InputStream in) {
-    this.in = new DataInputStream(in);
+    this.source = in;
+    this.buffer = ByteBuffer.allocate(BUFFER_SIZE).limit(0);
+  }
+
+  /// Reads the bytes between the position and the limit of `input`, which is not modified.
+  RDSInputStream(ByteBuffer input) {
+    this.source = null;
+    this.buffer = input.slice().order(ByteOrder.BIG_ENDIAN);
   }
 
   @Override
   public void close() throws IOException {
-    in.close();
+    if (source != null) {
+      source.close();
+    }
   }
 
   /**
@@ -25,48 +48,111 @@ class RDSInputStream implements Closeable {
    * @throws IOException if an I/O error occurs.
    */
   public int readRaw() throws IOException {
-    return in.read();
+    if (!fill(1)) {
+      return -1;
+    }
+    return buffer.get() & 0xFF;
   }
 
   public byte readByte() throws IOException {
-    return in.readByte();
+    ensure(Byte.BYTES);
+    return buffer.get();
   }
 
   public int readInt() throws IOException {
-    return in.readInt();
+    ensure(Integer.BYTES);
+    return buffer.getInt();
   }
 
   public double readDouble() throws IOException {
-    return in.readDouble();
+    ensure(Double.BYTES);
+    return buffer.getDouble();
   }
 
   public String readString(int natEncSize, Charset charset) throws IOException {
-    var buf = new byte[natEncSize];
-    in.readFully(buf, 0, natEncSize);
-    return new String(buf, charset);
+    return new String(readBytes(natEncSize), charset);
   }
 
   public int[] readInts(int length) throws IOException {
     int[] ints = new int[length];
-    for (int i = 0; i < length; i++) {
-      var n = in.readInt();
-      ints[i] = n;
+    int i = 0;
+    while (i < length) {
+      ensure(Integer.BYTES);
+      var n = Math.min(length - i, buffer.remaining() / Integer.BYTES);
+      buffer.asIntBuffer().get(ints, i, n);
+      buffer.position(buffer.position() + n * Integer.BYTES);
+      i += n;
     }
     return ints;
   }
 
   public double[] readDoubles(int length) throws IOException {
     double[] doubles = new double[length];
-    for (int i = 0; i < length; i++) {
-      var n = in.readDouble();
-      doubles[i] = n;
+    int i = 0;
+    while (i < length) {
+      ensure(Double.BYTES);
+      var n = Math.min(length - i, buffer.remaining() / Double.BYTES);
+      buffer.asDoubleBuffer().get(doubles, i, n);
+      buffer.position(buffer.position() + n * Double.BYTES);
+      i += n;
     }
     return doubles;
   }
 
   public byte[] readBytes(int length) throws IOException {
     var buf = new byte[length];
-    in.readFully(buf, 0, length);
+    var n = Math.min(length, buffer.remaining());
+    buffer.get(buf, 0, n);
+    if (n < length) {
+      // The buffer is empty: big payloads are read directly, the rest through the buffer.
+      if (source != null && length - n >= buffer.capacity()) {
+        n += source.readNBytes(buf, n, length - n);
+      } else {
+        while (n < length) {
+          ensure(1);
+          var chunk = Math.min(length - n, buffer.remaining());
+          buffer.get(buf, n, chunk);
+          n += chunk;
+        }
+      }
+      if (n < length) {
+        throw new EOFException();
+      }
+    }
     return buf;
   }
+
+  private void ensure(int n) throws IOException {
+    if (!fill(n)) {
+      throw new EOFException();
+    }
+  }
+
+  /// Makes sure the buffer has at least `n` unread bytes, which must fit in the buffer.
+  ///
+  /// @return whether it does, i.e., whether the input has that many bytes left.
+  private boolean fill(int n) throws IOException {
+    if (buffer.remaining() >= n) {
+      return true;
+    }
+    if (source == null) {
+      return false;
+    }
+
+    buffer.compact();
+    try {
+      while (buffer.position() < n) {
+        var read =
+            source.read(
+                buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (read < 0) {
+          break;
+        }
+        buffer.position(buffer.position() + read);
+      }
+    } finally {
+      buffer.flip();
+    }
+    return buffer.remaining() >= n;
+  }
 }
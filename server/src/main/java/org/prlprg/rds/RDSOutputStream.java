@@ -25,8 +25,9 @@ public class RDSOutputStream implements Closeable {
     out.writeInt(v);
   }
 
+  /// Writes the raw bits of `v`, so GNU-R can still tell `NA` from other NaNs.
   public void writeDouble(double v) throws IOException {
-    out.writeDouble(v);
+    out.writeLong(Double.doubleToRawLongBits(v));
   }
 
   /**
@@ -48,7 +49,7 @@ public class RDSOutputStream implements Closeable {
 
   public void writeDoubles(double[] v) throws IOException {
     for (double e : v) {
-      out.writeDouble(e);
+      writeDouble(e);
     }
   }
 }
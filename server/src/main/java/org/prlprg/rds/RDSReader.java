@@ -10,14 +10,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.function.Function;
 import org.jspecify.annotations.Nullable;
 import org.prlprg.bc.Bc;
 import org.prlprg.primitive.BuiltinId;
 import org.prlprg.primitive.Complex;
 import org.prlprg.primitive.Constants;
-import org.prlprg.primitive.Logical;
 import org.prlprg.session.RSession;
 import org.prlprg.sexp.*;
 import org.prlprg.util.IO;
@@ -28,6 +29,12 @@ public class RDSReader implements Closeable {
   private final RDSInputStream in;
   private final List<SEXP> refTable = new ArrayList<>(128);
 
+  // Items nested deeper than this are read with an explicit stack (see `readIteratively`) rather
+  // than by recursion, so that deep structures don't overflow the Java stack.
+  private static final int MAX_RECURSION_DEPTH = 256;
+  private int maxRecursionDepth = MAX_RECURSION_DEPTH;
+  private int depth = 0;
+
   // User-provided hook for PERSISTSXP
   // Used for package databases for instance
   public interface Hook {
@@ -36,6 +43,9 @@ public class RDSReader implements Closeable {
 
   private @Nullable Hook hook = null;
 
+  // Shares the structurally equal nodes read by this reader (and others using the same table).
+  private @Nullable HashConsTable sharing = null;
+
   // FIXME: this should include the logic from platform.c
   //  or should we individually read the charset property of each SEXP? this will require
   //  verifying which SEXPs we need to write the charset for--just CHARSXP, or also
@@ -43,14 +53,28 @@ public class RDSReader implements Closeable {
   private Charset nativeEncoding = Charset.defaultCharset();
 
   private RDSReader(RSession session, InputStream in) {
+    this(session, new RDSInputStream(in));
+  }
+
+  private RDSReader(RSession session, RDSInputStream in) {
     this.rsession = session;
-    this.in = new RDSInputStream(in);
+    this.in = in;
   }
 
   private void setHook(Hook hook) {
     this.hook = hook;
   }
 
+  private void setSharing(HashConsTable sharing) {
+    this.sharing = sharing;
+  }
+
+  /// Sets how deep items are read by recursion before switching to the explicit stack. `0` reads
+  /// everything with the explicit stack.
+  void setMaxRecursionDepth(int maxRecursionDepth) {
+    this.maxRecursionDepth = maxRecursionDepth;
+  }
+
   /**
    * Reads a SEXP from the provided file.
    *
@@ -84,8 +108,52 @@ public class RDSReader implements Closeable {
     }
   }
 
+  /**
+   * Reads a SEXP from the provided buffer, from its position to its limit, without copying it. The
+   * buffer itself is not modified.
+   *
+   * @param session The current R session, used to supply special constructs such as the base
+   *     environment and namespace
+   * @param buffer The buffer to read from
+   */
+  public static SEXP readBuffer(RSession session, ByteBuffer buffer) throws IOException {
+    try (var reader = new RDSReader(session, new RDSInputStream(buffer))) {
+      return reader.read();
+    }
+  }
+
+  public static SEXP readBuffer(RSession session, ByteBuffer buffer, Hook hook) throws IOException {
+    try (var reader = new RDSReader(session, new RDSInputStream(buffer))) {
+      reader.setHook(hook);
+      return reader.read();
+    }
+  }
+
+  /// Reads `buffer` like [#readBuffer(RSession, ByteBuffer, Hook)], sharing the language objects,
+  /// pairlists and attributes which are structurally equal to those already in `sharing` (see
+  /// [HashConsTable]).
+  public static SEXP readBuffer(
+      RSession session, ByteBuffer buffer, Hook hook, HashConsTable sharing) throws IOException {
+    try (var reader = new RDSReader(session, new RDSInputStream(buffer))) {
+      reader.setHook(hook);
+      reader.setSharing(sharing);
+      return reader.read();
+    }
+  }
+
+  /// Reads `buffer` like [#readBuffer(RSession, ByteBuffer)], with a maximum recursion depth (see
+  /// [#setMaxRecursionDepth(int)]).
+  static SEXP readBuffer(RSession session, ByteBuffer buffer, int maxRecursionDepth)
+      throws IOException {
+    try (var reader = new RDSReader(session, new RDSInputStream(buffer))) {
+      reader.setMaxRecursionDepth(maxRecursionDepth);
+      return reader.read();
+    }
+  }
+
   public static SEXP readByteString(RSession session, ByteString byteString) throws IOException {
-    return RDSReader.readStream(session, byteString.newInput());
+    // Wraps the bytes of the ByteString rather than copying them.
+    return RDSReader.readBuffer(session, byteString.asReadOnlyByteBuffer());
   }
 
   private void readHeader() throws IOException {
@@ -99,10 +167,6 @@ public class RDSReader implements Closeable {
 
     // versions
     var formatVersion = in.readInt();
-    // if (formatVersion > 2) {
-    // we do not completely support RDS version 3 because it uses ALTREP
-    // LOGGER.warning("RDS version: " + formatVersion + "; some features are not supported.");
-    // }
     // writer version
     in.readInt();
     // minimal reader version
@@ -129,7 +193,19 @@ public class RDSReader implements Closeable {
 
   private SEXP readItem() throws IOException {
     var flags = readFlags();
+    if (depth >= maxRecursionDepth) {
+      return readIteratively(flags);
+    }
+
+    depth++;
+    try {
+      return readItem(flags);
+    } finally {
+      depth--;
+    }
+  }
 
+  private SEXP readItem(Flags flags) throws IOException {
     return switch (flags.getType()) {
       case RDSItemType.Sexp s ->
           switch (s.sexp()) {
@@ -197,13 +273,28 @@ public class RDSReader implements Closeable {
     // Info: serialized class (looks like it is also the attribute of the altrep object!)
     // Info is a 3 element list: class name, package name, type
     var info = (ListSXP) readItem();
-    var state = readItem();
+    var state = readAltRepState();
     var attributes = readAttributes();
 
     var sexp = new AltRepUnserializer(info, state).unserialize();
     return sexp.withAttributes(attributes);
   }
 
+  /// The states of the ALTREP classes of base are vectors, or dotted pairs `(x . info)` (e.g.
+  /// wrappers and deferred strings), which aren't pairlists and are read into a two-element list.
+  private SEXP readAltRepState() throws IOException {
+    var flags = readFlags();
+    if (!flags.getType().isSexp(SEXPType.LIST)) {
+      return readItem(flags);
+    }
+
+    readAttributes(flags);
+    readTag(flags);
+    var car = readItem();
+    var cdr = readItem();
+    return SEXPs.list(car, cdr);
+  }
+
   private SEXP readPersist(Flags flags) throws IOException {
     var strs = readStringVec();
     // Call the persistent hook on that strsxp
@@ -217,11 +308,11 @@ public class RDSReader implements Closeable {
 
   private SEXP readComplex(Flags flags) throws IOException {
     var length = in.readInt();
-    var cplx = ImmutableList.<Complex>builder();
+    // Real and imaginary parts are interleaved.
+    var parts = in.readDoubles(2 * length);
+    var cplx = ImmutableList.<Complex>builderWithExpectedSize(length);
     for (int i = 0; i < length; i++) {
-      var real = in.readDouble();
-      var im = in.readDouble();
-      cplx.add(new Complex(real, im));
+      cplx.add(new Complex(parts[2 * i], parts[2 * i + 1]));
     }
     var attributes = readAttributes(flags);
 
@@ -236,6 +327,219 @@ public class RDSReader implements Closeable {
     return SEXPs.special(new BuiltinId(readBuiltinOrSpecial()));
   }
 
+  // region iterative decoding
+
+  /// Reads the item with `flags` with an explicit stack instead of recursion: the language
+  /// objects, pairlists, closures, promises and vectors it contains take a [Frame] on the heap
+  /// rather than Java stack frames, so it can be arbitrarily deep.
+  ///
+  /// The items are read in the same order as the recursive decoder, so references are numbered
+  /// the same way. Other items, which are rarely nested deeply (environments, bytecode...), are
+  /// read by [#readItem(Flags)].
+  private SEXP readIteratively(Flags flags) throws IOException {
+    var stack = new ArrayDeque<Frame>();
+    var result = begin(flags, stack);
+    while (!stack.isEmpty()) {
+      var frame = stack.peek();
+      if (result != null) {
+        frame.accept(result);
+        result = null;
+      }
+      if (frame.needsChild()) {
+        result = begin(readFlags(), stack);
+      } else {
+        stack.pop();
+        result = frame.finish();
+      }
+    }
+    return requireNonNull(result);
+  }
+
+  /// Pushes the frame of the item with `flags` and returns `null`, or reads it if it doesn't
+  /// need a frame.
+  private @Nullable SEXP begin(Flags flags, Deque<Frame> stack) throws IOException {
+    if (!(flags.getType() instanceof RDSItemType.Sexp s)) {
+      return readItem(flags);
+    }
+    var attr = flags.hasAttributes();
+    var tag = flags.hasTag();
+    Frame frame =
+        switch (s.sexp()) {
+          case LANG ->
+              new FixedFrame(
+                  new boolean[] {attr, tag, true, true},
+                  c -> {
+                    if (c[1] != null) {
+                      tag(c[1]);
+                    }
+                    return lang(c[2], c[3], attributesOrNone(c[0]));
+                  });
+          case LIST, DOT -> new ListFrame(flags, s.sexp());
+          case CLO ->
+              new FixedFrame(
+                  new boolean[] {attr, true, true, true},
+                  c -> closure(c[1], c[2], c[3], attributesOrNone(c[0])));
+          case PROM ->
+              new FixedFrame(
+                  new boolean[] {attr, tag, true, true},
+                  c -> {
+                    attributesOrNone(c[0]);
+                    return promise(c[1] == null ? SEXPs.NULL : c[1], c[2], c[3]);
+                  });
+          case VEC, EXPR -> {
+            var length = in.readInt();
+            var present = new boolean[length + 1];
+            Arrays.fill(present, 0, length, true);
+            present[length] = attr;
+            yield new FixedFrame(
+                present,
+                c -> {
+                  var items = Arrays.asList(c).subList(0, length);
+                  var attributes = attributesOrNone(c[length]);
+                  return s.sexp() == SEXPType.VEC
+                      ? SEXPs.vec(ImmutableList.copyOf(items), attributes)
+                      : SEXPs.expr(items, attributes);
+                });
+          }
+          default -> null;
+        };
+    if (frame == null) {
+      return readItem(flags);
+    }
+    stack.push(frame);
+    return null;
+  }
+
+  private Attributes attributesOrNone(@Nullable SEXP item) {
+    return item == null ? Attributes.NONE : attributes(item);
+  }
+
+  /// An item being read by [#readIteratively(Flags)], which is waiting for its children.
+  private abstract static class Frame {
+    /// Whether the next item in the stream is another child of this one.
+    abstract boolean needsChild() throws IOException;
+
+    abstract void accept(SEXP child) throws IOException;
+
+    /// Builds the item once all its children are read.
+    abstract SEXP finish();
+  }
+
+  /// An item with a fixed number of children, some of which may be absent (e.g. attributes).
+  private static final class FixedFrame extends Frame {
+    private final boolean[] present;
+    private final Function<@Nullable SEXP[], SEXP> build;
+    private final @Nullable SEXP[] children;
+    private int next = 0;
+
+    FixedFrame(boolean[] present, Function<@Nullable SEXP[], SEXP> build) {
+      this.present = present;
+      this.build = build;
+      this.children = new SEXP[present.length];
+    }
+
+    @Override
+    boolean needsChild() {
+      while (next < present.length && !present[next]) {
+        next++;
+      }
+      return next < present.length;
+    }
+
+    @Override
+    void accept(SEXP child) {
+      children[next++] = child;
+    }
+
+    @Override
+    SEXP finish() {
+      return build.apply(children);
+    }
+  }
+
+  /// A pairlist, read one cell at a time like [#readList(Flags, SEXPType)]: each cell has
+  /// optional attributes, an optional tag and an element, followed by the flags of the next cell.
+  private final class ListFrame extends Frame {
+    private static final int ATTRIBUTES = 0;
+    private static final int TAG = 1;
+    private static final int ELEMENT = 2;
+
+    private final SEXPType listType;
+    private final ImmutableList.Builder<TaggedElem> data = ImmutableList.builder();
+    private Flags flags;
+    private int slot = ATTRIBUTES;
+    private boolean first = true;
+    private String tag = "";
+
+    ListFrame(Flags flags, SEXPType listType) {
+      this.flags = flags;
+      this.listType = listType;
+    }
+
+    @Override
+    boolean needsChild() {
+      if (slot == ATTRIBUTES) {
+        if (flags.getType().isSexp(SEXPType.NIL)) {
+          return false;
+        }
+        if (!flags.getType().isSexp(listType)) {
+          var listTypeDesc = listType.name().toLowerCase();
+          throw new RDSException(
+              "Expected "
+                  + listTypeDesc
+                  + " (reading in the middle or at the end of a "
+                  + listTypeDesc
+                  + ")");
+        }
+        if (flags.hasAttributes()) {
+          return true;
+        }
+        first = false;
+        slot = TAG;
+      }
+      if (slot == TAG && !flags.hasTag()) {
+        tag = "";
+        slot = ELEMENT;
+      }
+      return true;
+    }
+
+    @Override
+    void accept(SEXP child) throws IOException {
+      switch (slot) {
+        case ATTRIBUTES -> {
+          var attributes = attributes(child);
+          if (!first && !attributes.isEmpty()) {
+            throw new RDSException(
+                "Unexpected attributes in the middle of a " + listType.name().toLowerCase());
+          }
+          first = false;
+          slot = TAG;
+        }
+        case TAG -> {
+          tag = tag(child);
+          slot = ELEMENT;
+        }
+        default -> {
+          data.add(new TaggedElem(tag, child));
+          flags = readFlags();
+          slot = ATTRIBUTES;
+        }
+      }
+    }
+
+    @Override
+    SEXP finish() {
+      return switch (listType) {
+        case LIST -> share(SEXPs.list(data.build()));
+        case DOT -> SEXPs.dots(data.build());
+        default -> throw new IllegalArgumentException("Unhandled list type: " + listType);
+      };
+    }
+  }
+
+  // endregion iterative decoding
+
   private int readBuiltinOrSpecial() throws IOException {
     var length = in.readInt();
     var name = in.readString(length, nativeEncoding);
@@ -255,6 +559,10 @@ public class RDSReader implements Closeable {
     var val = readItem();
     var expr = readItem();
 
+    return promise(tag, val, expr);
+  }
+
+  private static SEXP promise(SEXP tag, SEXP val, SEXP expr) {
     if (tag instanceof NilSXP) {
       // If the tag is nil, the promise is evaluated
       return SEXPs.promise(expr, val, SEXPs.EMPTY_ENV);
@@ -469,6 +777,7 @@ public class RDSReader implements Closeable {
       ans = SEXPs.lang(funSymOrLang, args, attributes);
     }
 
+    ans = share(ans);
     if (pos >= 0) {
       reps[pos] = ans;
     }
@@ -497,14 +806,28 @@ public class RDSReader implements Closeable {
     // any tag that might be present.
     readTag(flags);
 
-    var x = readItem();
-    if (!(x instanceof SymOrLangSXP fun)) {
+    var fun = readItem();
+    return lang(fun, readItem(), attributes);
+  }
+
+  private LangSXP lang(SEXP fun, SEXP args, Attributes attributes) {
+    if (!(fun instanceof SymOrLangSXP f)) {
       throw new RDSException("Expected symbol or language");
     }
-    if (!(readItem() instanceof ListSXP args)) {
+    if (!(args instanceof ListSXP a)) {
       throw new RDSException("Expected list");
     }
-    return SEXPs.lang(fun, args, attributes);
+    return share(SEXPs.lang(f, a, attributes));
+  }
+
+  /// The node structurally equal to `sexp` which was already read, if nodes are shared.
+  @SuppressWarnings("unchecked")
+  private <T extends SEXP> T share(T sexp) {
+    return sharing == null ? sexp : (T) sharing.share(sexp);
+  }
+
+  private Attributes share(Attributes attributes) {
+    return sharing == null ? attributes : sharing.share(attributes);
   }
 
   private String readChars() throws IOException {
@@ -550,6 +873,7 @@ public class RDSReader implements Closeable {
     if (locked != 0 && locked != 1) {
       throw new RDSException("Expected 0 or 1 (LOCKED)");
     }
+    item.setLocked(locked == 1);
 
     // enclosing environment - parent
     switch (readItem()) {
@@ -607,9 +931,7 @@ public class RDSReader implements Closeable {
     var data = in.readInts(length);
     var attributes = readAttributes(flags);
 
-    return SEXPs.logical(
-        Arrays.stream(data).mapToObj(Logical::valueOf).collect(ImmutableList.toImmutableList()),
-        attributes);
+    return SEXPs.logicalOwned(data, attributes);
   }
 
   private RealSXP readReals(Flags flags) throws IOException {
@@ -617,7 +939,7 @@ public class RDSReader implements Closeable {
     var data = in.readDoubles(length);
     var attributes = readAttributes(flags);
 
-    return SEXPs.real(data, attributes);
+    return SEXPs.realOwned(data, attributes);
   }
 
   private IntSXP readInts(Flags flags) throws IOException {
@@ -625,7 +947,7 @@ public class RDSReader implements Closeable {
     var data = in.readInts(length);
     var attributes = readAttributes(flags);
 
-    return SEXPs.integer(data, attributes);
+    return SEXPs.integerOwned(data, attributes);
   }
 
   private RawSXP readBytes(Flags flags) throws IOException {
@@ -669,7 +991,7 @@ public class RDSReader implements Closeable {
 
     // TODO: add the attributes here?
     return switch (listType) {
-      case LIST -> SEXPs.list(data.build());
+      case LIST -> share(SEXPs.list(data.build()));
       case DOT -> SEXPs.dots(data.build());
       default -> throw new IllegalArgumentException("Unhandled list type: " + listType);
     };
@@ -677,28 +999,33 @@ public class RDSReader implements Closeable {
 
   private CloSXP readClosure(Flags flags) throws IOException {
     var attributes = readAttributes(flags);
-    var item = readItem();
-    if (!(item instanceof EnvSXP env)) {
+    var env = readItem();
+    var formals = readItem();
+    var body = readItem();
+
+    return closure(env, formals, body, attributes);
+  }
+
+  private static CloSXP closure(SEXP env, SEXP formals, SEXP body, Attributes attributes) {
+    if (!(env instanceof EnvSXP e)) {
       throw new RDSException("Expected CLOENV to be environment");
     }
-    if (!(readItem() instanceof ListSXP formals)) {
+    if (!(formals instanceof ListSXP f)) {
       throw new RDSException("Expected closure FORMALS to be list");
     }
-    var body = readItem();
-
-    return SEXPs.closure(formals, body, env, attributes);
+    return SEXPs.closure(f, body, e, attributes);
   }
 
   /// Returns the empty string for no tag.
   private String readTag(Flags flags) throws IOException {
-    if (flags.hasTag()) {
-      if (readItem() instanceof RegSymSXP s) {
-        return s.name();
-      } else {
-        throw new RDSException("Expected tag to be a symbol");
-      }
+    return flags.hasTag() ? tag(readItem()) : "";
+  }
+
+  private static String tag(SEXP item) {
+    if (item instanceof RegSymSXP s) {
+      return s.name();
     } else {
-      return "";
+      throw new RDSException("Expected tag to be a symbol");
     }
   }
 
@@ -711,7 +1038,11 @@ public class RDSReader implements Closeable {
   }
 
   private Attributes readAttributes() throws IOException {
-    if (readItem() instanceof ListSXP xs) {
+    return attributes(readItem());
+  }
+
+  private Attributes attributes(SEXP item) {
+    if (item instanceof ListSXP xs) {
       var attrs = new Attributes.Builder();
 
       for (var x : xs) {
@@ -721,7 +1052,7 @@ public class RDSReader implements Closeable {
         attrs.put(x.tag(), x.value());
       }
 
-      return attrs.build();
+      return share(attrs.build());
     } else {
       throw new RDSException("Expected list");
     }
@@ -3,12 +3,12 @@ package org.prlprg.rds;
 import com.google.protobuf.ByteString;
 import java.io.*;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.DoubleStream;
 import java.util.stream.StreamSupport;
 import org.prlprg.RVersion;
-import org.prlprg.primitive.Logical;
 import org.prlprg.sexp.*;
 import org.prlprg.util.UnreachableError;
 
@@ -60,15 +60,19 @@ public class RDSWriter implements Closeable {
 
     out.writeByte((byte) '\n');
 
-    // Write version 2 of the encoding, since we want the writer to align with the reader and
-    // the reader does not support ALTREP
-    out.writeInt(2);
+    // Version 3 of the encoding, which keeps ALTREP vectors compact
+    out.writeInt(3);
 
     // Version of R for the writer
     out.writeInt(RVersion.LATEST_AWARE.encode());
 
     // Minimal version of R required to read back
-    out.writeInt(new RVersion(2, 3, 0, null).encode());
+    out.writeInt(new RVersion(3, 5, 0, null).encode());
+
+    // Native encoding, which the strings are written in
+    var encoding = Charset.defaultCharset().name().getBytes(StandardCharsets.US_ASCII);
+    out.writeInt(encoding.length);
+    out.writeBytes(encoding);
   }
 
   public void write(SEXP sexp) throws IOException {
@@ -79,6 +83,11 @@ public class RDSWriter implements Closeable {
   // See
   // https://github.com/wch/r-source/blob/65892cc124ac20a44950e6e432f9860b1d6e9bf4/src/main/serialize.c#L1021
   public void writeItem(SEXP s) throws IOException {
+    if (s instanceof AltRepSXP altRep) {
+      writeAltRep(s, altRep);
+      return;
+    }
+
     // Write the flags for this SEXP. This will vary depending on whether the SEXP is a special
     // RDS type or not
     var flags = flags(s);
@@ -128,6 +137,39 @@ public class RDSWriter implements Closeable {
 
   // UTILITY (not standard SEXPs) -----------------------------------------------------------------
 
+  /**
+   * Writes an ALTREP vector in its compact form: its class, its state and its attributes (which are
+   * always written, {@code NULL} if there are none).
+   */
+  private void writeAltRep(SEXP s, AltRepSXP altRep) throws IOException {
+    out.writeInt(
+        new Flags(RDSItemType.Special.ALTREPSXP, new GPFlags(), s.isObject(), false, false)
+            .encode());
+
+    writeItem(
+        SEXPs.list(
+            SEXPs.symbol(altRep.altRepClass()),
+            SEXPs.symbol(altRep.altRepPackage()),
+            SEXPs.integer(s.type().i)));
+
+    if (altRep.altRepState() instanceof ListSXP pair) {
+      // A dotted pair, whose CDR is written right after its CAR
+      out.writeInt(
+          new Flags(new RDSItemType.Sexp(SEXPType.LIST), new GPFlags(), false, false, false)
+              .encode());
+      writeItem(pair.get(0).value());
+      writeItem(pair.get(1).value());
+    } else {
+      writeItem(altRep.altRepState());
+    }
+
+    if (s.hasAttributes()) {
+      writeAttributes(s.attributes());
+    } else {
+      writeItem(SEXPs.NULL);
+    }
+  }
+
   /** Adds s to the ref table at the next available index */
   private void refAdd(SEXP s) {
     refTable.put(s, refIndex++);
@@ -283,8 +325,7 @@ public class RDSWriter implements Closeable {
 
     if (env instanceof UserEnvSXP userEnv) {
       // Write 1 if the environment is locked, or 0 if it is not
-      // FIXME: implement locked environments, as is this will always be false
-      out.writeInt(new GPFlags().isLocked() ? 1 : 0);
+      out.writeInt(userEnv.isLocked() ? 1 : 0);
       // Enclosure
       writeItem(userEnv.parent());
       // Frame
@@ -323,14 +364,12 @@ public class RDSWriter implements Closeable {
   }
 
   private void writeBuiltinOrSpecialSXP(BuiltinOrSpecialSXP bos) throws IOException {
-    // For now, we throw an exception upon writing any SpecialSXP or BuiltinSXP. This is because
-    // RDS serializes builtins via their name, but we do not have any (fully implemented) construct
-    // representing the name of a builtin (instead, they are represented with indices)
-    throw new UnsupportedOperationException("Unable to write builtin: " + bos);
-
-    // Spec for future implementation:
-    // - write an int representing the length of the BuiltinOrSpecialSXP's name
-    // - write the name as a String (not a CHARSXP, in that no additional flags are written)
+    // RDS serializes builtins by their name, which the reader looks up in R's function table:
+    // - an int representing the length of the name
+    // - the name as a String (not a CHARSXP, in that no additional flags are written)
+    var name = bos.id().name().getBytes(StandardCharsets.UTF_8);
+    out.writeInt(name.length);
+    out.writeBytes(name);
   }
 
   private void writeAbstractListSXP(AbstractListSXP lsxp) throws IOException {
@@ -408,24 +447,25 @@ public class RDSWriter implements Closeable {
         }
       }
       case IntSXP ints -> {
-        // Write all the ints to the stream
-        var vec = StreamSupport.stream(ints.spliterator(), false).mapToInt(i -> i).toArray();
-        out.writeInts(vec);
+        // Write all the ints to the stream, without `data()`, which copies compact sequences
+        for (int i = 0; i < ints.size(); i++) {
+          out.writeInt(ints.asInt(i));
+        }
       }
       case RawSXP bytes -> {
         // Write all the bytes to the stream
         out.writeBytes(bytes.data());
       }
       case LglSXP lgls -> {
-        // Write all the logicals to the stream as ints
-        var vec =
-            StreamSupport.stream(lgls.spliterator(), false).mapToInt(Logical::toInt).toArray();
-        out.writeInts(vec);
+        // Logicals are already stored as ints
+        out.writeInts(lgls.data());
       }
       case RealSXP reals -> {
-        // Write all the reals to the stream as doubles
-        var vec = StreamSupport.stream(reals.spliterator(), false).mapToDouble(d -> d).toArray();
-        out.writeDoubles(vec);
+        // Write all the reals to the stream as doubles, without `data()`, which copies compact
+        // sequences
+        for (int i = 0; i < reals.size(); i++) {
+          out.writeDouble(reals.asReal(i));
+        }
       }
       case ComplexSXP cplxs -> {
         // For each complex number in the vector, add two doubles representing the real and
@@ -0,0 +1,101 @@
+package org.prlprg.server;
+
+import java.util.EnumMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import org.jspecify.annotations.Nullable;
+
+/// Limits how many requests of each tier are compiled at the same time.
+///
+/// A burst of requests beyond the limits is turned away with `RESOURCE_EXHAUSTED` and a retry
+/// hint (see [CompileException#busy(String, long)]), instead of queueing an unbounded amount of
+/// work and thrashing the machine. The hint is honored by gRPC clients with a retry policy.
+final class AdmissionControl {
+  private final EnumMap<Messages.Tier, Semaphore> permits = new EnumMap<>(Messages.Tier.class);
+  private final EnumMap<Messages.Tier, Integer> limits = new EnumMap<>(Messages.Tier.class);
+  private final EnumMap<Messages.Tier, LongAdder> rejected = new EnumMap<>(Messages.Tier.class);
+  private final EnumMap<Messages.Tier, LongAdder> degraded = new EnumMap<>(Messages.Tier.class);
+  private final long retryAfterMs;
+
+  /// @param maxBaseline the maximum number of concurrent [Messages.Tier#BASELINE] requests, or a
+  ///     non-positive number for no limit.
+  /// @param maxOptimized the same for [Messages.Tier#OPTIMIZED] requests, including their
+  ///     native compilations in the background.
+  /// @param retryAfterMs how long rejected clients are asked to wait before retrying.
+  AdmissionControl(int maxBaseline, int maxOptimized, long retryAfterMs) {
+    this.retryAfterMs = retryAfterMs;
+    init(Messages.Tier.BASELINE, maxBaseline);
+    init(Messages.Tier.OPTIMIZED, maxOptimized);
+  }
+
+  private void init(Messages.Tier tier, int limit) {
+    limit = limit > 0 ? limit : Integer.MAX_VALUE;
+    limits.put(tier, limit);
+    permits.put(tier, new Semaphore(limit));
+    rejected.put(tier, new LongAdder());
+    degraded.put(tier, new LongAdder());
+  }
+
+  /// Admits a request of `tier`, which must close the returned permit once done.
+  ///
+  /// @throws CompileException with `RESOURCE_EXHAUSTED` if there are already as many requests of
+  ///     `tier` as allowed.
+  Permit admit(Messages.Tier tier) throws CompileException {
+    var permit = acquire(tier);
+    if (permit == null) {
+      rejected.get(tier).increment();
+      throw CompileException.busy(
+          "Too many concurrent " + tier + " compilations, retry later", retryAfterMs);
+    }
+    return permit;
+  }
+
+  /// Like [#admit(Messages.Tier)], but returns `null` if the request is not admitted, for requests
+  /// which are then served without it (see [#degraded(Messages.Tier)]) rather than turned away.
+  @Nullable Permit tryAdmit(Messages.Tier tier) {
+    var permit = acquire(tier);
+    if (permit == null) {
+      degraded.get(tier).increment();
+    }
+    return permit;
+  }
+
+  private @Nullable Permit acquire(Messages.Tier tier) {
+    var semaphore = permits.get(tier);
+    return semaphore.tryAcquire() ? new Permit(semaphore) : null;
+  }
+
+  /// The number of requests of `tier` currently admitted.
+  int active(Messages.Tier tier) {
+    return limits.get(tier) - permits.get(tier).availablePermits();
+  }
+
+  /// The number of requests of `tier` which were turned away with `RESOURCE_EXHAUSTED`.
+  long rejected(Messages.Tier tier) {
+    return rejected.get(tier).sum();
+  }
+
+  /// The number of requests of `tier` which were not admitted by [#tryAdmit(Messages.Tier)], and
+  /// were served a lower tier instead.
+  long degraded(Messages.Tier tier) {
+    return degraded.get(tier).sum();
+  }
+
+  /// The right for an admitted request to run. Closing it more than once has no effect.
+  static final class Permit implements AutoCloseable {
+    private final Semaphore semaphore;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Permit(Semaphore semaphore) {
+      this.semaphore = semaphore;
+    }
+
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        semaphore.release();
+      }
+    }
+  }
+}
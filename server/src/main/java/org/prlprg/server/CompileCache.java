@@ -0,0 +1,256 @@
+package org.prlprg.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig.CacheEvictionPolicy;
+import org.prlprg.util.ThrowingSupplier;
+
+/// Thread-safe, size-bounded cache of compilation results.
+///
+/// Entries are futures, so that two requests for the same key that arrive at the same time share
+/// a single compilation: the first one computes the value, the other ones wait for it. Lookups
+/// never block on [#clear()] or [#removeIf(Predicate)].
+///
+/// Each computed value is weighed (in bytes, usually its serialized size). When the total weight
+/// goes over the budget, entries are evicted according to the [CacheEvictionPolicy] until the
+/// cache is back under [#LOW_WATERMARK] of its budget, so that eviction doesn't run on every
+/// insertion once the cache is full.
+///
+/// Failed compilations and `null` results are not cached.
+final class CompileCache<K, V> {
+  /// After an eviction, the cache is filled to at most this fraction of its budget.
+  private static final double LOW_WATERMARK = 0.9;
+
+  private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final long maxBytes;
+  private final CacheEvictionPolicy policy;
+  private final ToLongFunction<V> weigher;
+
+  /// Logical clock for recency, incremented on each access.
+  private final AtomicLong clock = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /// Snapshot of the cache counters.
+  ///
+  /// A lookup which waits on an in-flight computation counts as a hit.
+  record Stats(long hits, long misses, long evictions, long bytes, int entries) {
+    @Override
+    public String toString() {
+      return "hits="
+          + hits
+          + ", misses="
+          + misses
+          + ", evictions="
+          + evictions
+          + ", bytes="
+          + bytes
+          + ", entries="
+          + entries;
+    }
+  }
+
+  private static final class Entry<V> {
+    final CompletableFuture<@Nullable V> future = new CompletableFuture<>();
+    volatile long lastAccess;
+    final LongAdder frequency = new LongAdder();
+
+    // Guarded by `this`: whether the weight is counted in `bytes`, and whether the entry was
+    // removed from the map (in which case it must not be counted anymore).
+    long weight;
+    boolean counted;
+    boolean removed;
+
+    Entry(long now) {
+      touch(now);
+    }
+
+    void touch(long now) {
+      lastAccess = now;
+      frequency.increment();
+    }
+  }
+
+  /// Creates an unbounded cache.
+  CompileCache() {
+    this(0, CacheEvictionPolicy.LRU, _ -> 0);
+  }
+
+  /// Creates a cache which evicts entries following `policy` once the sum of their weights
+  /// (computed by `weigher`) exceeds `maxBytes`. If `maxBytes` is `0`, the cache is unbounded.
+  CompileCache(long maxBytes, CacheEvictionPolicy policy, ToLongFunction<V> weigher) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("Negative cache budget: " + maxBytes);
+    }
+    this.maxBytes = maxBytes;
+    this.policy = policy;
+    this.weigher = weigher;
+  }
+
+  /// Returns the value associated with `key`, computing it with `compute` in the calling thread
+  /// if it is neither cached nor being computed by another thread.
+  ///
+  /// @throws Exception whatever `compute` throws (also re-thrown in the threads which were
+  ///     waiting for the same key).
+  @Nullable V get(K key, ThrowingSupplier<@Nullable V> compute) throws Exception {
+    var existing = entries.get(key);
+    if (existing != null) {
+      return hit(existing);
+    }
+
+    var entry = new Entry<V>(clock.incrementAndGet());
+    existing = entries.putIfAbsent(key, entry);
+    if (existing != null) {
+      return hit(existing);
+    }
+    misses.increment();
+
+    try {
+      var value = compute.getWithException();
+      if (value == null) {
+        remove(key, entry);
+      } else {
+        account(entry, weigher.applyAsLong(value));
+      }
+      entry.future.complete(value);
+      evictIfNeeded();
+      return value;
+    } catch (Throwable e) {
+      remove(key, entry);
+      entry.future.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  /// Returns the value associated with `key` if it has already been computed, without waiting for
+  /// an in-flight computation.
+  @Nullable V getIfPresent(K key) {
+    var entry = entries.get(key);
+    if (entry == null || !entry.future.isDone() || entry.future.isCompletedExceptionally()) {
+      return null;
+    }
+    entry.touch(clock.incrementAndGet());
+    return entry.future.join();
+  }
+
+  /// Whether `key` is cached or being computed.
+  boolean contains(K key) {
+    return entries.containsKey(key);
+  }
+
+  void removeIf(Predicate<K> predicate) {
+    for (var e : entries.entrySet()) {
+      if (predicate.test(e.getKey())) {
+        remove(e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  void clear() {
+    removeIf(_ -> true);
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  Stats stats() {
+    return new Stats(hits.sum(), misses.sum(), evictions.sum(), bytes.get(), entries.size());
+  }
+
+  private @Nullable V hit(Entry<V> entry) throws Exception {
+    hits.increment();
+    entry.touch(clock.incrementAndGet());
+    return await(entry.future);
+  }
+
+  private void account(Entry<V> entry, long weight) {
+    synchronized (entry) {
+      if (!entry.removed) {
+        entry.weight = weight;
+        entry.counted = true;
+        bytes.addAndGet(weight);
+      }
+    }
+  }
+
+  private boolean remove(K key, Entry<V> entry) {
+    if (!entries.remove(key, entry)) {
+      return false;
+    }
+    synchronized (entry) {
+      entry.removed = true;
+      if (entry.counted) {
+        entry.counted = false;
+        bytes.addAndGet(-entry.weight);
+      }
+    }
+    return true;
+  }
+
+  private void evictIfNeeded() {
+    if (maxBytes == 0 || bytes.get() <= maxBytes) {
+      return;
+    }
+
+    // Only one thread evicts at a time; the others keep serving lookups.
+    synchronized (this) {
+      if (bytes.get() <= maxBytes) {
+        return;
+      }
+
+      // In-flight computations have no weight yet, so they are never candidates.
+      var candidates = new ArrayList<Map.Entry<K, Entry<V>>>();
+      for (var e : entries.entrySet()) {
+        if (e.getValue().future.isDone()) {
+          candidates.add(e);
+        }
+      }
+      Comparator<Map.Entry<K, Entry<V>>> byRecency =
+          Comparator.comparingLong(e -> e.getValue().lastAccess);
+      candidates.sort(
+          switch (policy) {
+            case LRU -> byRecency;
+            case LFU ->
+                Comparator.<Map.Entry<K, Entry<V>>>comparingLong(e -> e.getValue().frequency.sum())
+                    .thenComparing(byRecency);
+          });
+
+      var target = (long) (maxBytes * LOW_WATERMARK);
+      for (var e : candidates) {
+        if (bytes.get() <= target) {
+          break;
+        }
+        if (remove(e.getKey(), e.getValue())) {
+          evictions.increment();
+        }
+      }
+    }
+  }
+
+  private static <V> @Nullable V await(CompletableFuture<@Nullable V> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException | CompletionException e) {
+      if (e.getCause() instanceof Exception cause) {
+        throw cause;
+      }
+      throw e;
+    } catch (CancellationException e) {
+      throw new InterruptedException("Compilation was cancelled");
+    }
+  }
+}
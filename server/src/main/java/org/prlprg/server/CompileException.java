@@ -0,0 +1,75 @@
+package org.prlprg.server;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
+import org.prlprg.util.cc.CCompilerBusyException;
+
+/// A compilation request which failed, along with the gRPC status to report to the client.
+final class CompileException extends Exception {
+  // gRPC has a max header size of 8KB, and compilation errors can get quite big
+  private static final int MAX_DESCRIPTION_LENGTH = 7000;
+
+  // Trailer telling gRPC clients with a retry policy how long to wait before retrying.
+  private static final Metadata.Key<String> RETRY_PUSHBACK =
+      Metadata.Key.of("grpc-retry-pushback-ms", Metadata.ASCII_STRING_MARSHALLER);
+
+  private final Status status;
+  private final @Nullable Metadata trailers;
+
+  CompileException(Status status) {
+    this(status, null);
+  }
+
+  private CompileException(Status status, @Nullable Metadata trailers) {
+    super(status.getDescription(), status.getCause());
+    this.status = status;
+    this.trailers = trailers;
+  }
+
+  /// The server is too busy to compile now, the client should retry in `retryAfterMs`.
+  static CompileException busy(String description, long retryAfterMs) {
+    var trailers = new Metadata();
+    trailers.put(RETRY_PUSHBACK, Long.toString(retryAfterMs));
+    return new CompileException(Status.RESOURCE_EXHAUSTED.withDescription(description), trailers);
+  }
+
+  static CompileException bytecode(Messages.Function function, Exception cause) {
+    return new CompileException(
+        Status.INTERNAL
+            .withDescription(
+                "Cannot bytecode compile function " + function.getName() + " ; " + message(cause))
+            .withCause(cause));
+  }
+
+  static CompileException nativeCode(Messages.Function function, Exception cause) {
+    // A saturated C compiler pool is not a failure of the compilation: the client may retry.
+    if (cause instanceof CCompilerBusyException) {
+      return busy(
+          "Cannot native compile function " + function.getName() + " ; " + message(cause),
+          AppConfig.RETRY_PUSHBACK_MS);
+    }
+    return new CompileException(
+        Status.INTERNAL
+            .withDescription(
+                "Cannot native compile function " + function.getName() + " ; " + message(cause))
+            .withCause(cause));
+  }
+
+  Status status() {
+    return status;
+  }
+
+  /// The exception to report to the client, with the trailers.
+  StatusRuntimeException asRuntimeException() {
+    return status.asRuntimeException(trailers);
+  }
+
+  private static String message(Exception e) {
+    var msg = String.valueOf(e.getMessage());
+    // we truncate the message, as it can get quite big with compilation errors
+    return msg.substring(0, Math.min(msg.length(), MAX_DESCRIPTION_LENGTH));
+  }
+}
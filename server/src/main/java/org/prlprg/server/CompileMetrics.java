@@ -0,0 +1,157 @@
+package org.prlprg.server;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import org.jspecify.annotations.Nullable;
+
+/// Metrics of the compile pipeline: how long each stage takes, how big the responses are, and
+/// gauges registered by the components (cache hit rates, queue depths...).
+///
+/// They are exported in the Prometheus text format by [#scrape()], see [MetricsService].
+final class CompileMetrics {
+  /// The stages of a compilation, timed separately.
+  enum Stage {
+    /// Reading the closure sent by the client ([org.prlprg.rds.RDSReader]).
+    RDS_DESERIALIZE,
+    /// Compiling the closure to bytecode ([org.prlprg.bc.BCCompiler]).
+    BC_COMPILE,
+    /// Serializing the bytecode ([org.prlprg.rds.RDSWriter]).
+    RDS_SERIALIZE,
+    /// Generating C code from the bytecode ([org.prlprg.bc2c.BC2CCompiler]).
+    BC2C_CODEGEN,
+    /// Compiling the C code to an object file.
+    CC_COMPILE;
+
+    String label() {
+      return name().toLowerCase(Locale.ROOT);
+    }
+  }
+
+  // From 100us to about 100s, which covers everything from a cache hit to a big gcc -O3.
+  private static final double[] SECONDS_BUCKETS = {
+    0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+    25, 50, 100
+  };
+  // From 256B to 64MiB.
+  private static final double[] BYTES_BUCKETS = {
+    256, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216, 67108864
+  };
+
+  private final EnumMap<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+  private final Histogram responseBytes = new Histogram(BYTES_BUCKETS);
+  private final List<Gauge> gauges = new ArrayList<>();
+
+  CompileMetrics() {
+    for (var stage : Stage.values()) {
+      stages.put(stage, new Histogram(SECONDS_BUCKETS));
+    }
+  }
+
+  /// Records that `stage` ran from `startNanos` (a [System#nanoTime()]) until now.
+  void observe(Stage stage, long startNanos) {
+    stages.get(stage).observe((System.nanoTime() - startNanos) / 1e9);
+  }
+
+  void observeResponse(int bytes) {
+    responseBytes.observe(bytes);
+  }
+
+  /// Registers a gauge (or, if `name` ends in `_total`, a counter) exported as `name{labels}`.
+  ///
+  /// @param labels the Prometheus labels, e.g. `cache="bytecode"`, or an empty string.
+  synchronized void register(String name, String help, String labels, LongSupplier value) {
+    gauges.add(new Gauge(name, help, labels, value));
+  }
+
+  /// Returns all the metrics in the Prometheus text exposition format.
+  synchronized String scrape() {
+    var out = new StringBuilder();
+
+    header(out, "rsh_compile_stage_seconds", "Time spent in each compilation stage", "histogram");
+    for (var e : stages.entrySet()) {
+      e.getValue().write(out, "rsh_compile_stage_seconds", "stage=\"" + e.getKey().label() + "\"");
+    }
+
+    header(out, "rsh_response_bytes", "Serialized size of the compile responses", "histogram");
+    responseBytes.write(out, "rsh_response_bytes", "");
+
+    @Nullable String previous = null;
+    for (var gauge : gauges) {
+      // Series of the same metric must be grouped under a single header.
+      if (!gauge.name().equals(previous)) {
+        header(
+            out, gauge.name(), gauge.help(), gauge.name().endsWith("_total") ? "counter" : "gauge");
+        previous = gauge.name();
+      }
+      out.append(gauge.name());
+      if (!gauge.labels().isEmpty()) {
+        out.append('{').append(gauge.labels()).append('}');
+      }
+      out.append(' ').append(gauge.value().getAsLong()).append('\n');
+    }
+    return out.toString();
+  }
+
+  private static void header(StringBuilder out, String name, String help, String type) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private record Gauge(String name, String help, String labels, LongSupplier value) {}
+
+  /// A histogram with fixed buckets. Observations are lock-free.
+  static final class Histogram {
+    private final double[] bounds;
+    // One more than the bounds, for +Inf.
+    private final LongAdder[] counts;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram(double[] bounds) {
+      this.bounds = bounds;
+      this.counts = new LongAdder[bounds.length + 1];
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = new LongAdder();
+      }
+    }
+
+    void observe(double value) {
+      int i = 0;
+      while (i < bounds.length && value > bounds[i]) {
+        i++;
+      }
+      counts[i].increment();
+      sum.add(value);
+    }
+
+    /// Writes the histogram, with cumulative buckets as Prometheus expects.
+    void write(StringBuilder out, String name, String labels) {
+      var prefix = labels.isEmpty() ? "" : labels + ",";
+      long cumulative = 0;
+      for (int i = 0; i < counts.length; i++) {
+        cumulative += counts[i].sum();
+        var le = i < bounds.length ? format(bounds[i]) : "+Inf";
+        out.append(name)
+            .append("_bucket{")
+            .append(prefix)
+            .append("le=\"")
+            .append(le)
+            .append("\"} ")
+            .append(cumulative)
+            .append('\n');
+      }
+      var suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+      out.append(name).append("_sum").append(suffix).append(' ').append(sum.sum()).append('\n');
+      out.append(name).append("_count").append(suffix).append(' ').append(cumulative).append('\n');
+    }
+
+    private static String format(double bound) {
+      return BigDecimal.valueOf(bound).stripTrailingZeros().toPlainString();
+    }
+  }
+}
@@ -6,15 +6,20 @@ import io.grpc.health.v1.HealthCheckResponse;
 import io.grpc.protobuf.services.HealthStatusManager;
 import io.grpc.protobuf.services.ProtoReflectionService;
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
+import org.prlprg.AppConfig;
+import org.prlprg.service.RshCompiler;
 
 public class CompileServer {
   private static final Logger logger = Logger.getLogger(CompileServer.class.getName());
 
   private final int port;
   private final Server server;
+  private final CompileService service;
   private HealthStatusManager health;
 
   static {
@@ -28,9 +33,12 @@ public class CompileServer {
   public CompileServer(int port) {
     this.port = port;
     this.health = new HealthStatusManager();
+    this.service = new CompileService();
     this.server =
         ServerBuilder.forPort(port)
-            .addService(new CompileService())
+            .executor(requestExecutor())
+            .addService(service)
+            .addService(new MetricsService(service.metrics()))
             .addService(health.getHealthService())
             .addService(
                 ProtoReflectionService
@@ -38,7 +46,22 @@ public class CompileServer {
             .build();
   }
 
+  /// The executor running the requests, see [AppConfig#REQUEST_EXECUTOR]. The CPU-heavy work is
+  /// bounded separately, by the admission control of the [CompileService], its background pool,
+  /// and the C compiler pool.
+  private static Executor requestExecutor() {
+    return switch (AppConfig.REQUEST_EXECUTOR) {
+      case VIRTUAL ->
+          Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("grpc-request-", 0).factory());
+      case FIXED ->
+          Executors.newFixedThreadPool(
+              AppConfig.REQUEST_THREADS,
+              Thread.ofPlatform().name("grpc-request-", 0).daemon().factory());
+    };
+  }
+
   public void start() throws Exception {
+    RshCompiler.precompileHeadersInBackground();
     server.start();
     logger.info("Server started, listening on " + port);
     Runtime.getRuntime()
@@ -64,6 +87,7 @@ public class CompileServer {
     if (server != null) {
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
     }
+    service.shutdown();
   }
 
   /** Await termination on the main thread since the grpc library uses daemon threads. */
@@ -1,47 +1,265 @@
 package org.prlprg.server;
 
-import com.google.common.io.Files;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
 import com.google.protobuf.ByteString;
 import io.grpc.Status;
 import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
 import org.prlprg.RVersion;
 import org.prlprg.bc.BCCompiler;
 import org.prlprg.bc.Bc;
 import org.prlprg.bc.BcOptLevel;
 import org.prlprg.bc2c.BC2CCompiler;
+import org.prlprg.gen2c.CUnit;
 import org.prlprg.rds.RDSReader;
 import org.prlprg.rds.RDSWriter;
+import org.prlprg.server.CompileMetrics.Stage;
 import org.prlprg.service.NativeClosure;
 import org.prlprg.service.RshCompiler;
 import org.prlprg.service.RshCompiler.RuntimeVariant;
 import org.prlprg.session.GNURSession;
+import org.prlprg.session.RSession;
+import org.prlprg.sexp.BCodeSXP;
 import org.prlprg.sexp.CloSXP;
-import org.prlprg.sexp.SEXP;
+import org.prlprg.sexp.NamespaceEnvSXP;
 import org.prlprg.sexp.SEXPs;
 import org.prlprg.util.Pair;
 import org.prlprg.util.Triple;
+import org.prlprg.util.cc.CCObjectCache;
+import org.prlprg.util.cc.CCompilerPool;
 
 class CompileService extends CompileServiceGrpc.CompileServiceImplBase {
   private static final Logger logger = Logger.getLogger(CompileServer.class.getName());
 
-  private @Nullable GNURSession session = null;
+  private final SessionRegistry sessions;
+  // The session of the latest init request, for the compile requests without a session id.
+  private volatile SessionRegistry.@Nullable Session latestSession = null;
 
   // Cache for byte-code, only for functions. We keep the already serialized code in the cache
-  // not the Bc (or BcCodeSXP)
+  // along with the Bc, which is needed for the native compilation. Entries are weighed by the size
+  // of the serialized code.
   // Key is (hash, optimisationLevel)
-  private final HashMap<Pair<Long, BcOptLevel>, Pair<Bc, ByteString>> bcCache = new HashMap<>();
-  // Cache for native code.
+  private final CompileCache<Pair<Long, BcOptLevel>, Pair<Bc, ByteString>> bcCache =
+      new CompileCache<>(
+          AppConfig.BC_CACHE_MAX_BYTES, AppConfig.CACHE_EVICTION_POLICY, bc -> bc.second().size());
+  // Cache for native code. Entries are weighed by the size of the object file and constant pool.
   // Key is (hash, bcOpt, ccOpt)
-  private final HashMap<Triple<Long, BcOptLevel, Integer>, NativeClosure> nativeCache =
-      new HashMap<>();
+  private final CompileCache<Triple<Long, BcOptLevel, Integer>, NativeClosure> nativeCache =
+      new CompileCache<>(
+          AppConfig.NATIVE_CACHE_MAX_BYTES,
+          AppConfig.CACHE_EVICTION_POLICY,
+          closure -> closure.code().size() + closure.constantPool().size());
+  // Compilation results persisted across restarts, looked up before the in-memory caches.
+  // `null` if disabled.
+  private final @Nullable DiskCompileCache diskCache;
+  // Native compilations which the client doesn't wait for, and batch compilations.
+  private final ExecutorService compileExecutor =
+      Executors.newFixedThreadPool(
+          AppConfig.NATIVE_COMPILE_THREADS,
+          Thread.ofPlatform().name("native-compile-", 0).daemon().factory());
+  // Limits the concurrent requests per tier.
+  private final AdmissionControl admission;
+  private final CompileMetrics metrics = new CompileMetrics();
+  private final LongAdder diskHits = new LongAdder();
+  private final LongAdder diskMisses = new LongAdder();
+  // Functions of precompiled packages are cached under their [#closureKey(CloSXP)], as the
+  // server cannot compute the hash clients give them. This maps the hashes of the requested
+  // functions found among them to their key.
+  private final ConcurrentHashMap<Long, Long> precompiledAliases = new ConcurrentHashMap<>();
+  private final LongAdder precompiledHits = new LongAdder();
+  // The [#namespaceKey(NamespaceEnvSXP)]s of the precompiled packages, so requests only compute
+  // the key of the closures which may have been precompiled.
+  private final Set<String> precompiledNamespaces = ConcurrentHashMap.newKeySet();
+
+  CompileService() {
+    this(AppConfig.COMPILE_CACHE_DIR.isEmpty() ? null : Path.of(AppConfig.COMPILE_CACHE_DIR));
+  }
+
+  CompileService(@Nullable Path diskCacheDir) {
+    this(
+        diskCacheDir,
+        new AdmissionControl(
+            AppConfig.MAX_BASELINE_REQUESTS,
+            AppConfig.MAX_OPTIMIZED_REQUESTS,
+            AppConfig.RETRY_PUSHBACK_MS));
+  }
+
+  CompileService(@Nullable Path diskCacheDir, AdmissionControl admission) {
+    this(diskCacheDir, admission, CompileService::newSession);
+  }
+
+  /// @param sessionFactory creates the R session of the clients with a given setup.
+  CompileService(
+      @Nullable Path diskCacheDir,
+      AdmissionControl admission,
+      Function<SessionRegistry.Key, GNURSession> sessionFactory) {
+    this.admission = admission;
+    this.sessions =
+        new SessionRegistry(
+            sessionFactory, Executors.newVirtualThreadPerTaskExecutor(), AppConfig.MAX_SESSIONS);
+    DiskCompileCache diskCache = null;
+    if (diskCacheDir != null) {
+      var fingerprint = RshCompiler.buildFingerprint();
+      if (fingerprint == null) {
+        logger.warning("Not using the persistent compile cache, since the build can't be hashed");
+      } else {
+        try {
+          diskCache = new DiskCompileCache(diskCacheDir, fingerprint);
+          logger.info("Using the persistent compile cache in " + diskCacheDir.toAbsolutePath());
+        } catch (IOException e) {
+          logger.log(
+              Level.WARNING,
+              "Cannot open the persistent compile cache in " + diskCacheDir + ", disabling it",
+              e);
+        }
+      }
+    }
+    this.diskCache = diskCache;
+    registerMetrics();
+  }
+
+  /// The metrics of this service, see [MetricsService].
+  CompileMetrics metrics() {
+    return metrics;
+  }
+
+  private void registerMetrics() {
+    // Series of the same metric must be registered one after the other.
+    var objectCache = CCObjectCache.shared();
+    metrics.register(
+        "rsh_cache_hits_total", "Cache hits", "cache=\"bytecode\"", () -> bcCache.stats().hits());
+    metrics.register(
+        "rsh_cache_hits_total", "Cache hits", "cache=\"native\"", () -> nativeCache.stats().hits());
+    metrics.register("rsh_cache_hits_total", "Cache hits", "cache=\"disk\"", diskHits::sum);
+    metrics.register(
+        "rsh_cache_hits_total", "Cache hits", "cache=\"precompiled\"", precompiledHits::sum);
+    metrics.register(
+        "rsh_cache_hits_total",
+        "Cache hits",
+        "cache=\"object\"",
+        () -> objectCache == null ? 0 : objectCache.hits());
+    metrics.register(
+        "rsh_cache_misses_total",
+        "Cache misses",
+        "cache=\"bytecode\"",
+        () -> bcCache.stats().misses());
+    metrics.register(
+        "rsh_cache_misses_total",
+        "Cache misses",
+        "cache=\"native\"",
+        () -> nativeCache.stats().misses());
+    metrics.register("rsh_cache_misses_total", "Cache misses", "cache=\"disk\"", diskMisses::sum);
+    metrics.register(
+        "rsh_cache_misses_total",
+        "Cache misses",
+        "cache=\"object\"",
+        () -> objectCache == null ? 0 : objectCache.misses());
+    metrics.register(
+        "rsh_cache_evictions_total",
+        "Cache evictions",
+        "cache=\"bytecode\"",
+        () -> bcCache.stats().evictions());
+    metrics.register(
+        "rsh_cache_evictions_total",
+        "Cache evictions",
+        "cache=\"native\"",
+        () -> nativeCache.stats().evictions());
+    metrics.register(
+        "rsh_cache_bytes",
+        "Size of the cached entries",
+        "cache=\"bytecode\"",
+        () -> bcCache.stats().bytes());
+    metrics.register(
+        "rsh_cache_bytes",
+        "Size of the cached entries",
+        "cache=\"native\"",
+        () -> nativeCache.stats().bytes());
+    metrics.register(
+        "rsh_cache_entries",
+        "Number of cached entries",
+        "cache=\"bytecode\"",
+        () -> bcCache.stats().entries());
+    metrics.register(
+        "rsh_cache_entries",
+        "Number of cached entries",
+        "cache=\"native\"",
+        () -> nativeCache.stats().entries());
+    metrics.register(
+        "rsh_cache_entries",
+        "Number of cached entries",
+        "cache=\"disk\"",
+        () -> diskCache == null ? 0 : diskCache.size());
+    metrics.register(
+        "rsh_cc_jobs",
+        "C compiler invocations",
+        "state=\"running\"",
+        () -> CCompilerPool.shared().activeJobs());
+    metrics.register(
+        "rsh_cc_jobs",
+        "C compiler invocations",
+        "state=\"queued\"",
+        () -> CCompilerPool.shared().queuedJobs());
+    for (var tier : List.of(Messages.Tier.BASELINE, Messages.Tier.OPTIMIZED)) {
+      metrics.register(
+          "rsh_requests_active",
+          "Requests being compiled",
+          "tier=\"" + tier + "\"",
+          () -> admission.active(tier));
+    }
+    for (var tier : List.of(Messages.Tier.BASELINE, Messages.Tier.OPTIMIZED)) {
+      metrics.register(
+          "rsh_requests_rejected_total",
+          "Requests turned away with RESOURCE_EXHAUSTED",
+          "tier=\"" + tier + "\"",
+          () -> admission.rejected(tier));
+    }
+    metrics.register(
+        "rsh_requests_degraded_total",
+        "Deferred native requests served only the bytecode, since the server was busy",
+        "",
+        () -> admission.degraded(Messages.Tier.OPTIMIZED));
+    metrics.register("rsh_sessions", "R sessions shared by the clients", "", sessions::size);
+    metrics.register(
+        "rsh_background_compile_queue",
+        "Background and batch compilations waiting for a thread",
+        "",
+        () -> compileExecutor instanceof ThreadPoolExecutor pool ? pool.getQueue().size() : 0);
+  }
+
+  /// Stops the background compilations, then flushes and closes the persistent cache.
+  void shutdown() {
+    compileExecutor.shutdownNow();
+    if (diskCache != null) {
+      try {
+        diskCache.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Cannot close the persistent compile cache", e);
+      }
+    }
+  }
 
   private static String genSymbol(Messages.Function function) {
     // the hash is uint64 (unsigned ) but java does not have unsigned numbers and store it as a long
@@ -50,6 +268,34 @@ class CompileService extends CompileServiceGrpc.CompileServiceImplBase {
     return "gen_" + Long.toUnsignedString(function.getHash());
   }
 
+  /// A parsed compile request, along with the session it is compiled in.
+  private record CompileJob(
+      RSession session,
+      RVersion rVersion,
+      Messages.Function function,
+      Messages.Tier tier,
+      BcOptLevel bcOpt,
+      int ccOpt,
+      boolean noCache) {
+    CompileJob withTier(Messages.Tier tier) {
+      return new CompileJob(session, rVersion, function, tier, bcOpt, ccOpt, noCache);
+    }
+
+    DiskCompileCache.Key diskKey() {
+      return new DiskCompileCache.Key(function.getHash(), tier, bcOpt, ccOpt, rVersion);
+    }
+
+    Triple<Long, BcOptLevel, Integer> nativeKey() {
+      return Triple.of(function.getHash(), bcOpt, ccOpt);
+    }
+  }
+
+  /// A symbol with the same length as `name` (a [#genSymbol(Messages.Function)]), which cannot
+  /// appear anywhere else in the object: generated symbols only have digits after `gen_`.
+  private static String placeholderSymbol(String name) {
+    return "gen_" + "Q".repeat(name.length() - "gen_".length());
+  }
+
   // Testing externally: grpcurl -plaintext -d '{"function":{"name": "testFunc"}}' 0.0.0.0:8980
   // CompileService.Compile
   @Override
@@ -62,9 +308,513 @@ class CompileService extends CompileServiceGrpc.CompileServiceImplBase {
     responseObserver.setCompression("gzip"); // Or for all responses? In that case, we just need to
     // add an interceptor.
 
+    var job = parseRequest(request, responseObserver);
+    if (job == null) {
+      return;
+    }
+
+    // In deferred mode, if the native code is not ready yet, we answer with the bytecode and the
+    // native code will be picked up by a later request. Without caching, there is no later
+    // request, so we just compile synchronously.
+    // If the server is too busy to compile the native code in the background, it is not compiled
+    // and the client will ask again later.
+    if (request.getDeferNative() && job.tier() == Messages.Tier.OPTIMIZED && !job.noCache()) {
+      var ready = readyNative(job);
+      if (ready == null) {
+        var permit = admission.tryAdmit(Messages.Tier.OPTIMIZED);
+        if (permit != null) {
+          compileNativeInBackground(job, permit);
+        }
+        job = job.withTier(Messages.Tier.BASELINE);
+      } else {
+        send(responseObserver, ready);
+        responseObserver.onCompleted();
+        return;
+      }
+    }
+
+    try (var _ = admission.admit(job.tier())) {
+      send(responseObserver, compile(job));
+    } catch (CompileException e) {
+      // See
+      // https://github.com/grpc/grpc-java/blob/master/examples/src/main/java/io/grpc/examples/errorhandling/DetailErrorSample.java
+      // We could have more details using that:
+      // https://github.com/grpc/grpc-java/blob/master/examples/src/main/java/io/grpc/examples/errordetails/ErrorDetailsExample.java
+      responseObserver.onError(e.asRuntimeException());
+      return;
+    }
+    responseObserver.onCompleted();
+  }
+
+  /// Like [#compile(Messages.CompileRequest, StreamObserver)], but for [Messages.Tier#OPTIMIZED]
+  /// requests whose native code is not ready, first streams back the bytecode, then the native code
+  /// once it has been compiled on the background pool.
+  @Override
+  public void compileTiered(
+      Messages.CompileRequest request,
+      StreamObserver<Messages.CompileResponse> plainResponseObserver) {
+    ServerCallStreamObserver<Messages.CompileResponse> responseObserver =
+        (ServerCallStreamObserver<Messages.CompileResponse>) plainResponseObserver;
+    responseObserver.setCompression("gzip");
+
+    var job = parseRequest(request, responseObserver);
+    if (job == null) {
+      return;
+    }
+
+    CompletableFuture<Messages.CompileResponse> pending;
+    try {
+      if (job.tier() != Messages.Tier.OPTIMIZED) {
+        try (var _ = admission.admit(job.tier())) {
+          send(responseObserver, compile(job));
+        }
+        responseObserver.onCompleted();
+        return;
+      }
+
+      var ready = job.noCache() ? null : readyNative(job);
+      if (ready != null) {
+        send(responseObserver, ready);
+        responseObserver.onCompleted();
+        return;
+      }
+
+      // The permit is held until the native code is compiled, and released by the background
+      // compilation.
+      var permit = admission.admit(Messages.Tier.OPTIMIZED);
+      try {
+        // The bytecode is needed for the native compilation anyway, so it is ready before.
+        send(responseObserver, compile(job.withTier(Messages.Tier.BASELINE)));
+      } catch (CompileException e) {
+        permit.close();
+        throw e;
+      }
+      pending = compileNativeInBackground(job, permit);
+    } catch (CompileException e) {
+      responseObserver.onError(e.asRuntimeException());
+      return;
+    }
+
+    pending.whenComplete(
+        (response, e) -> {
+          if (responseObserver.isCancelled()) {
+            return;
+          }
+          if (e == null) {
+            send(responseObserver, response);
+            responseObserver.onCompleted();
+          } else if (e.getCause() instanceof CompileException ce) {
+            responseObserver.onError(ce.asRuntimeException());
+          } else {
+            responseObserver.onError(Status.fromThrowable(e).asRuntimeException());
+          }
+        });
+  }
+
+  /// Compiles all the functions of `request`, streaming back one response per function as soon as
+  /// it is ready.
+  ///
+  /// Bytecode is compiled in parallel on the background pool. For [Messages.Tier#OPTIMIZED], the
+  /// functions not found in the caches are then compiled to C in units of
+  /// [AppConfig#BATCH_UNIT_SIZE] functions, and each unit is compiled by a single C compiler
+  /// invocation. The functions of a unit share its object: see
+  /// [Messages.CompileResponse#getObjectId()]. These shared objects are not cached, but the
+  /// bytecode is.
+  ///
+  /// A function which fails to compile gets a response without code, like one which cannot be
+  /// compiled to bytecode, so that it doesn't abort the rest of the batch.
+  @Override
+  public void compileBatch(
+      Messages.CompileBatchRequest request,
+      StreamObserver<Messages.CompileResponse> plainResponseObserver) {
+    ServerCallStreamObserver<Messages.CompileResponse> responseObserver =
+        (ServerCallStreamObserver<Messages.CompileResponse>) plainResponseObserver;
+    responseObserver.setCompression("gzip");
+
+    logger.info(
+        "Received request to compile a batch of " + request.getFunctionsCount() + " functions");
+    var jobs = new ArrayList<CompileJob>(request.getFunctionsCount());
+    for (var function : request.getFunctionsList()) {
+      var functionRequest = Messages.CompileRequest.newBuilder().setFunction(function);
+      if (request.hasTier()) {
+        functionRequest.setTier(request.getTier());
+      }
+      if (request.hasBcOpt()) {
+        functionRequest.setBcOpt(request.getBcOpt());
+      }
+      if (request.hasCcOpt()) {
+        functionRequest.setCcOpt(request.getCcOpt());
+      }
+      functionRequest.setNoCache(request.getNoCache());
+
+      var job = parseRequest(functionRequest.build(), responseObserver);
+      if (job == null) {
+        return;
+      }
+      jobs.add(job);
+    }
+
+    // The whole batch counts as one request: its parallelism is bounded by the background pool.
+    var tier = jobs.isEmpty() ? Messages.Tier.BASELINE : jobs.getFirst().tier();
+    try (var _ = admission.admit(tier)) {
+      compileBatch(jobs, responseObserver);
+    } catch (CompileException e) {
+      responseObserver.onError(e.asRuntimeException());
+    } catch (RuntimeException e) {
+      // A function of the batch failed unexpectedly, otherwise the client would wait forever.
+      logger.log(Level.SEVERE, "Cannot compile the batch", e);
+      synchronized (responseObserver) {
+        if (!responseObserver.isCancelled()) {
+          responseObserver.onError(Status.fromThrowable(e).asRuntimeException());
+        }
+      }
+    }
+  }
+
+  private void compileBatch(
+      List<CompileJob> jobs, ServerCallStreamObserver<Messages.CompileResponse> responseObserver) {
+    // gRPC observers are not thread-safe.
+    Consumer<Messages.CompileResponse> sendSync =
+        response -> {
+          synchronized (responseObserver) {
+            if (!responseObserver.isCancelled()) {
+              send(responseObserver, response);
+            }
+          }
+        };
+
+    // First phase: cache lookups and bytecode, in parallel. For the optimized tier, the functions
+    // which still need to be compiled to native code are left for the second phase.
+    var toNative = new ConcurrentLinkedQueue<Pair<CompileJob, Bc>>();
+    var firstPhase =
+        jobs.stream()
+            .map(
+                job ->
+                    CompletableFuture.runAsync(
+                        () -> {
+                          if (job.tier() != Messages.Tier.OPTIMIZED) {
+                            sendSync.accept(compileOrEmpty(job));
+                            return;
+                          }
+
+                          var ready = job.noCache() ? null : readyNative(job);
+                          if (ready != null) {
+                            sendSync.accept(ready);
+                            return;
+                          }
+
+                          Pair<Bc, ByteString> bc;
+                          try {
+                            bc =
+                                bytecode(job.session(), job.function(), job.bcOpt(), job.noCache());
+                          } catch (CompileException e) {
+                            logger.warning(e.getMessage());
+                            bc = null;
+                          }
+                          if (bc == null) {
+                            sendSync.accept(emptyResponse(job));
+                          } else {
+                            toNative.add(Pair.of(job, bc.first()));
+                          }
+                        },
+                        compileExecutor))
+            .toArray(CompletableFuture[]::new);
+    CompletableFuture.allOf(firstPhase).join();
+
+    // Second phase: one C unit (and C compiler invocation) per chunk of functions. Functions with
+    // different C optimization levels cannot share a unit, but the request has only one.
+    var units = Lists.partition(new ArrayList<>(toNative), AppConfig.BATCH_UNIT_SIZE);
+    var secondPhase = new CompletableFuture<?>[units.size()];
+    for (int i = 0; i < units.size(); i++) {
+      var unit = units.get(i);
+      var objectId = i;
+      secondPhase[i] =
+          CompletableFuture.runAsync(
+              () -> compileNativeUnit(unit, objectId).forEach(sendSync), compileExecutor);
+    }
+    CompletableFuture.allOf(secondPhase).join();
+
+    synchronized (responseObserver) {
+      if (!responseObserver.isCancelled()) {
+        responseObserver.onCompleted();
+      }
+    }
+  }
+
+  /// Compiles all the closures of an installed package ahead of time, so that the first requests
+  /// for them are cache hits, and streams back a progress message after each closure.
+  ///
+  /// The closures are compiled in parallel on the background pool, like a request for each
+  /// would be. They are cached under their [#closureKey(CloSXP)] rather than under the hash
+  /// the clients will send, which the server cannot compute: a request which misses its hash
+  /// in the caches is looked up by its key before being compiled.
+  ///
+  /// A closure which fails to compile gets a progress message with the error, and doesn't abort
+  /// the rest of the package.
+  @Override
+  public void precompilePackage(
+      Messages.PrecompileRequest request,
+      StreamObserver<Messages.PrecompileProgress> plainResponseObserver) {
+    ServerCallStreamObserver<Messages.PrecompileProgress> responseObserver =
+        (ServerCallStreamObserver<Messages.PrecompileProgress>) plainResponseObserver;
+    var session = session(request.hasSessionId() ? request.getSessionId() : null, responseObserver);
     if (session == null) {
+      return;
+    }
+
+    var tier = request.hasTier() ? request.getTier() : Messages.Tier.OPTIMIZED;
+    if (tier == Messages.Tier.UNRECOGNIZED) {
+      tier = Messages.Tier.OPTIMIZED;
+    }
+    var bcOpt = request.hasBcOpt() ? BcOptLevel.fromValue(request.getBcOpt()) : BcOptLevel.DEFAULT;
+    var ccOpt = request.hasCcOpt() ? request.getCcOpt() : 2;
+    var name = request.getPackage().getName();
+    var version = request.getPackage().getVersion();
+    var versionString = version.getMajor() + "." + version.getMinor() + "." + version.getPatch();
+
+    // Reading all the bindings of the namespace reads the package database in parallel.
+    var closures = new ArrayList<Pair<String, CloSXP>>();
+    NamespaceEnvSXP namespace;
+    try {
+      namespace = session.session().getNamespace(name, versionString);
+      for (var binding : namespace.bindings()) {
+        if (binding.getValue() instanceof CloSXP closure) {
+          closures.add(Pair.of(binding.getKey(), closure));
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.log(Level.WARNING, "Cannot load package " + name + " " + versionString, e);
       responseObserver.onError(
-          Status.INTERNAL.withDescription("Session not initialized.").asRuntimeException());
+          Status.FAILED_PRECONDITION
+              .withDescription("Cannot load package " + name + " " + versionString)
+              .withCause(e)
+              .asRuntimeException());
+      return;
+    }
+    logger.info("Precompiling " + closures.size() + " closures of " + name + " " + versionString);
+
+    precompiledNamespaces.add(namespaceKey(namespace));
+    var jobTier = tier;
+    var done = new int[1];
+    try (var _ = admission.admit(tier)) {
+      var futures =
+          closures.stream()
+              .map(
+                  closure ->
+                      CompletableFuture.runAsync(
+                          () -> {
+                            if (responseObserver.isCancelled()) {
+                              return;
+                            }
+                            var error =
+                                precompile(
+                                    session,
+                                    closure.first(),
+                                    closure.second(),
+                                    jobTier,
+                                    bcOpt,
+                                    ccOpt);
+                            var progress =
+                                Messages.PrecompileProgress.newBuilder()
+                                    .setTotal(closures.size())
+                                    .setFunction(closure.first());
+                            if (error != null) {
+                              progress.setError(error);
+                            }
+                            // gRPC observers are not thread-safe.
+                            synchronized (responseObserver) {
+                              if (!responseObserver.isCancelled()) {
+                                responseObserver.onNext(progress.setDone(++done[0]).build());
+                              }
+                            }
+                          },
+                          compileExecutor))
+              .toArray(CompletableFuture[]::new);
+      CompletableFuture.allOf(futures).join();
+    } catch (CompileException e) {
+      responseObserver.onError(e.asRuntimeException());
+      return;
+    }
+
+    synchronized (responseObserver) {
+      if (!responseObserver.isCancelled()) {
+        responseObserver.onCompleted();
+      }
+    }
+  }
+
+  /// Compiles the closure `name` of a package into the in-memory caches, and returns why it
+  /// failed, or `null`.
+  private @Nullable String precompile(
+      SessionRegistry.Session session,
+      String name,
+      CloSXP closure,
+      Messages.Tier tier,
+      BcOptLevel bcOpt,
+      int ccOpt) {
+    try {
+      var function =
+          Messages.Function.newBuilder()
+              .setName(name)
+              .setHash(closureKey(closure))
+              .setBody(RDSWriter.writeByteString(sourceClosure(closure)))
+              .build();
+      var compiled =
+          tier == Messages.Tier.OPTIMIZED
+              ? nativeClosure(session.session(), function, bcOpt, ccOpt, false)
+              : bytecode(session.session(), function, bcOpt, false);
+      return compiled == null ? "Cannot be compiled to bytecode" : null;
+    } catch (CompileException e) {
+      return e.getMessage();
+    } catch (Exception e) {
+      return e.toString();
+    }
+  }
+
+  /// The closure as clients send it: with its source rather than its bytecode, if it has been
+  /// compiled by R, and without attributes.
+  private static CloSXP sourceClosure(CloSXP closure) {
+    var body = closure.body() instanceof BCodeSXP bc ? bc.bc().consts().getFirst() : closure.body();
+    return SEXPs.closure(closure.parameters(), body, closure.env());
+  }
+
+  /// A hash of `closure` that the server can compute both when it precompiles the closure and
+  /// when a client sends it.
+  private static long closureKey(CloSXP closure) throws IOException {
+    return Hashing.farmHashFingerprint64()
+        .hashBytes(RDSWriter.writeByteString(sourceClosure(closure)).toByteArray())
+        .asLong();
+  }
+
+  private static String namespaceKey(NamespaceEnvSXP namespace) {
+    return namespace.name() + " " + namespace.version();
+  }
+
+  /// Returns the precompiled bytecode of `closure`, the body of `function`, if there is one.
+  private @Nullable Pair<Bc, ByteString> precompiledBytecode(
+      Messages.Function function, CloSXP closure, BcOptLevel bcOpt) throws IOException {
+    // Serializing the closure to compute its key is as expensive as the cache lookup it saves.
+    if (!(closure.env() instanceof NamespaceEnvSXP namespace)
+        || !precompiledNamespaces.contains(namespaceKey(namespace))) {
+      return null;
+    }
+    var key = closureKey(closure);
+    if (key == function.getHash()) {
+      return null;
+    }
+    var precompiled = bcCache.getIfPresent(Pair.of(key, bcOpt));
+    if (precompiled != null) {
+      logger.info("Found function " + function.getName() + " among the precompiled functions.");
+      precompiledAliases.put(function.getHash(), key);
+      precompiledHits.increment();
+    }
+    return precompiled;
+  }
+
+  /// Returns the precompiled native code of `function`, if its bytecode was precompiled (see
+  /// [#precompiledBytecode(Messages.Function, CloSXP, BcOptLevel)]) and its native code too.
+  private @Nullable NativeClosure precompiledNative(
+      Messages.Function function, BcOptLevel bcOpt, int ccOpt) {
+    var key = precompiledAliases.get(function.getHash());
+    if (key == null) {
+      return null;
+    }
+    var precompiled = nativeCache.getIfPresent(Triple.of(key, bcOpt, ccOpt));
+    var name = genSymbol(function);
+    // The symbol can only be renamed to one of the same length: otherwise, the object is compiled
+    // again, from the same C code.
+    if (precompiled == null || precompiled.name().length() != name.length()) {
+      return null;
+    }
+    precompiledHits.increment();
+    return new NativeClosure(
+        ByteString.copyFrom(
+            CCObjectCache.renameSymbol(precompiled.code().toByteArray(), precompiled.name(), name)),
+        name,
+        precompiled.constantPool());
+  }
+
+  /// Compiles the functions of `unit` into a single object with id `objectId`, and returns their
+  /// responses, the first one carrying the object.
+  ///
+  /// If the unit fails to compile, falls back to compiling each function separately so that one
+  /// function doesn't prevent the others from being compiled.
+  private List<Messages.CompileResponse> compileNativeUnit(
+      List<Pair<CompileJob, Bc>> unit, int objectId) {
+    var ccOpt = unit.getFirst().first().ccOpt();
+    logger.info("Compile a unit of " + unit.size() + " functions with native level " + ccOpt);
+    try {
+      var start = System.nanoTime();
+      var batch =
+          BC2CCompiler.compile(
+              unit.stream().map(Pair::second).toList(),
+              unit.stream().map(p -> genSymbol(p.first().function())).toList(),
+              false);
+      metrics.observe(Stage.BC2C_CODEGEN, start);
+      var code = compileObject(batch.code(), ccOpt);
+
+      var responses = new ArrayList<Messages.CompileResponse>(unit.size());
+      for (int i = 0; i < unit.size(); i++) {
+        var response =
+            Messages.CompileResponse.newBuilder()
+                .setTier(Messages.Tier.OPTIMIZED)
+                .setHash(unit.get(i).first().function().getHash())
+                .setConstants(RDSWriter.writeByteString(batch.items().get(i).constantPool()))
+                .setObjectId(objectId);
+        if (i == 0) {
+          response.setCode(code);
+        }
+        responses.add(response.build());
+      }
+      return responses;
+    } catch (Exception e) {
+      logger.log(
+          Level.WARNING,
+          "Cannot compile a unit of " + unit.size() + " functions, compiling them one by one",
+          e);
+      return unit.stream().map(p -> compileOrEmpty(p.first())).toList();
+    }
+  }
+
+  /// Compiles `job`, or returns a response without code if it fails.
+  private Messages.CompileResponse compileOrEmpty(CompileJob job) {
+    try {
+      return compile(job);
+    } catch (CompileException e) {
+      logger.warning(e.getMessage());
+      return emptyResponse(job);
+    }
+  }
+
+  private static Messages.CompileResponse emptyResponse(CompileJob job) {
+    return Messages.CompileResponse.newBuilder()
+        .setTier(job.tier())
+        .setHash(job.function().getHash())
+        .build();
+  }
+
+  /// Returns the session with id `id`, or of the latest init request if `id` is `null`. If there is
+  /// none, reports an error to `responseObserver` and returns `null`.
+  private SessionRegistry.@Nullable Session session(
+      @Nullable Long id, StreamObserver<?> responseObserver) {
+    var session = id != null ? sessions.get(id) : latestSession;
+    if (session == null) {
+      responseObserver.onError(
+          (id != null
+                  ? Status.FAILED_PRECONDITION.withDescription(
+                      "Unknown session " + Long.toUnsignedString(id) + ".")
+                  : Status.INTERNAL.withDescription("Session not initialized."))
+              .asRuntimeException());
+    }
+    return session;
+  }
+
+  /// Parses `request`, or reports an error to `responseObserver` and returns `null`.
+  private @Nullable CompileJob parseRequest(
+      Messages.CompileRequest request, StreamObserver<Messages.CompileResponse> responseObserver) {
+    var session = session(request.hasSessionId() ? request.getSessionId() : null, responseObserver);
+    if (session == null) {
+      return null;
     }
 
     // Parse the request
@@ -95,152 +845,290 @@ class CompileService extends CompileServiceGrpc.CompileServiceImplBase {
       logger.info("This closure will not be cached and no lookups in the cache will be performed.");
     }
 
+    return new CompileJob(
+        session.session(),
+        session.key().rVersion(),
+        function,
+        tier,
+        bcOpt,
+        ccOpt,
+        request.getNoCache());
+  }
+
+  private void send(
+      ServerCallStreamObserver<Messages.CompileResponse> responseObserver,
+      Messages.CompileResponse response) {
+    responseObserver.onNext(response);
+    metrics.observeResponse(response.getSerializedSize());
+    logger.info("Response size : " + response.getSerializedSize());
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("Bytecode cache: " + bcCache.stats() + "; native cache: " + nativeCache.stats());
+    }
+  }
+
+  /// Compiles `job` at its tier, going through the caches.
+  private Messages.CompileResponse compile(CompileJob job) throws CompileException {
+    // A hit in the persistent cache is sent as is.
+    if (!job.noCache()) {
+      var cached = diskCacheGet(job.diskKey());
+      if (cached != null) {
+        logger.info("Found function " + job.function().getName() + " in the persistent cache.");
+        return cached;
+      }
+    }
+    return compileAfterDiskMiss(job);
+  }
+
+  /// Like [#compile(CompileJob)], for a `job` which already missed the persistent cache, so it
+  /// isn't looked up (and counted as a miss) again.
+  private Messages.CompileResponse compileAfterDiskMiss(CompileJob job) throws CompileException {
+    var function = job.function();
+
     // Compile the code and build response
     Messages.CompileResponse.Builder response = Messages.CompileResponse.newBuilder();
-    response.setTier(tier);
+    response.setTier(job.tier());
     response.setHash(function.getHash());
 
-    // Cache requests
-    @Nullable NativeClosure ccCached = null;
-    @Nullable Pair<Bc, ByteString> bcCached = null;
-    @Nullable Bc bc = null;
-    var nativeKey = Triple.of(function.getHash(), bcOpt, ccOpt);
-    var bcKey = Pair.of(function.getHash(), bcOpt);
-
-    if (!request.getNoCache()) {
-      if (tier.equals(Messages.Tier.OPTIMIZED)) {
-        ccCached = nativeCache.get(nativeKey);
-        if (ccCached != null) {
-          logger.info("Found " + function.getName() + " in native cache. No recompilation.");
-          response.setCode(ccCached.code());
-          response.setConstants(ccCached.constantPool());
-        }
+    // If we find something in the native cache, we just go finish the response.
+    // Otherwise, we get the bytecode (from the cache or by compiling it) and compile it to
+    // native if needed. Concurrent requests for the same function share the same compilation.
+    if (job.tier().equals(Messages.Tier.OPTIMIZED)) {
+      var nativeClosure =
+          nativeClosure(job.session(), function, job.bcOpt(), job.ccOpt(), job.noCache());
+      if (nativeClosure != null) {
+        response.setCode(nativeClosure.code());
+        response.setConstants(nativeClosure.constantPool());
+      }
+    } else {
+      var bc = bytecode(job.session(), function, job.bcOpt(), job.noCache());
+      if (bc != null) {
+        response.setCode(bc.second());
       }
+    }
 
-      // We also have a look whether we have a cached bytecode for the native compilation
+    var res = response.build();
+    if (!job.noCache() && res.hasCode()) {
+      diskCachePut(job.diskKey(), res);
+    }
+    return res;
+  }
 
-      if (tier.equals((Messages.Tier.BASELINE)) || ccCached == null) {
-        bcCached = bcCache.get(bcKey);
-        if (bcCached != null) {
-          logger.info("Found " + function.getName() + " in bytecode cache. No recompilation.");
-          response.setCode(bcCached.second());
-        }
-      }
+  /// Returns the native code for the [Messages.Tier#OPTIMIZED] `job` if it has already been
+  /// compiled, without compiling or waiting for an in-flight compilation.
+  private Messages.@Nullable CompileResponse readyNative(CompileJob job) {
+    var nativeClosure = nativeCache.getIfPresent(job.nativeKey());
+    if (nativeClosure != null) {
+      return Messages.CompileResponse.newBuilder()
+          .setTier(Messages.Tier.OPTIMIZED)
+          .setHash(job.function().getHash())
+          .setCode(nativeClosure.code())
+          .setConstants(nativeClosure.constantPool())
+          .build();
+    }
+    return diskCacheGet(job.diskKey());
+  }
+
+  /// Compiles the [Messages.Tier#OPTIMIZED] `job` on the background pool, and closes `permit`
+  /// once done. The result ends up in the caches. If the compilation is already in flight, the
+  /// returned future joins it.
+  ///
+  /// The native code of `job` must not be [#readyNative(CompileJob)], which already looked it up
+  /// in the persistent cache.
+  private CompletableFuture<Messages.CompileResponse> compileNativeInBackground(
+      CompileJob job, AdmissionControl.Permit permit) {
+    try {
+      return CompletableFuture.supplyAsync(
+          () -> {
+            try (permit) {
+              return compileAfterDiskMiss(job);
+            } catch (CompileException e) {
+              logger.warning(
+                  "Background native compilation of " + job.function().getName() + " failed: " + e);
+              throw new CompletionException(e);
+            }
+          },
+          compileExecutor);
+    } catch (RejectedExecutionException e) {
+      // The service is shutting down.
+      permit.close();
+      throw e;
+    }
+  }
+
+  private Messages.@Nullable CompileResponse diskCacheGet(DiskCompileCache.Key key) {
+    if (diskCache == null) {
+      return null;
+    }
+    try {
+      var response = diskCache.get(key);
+      (response == null ? diskMisses : diskHits).increment();
+      return response;
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot read from the persistent compile cache", e);
+      return null;
+    }
+  }
+
+  private void diskCachePut(DiskCompileCache.Key key, Messages.CompileResponse response) {
+    if (diskCache == null) {
+      return;
+    }
+    try {
+      diskCache.put(key, response);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot write to the persistent compile cache", e);
+    }
+  }
+
+  /// Returns the bytecode of `function` and its serialized form, or `null` if the function cannot
+  /// be compiled to bytecode (e.g. it calls `browser`).
+  private @Nullable Pair<Bc, ByteString> bytecode(
+      RSession session, Messages.Function function, BcOptLevel bcOpt, boolean noCache)
+      throws CompileException {
+    if (noCache) {
+      return compileBytecode(session, function, bcOpt);
     }
 
-    // If we found something in the bc cache but not native, we compile to native
-    // If we found something in the native cache, we just go finish the response
-    // If nothing was found in the cache, we compile the function to bytecode, then to native
+    var bcKey = Pair.of(function.getHash(), bcOpt);
+    try {
+      return bcCache.get(
+          bcKey,
+          () -> {
+            logger.info(
+                "Compile function "
+                    + function.getName()
+                    + " to bytecode with optimisation level "
+                    + bcOpt
+                    + ": not found in cache.");
+            return compileBytecode(session, function, bcOpt);
+          });
+    } catch (CompileException e) {
+      throw e;
+    } catch (Exception e) {
+      throw CompileException.bytecode(function, e);
+    }
+  }
+
+  /// Returns the native code of `function`, or `null` if it has no bytecode.
+  private @Nullable NativeClosure nativeClosure(
+      RSession session, Messages.Function function, BcOptLevel bcOpt, int ccOpt, boolean noCache)
+      throws CompileException {
+    if (noCache) {
+      var bc = bytecode(session, function, bcOpt, true);
+      return bc == null ? null : compileNative(function, bc.first(), bcOpt, ccOpt);
+    }
+
+    var nativeKey = Triple.of(function.getHash(), bcOpt, ccOpt);
+    try {
+      return nativeCache.get(
+          nativeKey,
+          () -> {
+            // At this point, we need the bytecode, whether we get it from the cache or we compile
+            // it
+            var bc = bytecode(session, function, bcOpt, false);
+            if (bc == null) {
+              return null;
+            }
+            var precompiled = precompiledNative(function, bcOpt, ccOpt);
+            return precompiled != null
+                ? precompiled
+                : compileNative(function, bc.first(), bcOpt, ccOpt);
+          });
+    } catch (CompileException e) {
+      throw e;
+    } catch (Exception e) {
+      throw CompileException.nativeCode(function, e);
+    }
+  }
 
+  private @Nullable Pair<Bc, ByteString> compileBytecode(
+      RSession session, Messages.Function function, BcOptLevel bcOpt) throws CompileException {
     // Compile the body if we have it
     if (!function.hasBody()) {
       logger.info(
           "No body sent with the request for function " + function.getName() + ". Cannot compile.");
-      responseObserver.onError(
-          Status.INVALID_ARGUMENT
-              .withDescription("No body sent with the request for function " + function.getName())
-              .asRuntimeException());
       // TODO: send a request to the client to get the body
-    } else {
-      if ((tier.equals(Messages.Tier.BASELINE) && bcCached == null)
-          || (tier.equals(Messages.Tier.OPTIMIZED) && ccCached == null)) {
-        logger.info(
-            "Compile function "
-                + function.getName()
-                + " to bytecode with optimisation level "
-                + bcOpt
-                + ": not found in cache.");
-        try {
-          var bcRes = compileBcClosure(function.getBody(), bcOpt);
-          ByteString serializedBc = null;
-          if (bcRes.isEmpty()) {
-            logger.warning(
-                "Empty bytecode for function "
-                    + function.getName()
-                    + ". Not caching and returning the original body.");
-            // We will keep the code field empty
-          } else {
-            bc = bcRes.get();
-            if (!request.getNoCache()) { // We do not cache if the client does not want to
-              serializedBc = RDSWriter.writeByteString(SEXPs.bcode(bc));
-              response.setCode(serializedBc);
-              bcCached = Pair.of(bc, serializedBc); // potentially used for the native
-              // compilation also
-              // Add it to the cache
-              bcCache.put(bcKey, bcCached);
-            }
-          }
-        } catch (Exception e) {
-          // See
-          // https://github.com/grpc/grpc-java/blob/master/examples/src/main/java/io/grpc/examples/errorhandling/DetailErrorSample.java
-          // We could have more details using that:
-          // https://github.com/grpc/grpc-java/blob/master/examples/src/main/java/io/grpc/examples/errordetails/ErrorDetailsExample.java
-          responseObserver.onError(
-              Status.INTERNAL
-                  .withDescription(
-                      "Cannot bytecode compile function "
-                          + function.getName()
-                          + " ; "
-                          + e.getMessage())
-                  .asRuntimeException());
-        }
+      throw new CompileException(
+          Status.INVALID_ARGUMENT.withDescription(
+              "No body sent with the request for function " + function.getName()));
+    }
+
+    try {
+      var closure = readClosure(session, function.getBody());
+      var precompiled = precompiledBytecode(function, closure, bcOpt);
+      if (precompiled != null) {
+        return precompiled;
       }
-      if (tier.equals(Messages.Tier.OPTIMIZED) && ccCached == null) { // OPTIMIZED tier => native
-        logger.info(
-            "Compile function "
+
+      var bcRes = compileBcClosure(session, closure, bcOpt);
+      if (bcRes.isEmpty()) {
+        logger.warning(
+            "Empty bytecode for function "
                 + function.getName()
-                + " with optimisation level "
-                + bcOpt
-                + " and native level "
-                + ccOpt
-                + ": not found in cache.");
-        // At this point, we have already the bytecode, whether we got it from the cache or we
-        // compiled it
-        try {
-          assert bc != null;
-          // Name should be fully decided by the client?
-          var name = genSymbol(function);
-          var module = BC2CCompiler.compile(bc, name, false);
-          var inputFile = File.createTempFile("cfile", ".c");
-          module.code().writeTo(inputFile.toPath());
-          var outputFile = File.createTempFile("ofile", ".o");
-
-          RshCompiler.getInstance(ccOpt, RuntimeVariant.DIRECT_BC2C)
-              .createBuilder(inputFile.toPath(), outputFile.toPath())
-              .flag("-c")
-              .compile();
-
-          var res = Files.asByteSource(outputFile).read();
-          var serializedConstantPool = RDSWriter.writeByteString(module.constantPool());
-
-          ccCached = new NativeClosure(ByteString.copyFrom(res), name, serializedConstantPool);
-
-          if (!request.getNoCache()) {
-            nativeCache.put(nativeKey, ccCached);
-          }
-          response.setCode(ccCached.code());
-          response.setConstants(ccCached.constantPool());
-        } catch (Exception e) {
-          var msg = e.getMessage();
-          responseObserver.onError(
-              Status.INTERNAL
-                  .withDescription(
-                      "Cannot native compile function "
-                          + function.getName()
-                          + " ; "
-                          // we truncate the message, as it can get quite big with compilation
-                          // errors, and anyway, gRPC has a max header size of 8KB
-                          + msg.substring(0, Math.min(msg.length(), 7000)))
-                  .asRuntimeException());
-        }
+                + ". Not caching and returning the original body.");
+        // We will keep the code field empty
+        return null;
       }
+      var bc = bcRes.get();
+      var start = System.nanoTime();
+      var serialized = RDSWriter.writeByteString(SEXPs.bcode(bc));
+      metrics.observe(Stage.RDS_SERIALIZE, start);
+      return Pair.of(bc, serialized);
+    } catch (Exception e) {
+      throw CompileException.bytecode(function, e);
     }
+  }
 
-    // Send the response
-    var res = response.build();
-    responseObserver.onNext(res);
-    logger.info("Response size : " + res.getSerializedSize());
-    responseObserver.onCompleted();
+  private NativeClosure compileNative(
+      Messages.Function function, Bc bc, BcOptLevel bcOpt, int ccOpt) throws CompileException {
+    logger.info(
+        "Compile function "
+            + function.getName()
+            + " with optimisation level "
+            + bcOpt
+            + " and native level "
+            + ccOpt
+            + ": not found in cache.");
+    try {
+      // Name should be fully decided by the client?
+      var name = genSymbol(function);
+      // The C code is generated under a placeholder name, so that functions which only differ by
+      // their hash generate the same C code and share the object in the object cache. The
+      // placeholder has the same length as the name, so the object can be patched in place.
+      var placeholder = placeholderSymbol(name);
+      var start = System.nanoTime();
+      var module = BC2CCompiler.compile(bc, placeholder, false);
+      metrics.observe(Stage.BC2C_CODEGEN, start);
+      var code =
+          ByteString.copyFrom(
+              CCObjectCache.renameSymbol(
+                  compileObject(module.code(), ccOpt).toByteArray(), placeholder, name));
+      start = System.nanoTime();
+      var serializedConstantPool = RDSWriter.writeByteString(module.constantPool());
+      metrics.observe(Stage.RDS_SERIALIZE, start);
+
+      return new NativeClosure(code, name, serializedConstantPool);
+    } catch (Exception e) {
+      throw CompileException.nativeCode(function, e);
+    }
+  }
+
+  /// Compiles `code` to an object file with the C compiler, and returns the object file.
+  private ByteString compileObject(CUnit code, int ccOpt) throws Exception {
+    // The C code is piped to the compiler, and the object is written in a RAM-backed directory.
+    var outputFile = Files.createTempFile(CCompilerPool.shared().workDirectory(), "ofile", ".o");
+    try {
+      var start = System.nanoTime();
+      RshCompiler.getInstance(ccOpt, RuntimeVariant.DIRECT_BC2C)
+          .createBuilder(code.toString(), outputFile)
+          .flag("-c")
+          .compile();
+      metrics.observe(Stage.CC_COMPILE, start);
+
+      return ByteString.copyFrom(Files.readAllBytes(outputFile));
+    } finally {
+      Files.deleteIfExists(outputFile);
+    }
   }
 
   @Override
@@ -263,24 +1151,13 @@ class CompileService extends CompileServiceGrpc.CompileServiceImplBase {
             + platform);
     logger.info("Received package hashes: " + packages);
 
-    // TODO: Lookup to see if we have this version of R installed or not.
-    // Hardcoded so far:
-    // TODO: detect where R is installed
-    var rHomeEnv = System.getenv("R_HOME");
-    if (rHomeEnv == null) {
-      rHomeEnv = "external/R";
-    }
-    var rHomePath = Path.of(rHomeEnv);
-    var rLibraryPath = rHomePath.resolve("external/R/library");
-    if (logger.isLoggable(Level.FINE)) {
-      logger.fine("Creating an R session using R from `" + rHomePath.toAbsolutePath() + "'");
-    }
-    session = new GNURSession(convertVersion(RVersion), rHomePath, rLibraryPath);
+    var session = sessions.register(SessionRegistry.Key.of(request));
+    latestSession = session;
 
     // TODO: Look into our cache if we have the packages.
     // Request the packages for those we do not have hashes for.
 
-    responseObserver.onNext(Messages.InitResponse.newBuilder().build());
+    responseObserver.onNext(Messages.InitResponse.newBuilder().setSessionId(session.id()).build());
     responseObserver.onCompleted();
   }
 
@@ -288,42 +1165,72 @@ class CompileService extends CompileServiceGrpc.CompileServiceImplBase {
   public void clearCache(
       Messages.ClearCacheRequest request,
       StreamObserver<Messages.ClearCacheResponse> responseObserver) {
-    logger.info("Clearing cache");
+    logger.info(
+        "Clearing cache. Bytecode cache: "
+            + bcCache.stats()
+            + "; native cache: "
+            + nativeCache.stats());
 
     var hashes = request.getHashesList();
     // If no specific hashes, we clean the entire cache
     if (hashes.isEmpty()) {
       bcCache.clear();
       nativeCache.clear();
+      if (diskCache != null) {
+        try {
+          diskCache.clear();
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Cannot clear the persistent compile cache", e);
+        }
+      }
     } else {
       for (var hash : hashes) {
         logger.info("Clearing cache entry for hash " + hash);
-        bcCache.entrySet().removeIf(entry -> entry.getKey().first().equals(hash));
-        nativeCache.entrySet().removeIf(entry -> entry.getKey().first().equals(hash));
+        bcCache.removeIf(key -> key.first().equals(hash));
+        nativeCache.removeIf(key -> key.first().equals(hash));
+        if (diskCache != null) {
+          diskCache.removeIf(h -> h == hash);
+        }
       }
     }
     responseObserver.onNext(Messages.ClearCacheResponse.newBuilder().build());
     responseObserver.onCompleted();
   }
 
-  private RVersion convertVersion(Messages.Version version) {
-    return new RVersion(version.getMajor(), version.getMinor(), version.getPatch());
+  private static GNURSession newSession(SessionRegistry.Key key) {
+    // TODO: Lookup to see if we have this version of R installed or not.
+    // Hardcoded so far:
+    // TODO: detect where R is installed
+    var rHomeEnv = System.getenv("R_HOME");
+    if (rHomeEnv == null) {
+      rHomeEnv = "external/R";
+    }
+    var rHomePath = Path.of(rHomeEnv);
+    var rLibraryPath = rHomePath.resolve("external/R/library");
+    if (logger.isLoggable(Level.FINE)) {
+      logger.fine("Creating an R session using R from `" + rHomePath.toAbsolutePath() + "'");
+    }
+    return new GNURSession(key.rVersion(), rHomePath, rLibraryPath);
   }
 
-  private Optional<Bc> compileBcClosure(ByteString body, BcOptLevel optimizationLevel) {
-    SEXP closure = null;
-    try {
-      assert session != null;
-      closure = RDSReader.readByteString(session, body);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+  private CloSXP readClosure(RSession session, ByteString body) throws IOException {
+    var start = System.nanoTime();
+    var closure = RDSReader.readByteString(session, body);
+    metrics.observe(Stage.RDS_DESERIALIZE, start);
     if (closure instanceof CloSXP c) {
-      BCCompiler compiler = new BCCompiler(c, session);
-      compiler.setOptimizationLevel(optimizationLevel);
-      return compiler.compile();
+      return c;
     } else {
       throw new RuntimeException("Not a closure");
     }
   }
+
+  private Optional<Bc> compileBcClosure(
+      RSession session, CloSXP closure, BcOptLevel optimizationLevel) {
+    BCCompiler compiler = new BCCompiler(closure, session);
+    compiler.setOptimizationLevel(optimizationLevel);
+    var start = System.nanoTime();
+    var bc = compiler.compile();
+    metrics.observe(Stage.BC_COMPILE, start);
+    return bc;
+  }
 }
@@ -0,0 +1,477 @@
+package org.prlprg.server;
+
+import com.google.common.hash.Hashing;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
+import org.prlprg.RVersion;
+import org.prlprg.bc.BcOptLevel;
+
+/// Compilation results persisted on disk, so that they survive server restarts.
+///
+/// The cache is a directory with two files:
+/// - `blobs`: the serialized [Messages.CompileResponse]s, appended one after the other and never
+///   modified in place.
+/// - `index`: an open-addressing hash table of fixed-size slots, memory-mapped, which maps a
+///   [Key] to the offset and length of its response in `blobs`, along with a checksum.
+///
+/// A response is appended to `blobs` before its slot is written, and the slot is marked as used
+/// last, so a crash in the middle of [#put(Key, Messages.CompileResponse)] leaves at worst an
+/// unreachable blob. Slots which point outside of `blobs` or whose checksum doesn't match are
+/// treated as misses.
+///
+/// The index also records a fingerprint of the code generators and of the native toolchain (see
+/// [org.prlprg.service.RshCompiler#buildFingerprint()]). Responses compiled by another build of
+/// the server may differ for the same key, so when the fingerprint doesn't match, the whole cache
+/// is dropped.
+///
+/// The responses are native code which clients load and run, so the directory must be private to
+/// the user running the server (see [org.prlprg.util.Files#createPrivateDirectory(Path)]).
+///
+/// Replaced and removed entries leave garbage in `blobs`. When there is more garbage than live
+/// responses, or `blobs` exceeds the maximum size, it is compacted: rewritten with only the live
+/// responses, dropping the oldest ones beyond half of the maximum size.
+///
+/// Only one server may use a directory at a time: the cache holds a lock on its `lock` file while
+/// it is open, and can't be opened while another process holds it. All operations are
+/// synchronized: they only touch the page cache and are cheap compared to a compilation.
+final class DiskCompileCache implements Closeable {
+  /// Identifies a compilation result: the function, how it was compiled, and for which R.
+  record Key(long hash, Messages.Tier tier, BcOptLevel bcOpt, int ccOpt, RVersion rVersion) {}
+
+  private static final int MAGIC = 0x52534843; // "RSHC"
+  private static final int FORMAT_VERSION = 2;
+
+  // Index header: magic, format version, capacity, number of used or removed slots, fingerprint,
+  // total length of the responses of the used slots.
+  private static final int HEADER_SIZE = 32;
+  private static final int CAPACITY_OFFSET = 8;
+  private static final int COUNT_OFFSET = 12;
+  private static final int FINGERPRINT_OFFSET = 16;
+  private static final int LIVE_OFFSET = 24;
+
+  // Slot layout.
+  private static final int SLOT_SIZE = 32;
+  private static final int SLOT_HASH = 0;
+  private static final int SLOT_R_VERSION = 8;
+  private static final int SLOT_TIER = 12;
+  private static final int SLOT_BC_OPT = 13;
+  private static final int SLOT_CC_OPT = 14;
+  private static final int SLOT_STATE = 15;
+  private static final int SLOT_BLOB_OFFSET = 16;
+  private static final int SLOT_BLOB_LENGTH = 24;
+  private static final int SLOT_CHECKSUM = 28;
+
+  private static final byte FREE = 0;
+  private static final byte USED = 1;
+  private static final byte REMOVED = 2;
+
+  private static final int INITIAL_CAPACITY = 1 << 12;
+  private static final double MAX_LOAD = 0.7;
+
+  // Less garbage than this isn't worth a compaction.
+  private static final long MIN_GARBAGE_BYTES = 1 << 20;
+
+  private final Path indexPath;
+  private final Path blobsPath;
+  private final long fingerprint;
+  private final long maxBytes;
+  private final FileChannel lockChannel;
+  private FileChannel blobs;
+  private FileChannel indexChannel;
+  private MappedByteBuffer index;
+  private int capacity;
+  // Used and removed slots: both lengthen probe sequences.
+  private int occupied;
+  // Length of the live responses in `blobs`, the rest is garbage.
+  private long live;
+
+  /// Opens the cache in `directory` with the maximum size [AppConfig#COMPILE_CACHE_MAX_BYTES].
+  ///
+  /// @see #DiskCompileCache(Path, String, long)
+  DiskCompileCache(Path directory, String fingerprint) throws IOException {
+    this(directory, fingerprint, AppConfig.COMPILE_CACHE_MAX_BYTES);
+  }
+
+  /// Opens the cache in `directory`, creating it if needed, and drops its entries if they were
+  /// stored with another `fingerprint`.
+  ///
+  /// @param maxBytes the size of `blobs` beyond which the oldest responses are dropped, or `0`
+  ///     for no limit.
+  /// @throws IOException if the directory cannot be created, isn't private, is used by another
+  ///     server, or the files cannot be opened.
+  DiskCompileCache(Path directory, String fingerprint, long maxBytes) throws IOException {
+    org.prlprg.util.Files.createPrivateDirectory(directory);
+    indexPath = directory.resolve("index");
+    blobsPath = directory.resolve("blobs");
+    this.fingerprint = Hashing.sha256().hashString(fingerprint, StandardCharsets.UTF_8).asLong();
+    this.maxBytes = maxBytes;
+
+    lockChannel =
+        FileChannel.open(
+            directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    try {
+      FileLock lock;
+      try {
+        lock = lockChannel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        // Held by another cache of this process.
+        lock = null;
+      }
+      if (lock == null) {
+        throw new IOException("The compile cache in " + directory + " is used by another server");
+      }
+      open();
+    } catch (IOException | RuntimeException e) {
+      // Also releases the lock.
+      lockChannel.close();
+      throw e;
+    }
+  }
+
+  private void open() throws IOException {
+    blobs = openBlobs(blobsPath);
+    indexChannel = openIndex(indexPath);
+    if (indexChannel.size() >= HEADER_SIZE) {
+      index = map(indexChannel, indexChannel.size());
+      if (index.getInt(0) == MAGIC
+          && index.getInt(4) == FORMAT_VERSION
+          && index.getLong(FINGERPRINT_OFFSET) == fingerprint
+          && indexChannel.size()
+              == HEADER_SIZE + (long) index.getInt(CAPACITY_OFFSET) * SLOT_SIZE) {
+        capacity = index.getInt(CAPACITY_OFFSET);
+        occupied = index.getInt(COUNT_OFFSET);
+        live = index.getLong(LIVE_OFFSET);
+        return;
+      }
+    }
+
+    // Missing or unreadable index, or one of another build: start from scratch.
+    indexChannel.truncate(0);
+    blobs.truncate(0);
+    capacity = INITIAL_CAPACITY;
+    index = createIndex(indexChannel, capacity, fingerprint);
+    occupied = 0;
+    live = 0;
+  }
+
+  /// Returns the response stored for `key`, or `null` if there is none (or it is corrupted).
+  synchronized Messages.@Nullable CompileResponse get(Key key) throws IOException {
+    var slot = find(key);
+    if (slot < 0) {
+      return null;
+    }
+
+    var offset = index.getLong(slot + SLOT_BLOB_OFFSET);
+    var length = index.getInt(slot + SLOT_BLOB_LENGTH);
+    if (offset < 0 || length < 0 || offset + length > blobs.size()) {
+      return null;
+    }
+    var bytes = ByteBuffer.allocate(length);
+    while (bytes.hasRemaining()) {
+      if (blobs.read(bytes, offset + bytes.position()) < 0) {
+        return null;
+      }
+    }
+    if (checksum(bytes.array()) != index.getInt(slot + SLOT_CHECKSUM)) {
+      return null;
+    }
+    return Messages.CompileResponse.parseFrom(bytes.array());
+  }
+
+  /// Stores `response` for `key`, replacing the previous response if any.
+  synchronized void put(Key key, Messages.CompileResponse response) throws IOException {
+    var bytes = response.toByteArray();
+    var offset = blobs.size();
+    var buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      blobs.write(buffer, offset + buffer.position());
+    }
+
+    var slot = find(key);
+    if (slot >= 0) {
+      live -= index.getInt(slot + SLOT_BLOB_LENGTH);
+    } else {
+      if (occupied + 1 > capacity * MAX_LOAD) {
+        grow();
+      }
+      slot = freeSlot(key);
+      if (index.get(slot + SLOT_STATE) == FREE) {
+        occupied++;
+        index.putInt(COUNT_OFFSET, occupied);
+      }
+    }
+
+    // The state is written last so that a half-written slot is never read (but still keeps the
+    // probe sequences going through it intact).
+    index.put(slot + SLOT_STATE, REMOVED);
+    index.putLong(slot + SLOT_HASH, key.hash());
+    index.putInt(slot + SLOT_R_VERSION, key.rVersion().encode());
+    index.put(slot + SLOT_TIER, (byte) key.tier().getNumber());
+    index.put(slot + SLOT_BC_OPT, (byte) key.bcOpt().value());
+    index.put(slot + SLOT_CC_OPT, (byte) key.ccOpt());
+    index.putLong(slot + SLOT_BLOB_OFFSET, offset);
+    index.putInt(slot + SLOT_BLOB_LENGTH, bytes.length);
+    index.putInt(slot + SLOT_CHECKSUM, checksum(bytes));
+    index.put(slot + SLOT_STATE, USED);
+    setLive(live + bytes.length);
+
+    var size = blobs.size();
+    if ((maxBytes > 0 && size > maxBytes)
+        || (size - live > live && size - live > MIN_GARBAGE_BYTES)) {
+      compact();
+    }
+  }
+
+  /// Removes every entry whose function hash matches `predicate`.
+  synchronized void removeIf(LongPredicate predicate) {
+    for (int i = 0; i < capacity; i++) {
+      var slot = slotOffset(i);
+      if (index.get(slot + SLOT_STATE) == USED && predicate.test(index.getLong(slot + SLOT_HASH))) {
+        index.put(slot + SLOT_STATE, REMOVED);
+        setLive(live - index.getInt(slot + SLOT_BLOB_LENGTH));
+      }
+    }
+  }
+
+  /// Removes every entry and reclaims the disk space.
+  synchronized void clear() throws IOException {
+    blobs.truncate(0);
+    for (int i = 0; i < capacity; i++) {
+      index.put(slotOffset(i) + SLOT_STATE, FREE);
+    }
+    occupied = 0;
+    index.putInt(COUNT_OFFSET, 0);
+    setLive(0);
+  }
+
+  /// Number of entries, for tests and logging.
+  synchronized int size() {
+    var size = 0;
+    for (int i = 0; i < capacity; i++) {
+      if (index.get(slotOffset(i) + SLOT_STATE) == USED) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  /// Flushes the index and the blobs to the disk.
+  synchronized void force() throws IOException {
+    blobs.force(false);
+    index.force();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    force();
+    blobs.close();
+    indexChannel.close();
+    lockChannel.close();
+  }
+
+  /// Returns the offset of the used slot for `key`, or `-1`.
+  private int find(Key key) {
+    for (int i = bucket(key.hash()), probes = 0;
+        probes < capacity;
+        i = (i + 1) % capacity, probes++) {
+      var slot = slotOffset(i);
+      var state = index.get(slot + SLOT_STATE);
+      if (state == FREE) {
+        return -1;
+      }
+      if (state == USED && matches(slot, key)) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /// Returns the offset of the first slot not in use on the probe sequence of `key`.
+  private int freeSlot(Key key) {
+    for (int i = bucket(key.hash()); ; i = (i + 1) % capacity) {
+      var slot = slotOffset(i);
+      if (index.get(slot + SLOT_STATE) != USED) {
+        return slot;
+      }
+    }
+  }
+
+  private boolean matches(int slot, Key key) {
+    return index.getLong(slot + SLOT_HASH) == key.hash()
+        && index.getInt(slot + SLOT_R_VERSION) == key.rVersion().encode()
+        && index.get(slot + SLOT_TIER) == key.tier().getNumber()
+        && index.get(slot + SLOT_BC_OPT) == key.bcOpt().value()
+        && index.get(slot + SLOT_CC_OPT) == key.ccOpt();
+  }
+
+  /// Doubles the capacity of the index, dropping removed slots.
+  ///
+  /// The new index is written next to the old one and atomically moved over it.
+  private void grow() throws IOException {
+    var used = size();
+    var newCapacity = capacity * 2;
+    while (used + 1 > newCapacity * MAX_LOAD) {
+      newCapacity *= 2;
+    }
+
+    var tmpPath = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+    try (var tmpChannel = openIndex(tmpPath)) {
+      tmpChannel.truncate(0);
+      var newIndex = createIndex(tmpChannel, newCapacity, fingerprint);
+      for (int i = 0; i < capacity; i++) {
+        var slot = slotOffset(i);
+        if (index.get(slot + SLOT_STATE) != USED) {
+          continue;
+        }
+        var j = bucket(index.getLong(slot + SLOT_HASH), newCapacity);
+        while (newIndex.get(slotOffset(j) + SLOT_STATE) != FREE) {
+          j = (j + 1) % newCapacity;
+        }
+        newIndex.put(slotOffset(j), index.slice(slot, SLOT_SIZE), 0, SLOT_SIZE);
+      }
+      newIndex.putInt(COUNT_OFFSET, used);
+      newIndex.putLong(LIVE_OFFSET, live);
+      newIndex.force();
+    }
+
+    indexChannel.close();
+    Files.move(
+        tmpPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    indexChannel = openIndex(indexPath);
+    index = map(indexChannel, indexChannel.size());
+    capacity = newCapacity;
+    occupied = used;
+  }
+
+  /// Rewrites `blobs` with only the live responses. The newest responses are kept first, and the
+  /// older ones which don't fit in half of the maximum size are removed, so that the next
+  /// compaction is far.
+  ///
+  /// Like in [#grow()], the new file is written next to the old one and atomically moved over it.
+  /// A crash before the slots are updated leaves them pointing at other responses, which their
+  /// checksums turn into misses.
+  private void compact() throws IOException {
+    var slots = new ArrayList<Integer>();
+    for (int i = 0; i < capacity; i++) {
+      var slot = slotOffset(i);
+      if (index.get(slot + SLOT_STATE) == USED) {
+        slots.add(slot);
+      }
+    }
+    // Responses are appended, so the newest are at the end.
+    slots.sort(
+        Comparator.comparingLong((Integer slot) -> index.getLong(slot + SLOT_BLOB_OFFSET))
+            .reversed());
+
+    var budget = maxBytes > 0 ? maxBytes / 2 : Long.MAX_VALUE;
+    var oldSize = blobs.size();
+    var newOffsets = new HashMap<Integer, Long>();
+    var newSize = 0L;
+    var tmpPath = blobsPath.resolveSibling(blobsPath.getFileName() + ".tmp");
+    try (var tmp =
+        FileChannel.open(
+            tmpPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      for (var slot : slots) {
+        var offset = index.getLong(slot + SLOT_BLOB_OFFSET);
+        var length = index.getInt(slot + SLOT_BLOB_LENGTH);
+        if (offset < 0 || length < 0 || offset + length > oldSize) {
+          // Corrupted: dropped.
+          continue;
+        }
+        if (newSize + length > budget) {
+          break;
+        }
+        for (long copied = 0; copied < length; ) {
+          copied += blobs.transferTo(offset + copied, length - copied, tmp);
+        }
+        newOffsets.put(slot, newSize);
+        newSize += length;
+      }
+      tmp.force(false);
+    }
+
+    blobs.close();
+    Files.move(
+        tmpPath, blobsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    blobs = openBlobs(blobsPath);
+    for (var slot : slots) {
+      var offset = newOffsets.get(slot);
+      if (offset == null) {
+        index.put(slot + SLOT_STATE, REMOVED);
+      } else {
+        index.putLong(slot + SLOT_BLOB_OFFSET, offset);
+      }
+    }
+    setLive(newSize);
+  }
+
+  private void setLive(long live) {
+    this.live = live;
+    index.putLong(LIVE_OFFSET, live);
+  }
+
+  private int bucket(long hash) {
+    return bucket(hash, capacity);
+  }
+
+  private static int bucket(long hash, int capacity) {
+    // The hashes are XXH3 hashes, so the low bits are already well distributed.
+    return (int) Long.remainderUnsigned(hash, capacity);
+  }
+
+  private static int slotOffset(int i) {
+    return HEADER_SIZE + i * SLOT_SIZE;
+  }
+
+  private static int checksum(byte[] bytes) {
+    var crc = new CRC32();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  private static FileChannel openBlobs(Path path) throws IOException {
+    return FileChannel.open(
+        path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private static FileChannel openIndex(Path path) throws IOException {
+    return FileChannel.open(
+        path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private static MappedByteBuffer map(FileChannel channel, long size) throws IOException {
+    return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  private static MappedByteBuffer createIndex(FileChannel channel, int capacity, long fingerprint)
+      throws IOException {
+    var index = map(channel, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+    index.putInt(0, MAGIC);
+    index.putInt(4, FORMAT_VERSION);
+    index.putInt(CAPACITY_OFFSET, capacity);
+    index.putInt(COUNT_OFFSET, 0);
+    index.putLong(FINGERPRINT_OFFSET, fingerprint);
+    index.putLong(LIVE_OFFSET, 0);
+    return index;
+  }
+}
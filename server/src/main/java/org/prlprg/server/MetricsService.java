@@ -0,0 +1,22 @@
+package org.prlprg.server;
+
+import io.grpc.stub.StreamObserver;
+
+/// Exports the [CompileMetrics] of the compile service.
+///
+/// Testing externally: grpcurl -plaintext 0.0.0.0:8980 rsh.protocol.MetricsService.GetMetrics
+class MetricsService extends MetricsServiceGrpc.MetricsServiceImplBase {
+  private final CompileMetrics metrics;
+
+  MetricsService(CompileMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public void getMetrics(
+      Messages.MetricsRequest request, StreamObserver<Messages.MetricsResponse> responseObserver) {
+    responseObserver.onNext(
+        Messages.MetricsResponse.newBuilder().setText(metrics.scrape()).build());
+    responseObserver.onCompleted();
+  }
+}
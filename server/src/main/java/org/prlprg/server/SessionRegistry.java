@@ -0,0 +1,117 @@
+package org.prlprg.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.ByteString;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
+import org.prlprg.RVersion;
+import org.prlprg.session.GNURSession;
+import org.prlprg.session.RSession;
+
+/// The R sessions compilations run in, shared by all the clients with the same setup.
+///
+/// Compilations only read a session: namespaces are loaded on demand, once, for every client of
+/// the session. So many clients with the same version of R, platform and packages reuse one
+/// loaded environment, instead of each [CompileService#init] reloading base.
+///
+/// Sessions are therefore only exposed as [RSession]s, whose lookups may be called concurrently.
+/// The rest of the [GNURSession] API, like [GNURSession#loadPackage] or the setters, mutates the
+/// session for all its clients, and is only for the factory, before the session is shared.
+///
+/// Each session has an id, which clients send back in their compile requests. Only the most
+/// recently used sessions are kept: the id of an evicted session is unknown, and its clients
+/// have to init again.
+final class SessionRegistry {
+  private static final Logger logger = Logger.getLogger(SessionRegistry.class.getName());
+
+  /// What makes two clients share a session.
+  ///
+  /// @param packageHashes the hashes of the packages which are initially loaded, in any order.
+  record Key(RVersion rVersion, String platform, ImmutableSet<ByteString> packageHashes) {
+    static Key of(Messages.InitRequest request) {
+      var version = request.getRVersion();
+      return new Key(
+          new RVersion(version.getMajor(), version.getMinor(), version.getPatch()),
+          request.getPlatform(),
+          ImmutableSet.copyOf(request.getPackageHashList()));
+    }
+  }
+
+  record Session(long id, Key key, RSession session) {}
+
+  private final Function<Key, GNURSession> factory;
+  private final Executor loader;
+  private final Cache<Key, Session> byKey;
+  private final ConcurrentHashMap<Long, Session> byId = new ConcurrentHashMap<>();
+  private final AtomicLong nextId = new AtomicLong(1);
+
+  /// @param factory creates the session of a key the first time it is registered.
+  /// @param loader loads the base environment of new sessions in the background, so sessions
+  ///     with different keys load concurrently, and before their first compilation.
+  /// @param maxSessions the number of sessions kept, see [AppConfig#MAX_SESSIONS].
+  SessionRegistry(Function<Key, GNURSession> factory, Executor loader, int maxSessions) {
+    this.factory = factory;
+    this.loader = loader;
+    this.byKey =
+        CacheBuilder.newBuilder()
+            // A single segment, so that the least recently used session is the one evicted.
+            .concurrencyLevel(1)
+            .maximumSize(maxSessions)
+            .removalListener(
+                (RemovalNotification<Key, Session> removed) -> {
+                  if (removed.wasEvicted() && removed.getValue() != null) {
+                    byId.remove(removed.getValue().id());
+                    logger.info("Dropped session " + removed.getValue().id());
+                  }
+                })
+            .build();
+  }
+
+  /// Returns the session of `key`, which is created if it is the first time.
+  Session register(Key key) {
+    return byKey
+        .asMap()
+        .computeIfAbsent(
+            key,
+            k -> {
+              var session = new Session(nextId.getAndIncrement(), k, factory.apply(k));
+              byId.put(session.id(), session);
+              logger.info("Created session " + session.id() + " for " + k);
+              loader.execute(() -> preload(session));
+              return session;
+            });
+  }
+
+  /// The session with the given id, or `null` if there isn't one.
+  @Nullable Session get(long id) {
+    var session = byId.get(id);
+    if (session != null) {
+      // Marks the session as used.
+      byKey.getIfPresent(session.key());
+    }
+    return session;
+  }
+
+  /// The number of sessions.
+  int size() {
+    return byId.size();
+  }
+
+  private static void preload(Session session) {
+    try {
+      session.session().baseNamespace();
+    } catch (RuntimeException e) {
+      // The first compilation in the session will try again, and report the error to its client.
+      logger.log(Level.WARNING, "Cannot load base in session " + session.id(), e);
+    }
+  }
+}
@@ -1,11 +1,27 @@
 package org.prlprg.service;
 
+import com.google.common.base.Suppliers;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jspecify.annotations.Nullable;
 import org.prlprg.AppConfig;
 import org.prlprg.util.cc.CCCompilationBuilder;
+import org.prlprg.util.cc.CCObjectCache;
 
 public class RshCompiler {
   // Make it work whether we run it  from the server directory or from the root of the project
@@ -20,7 +36,7 @@ public class RshCompiler {
   // TODO: this is just temporary
   //  what we need is to keep this in the resources, versioned by R version
   //  and upon server instantiation, copy it to some temp directory
-  //  and precompile the header file (if needed)
+  //  (the header is precompiled, see `precompileHeaders`)
   private static final Path BC2C_RSH_INCLUDE_PATH =
       RSH_DIRECTORY.resolve("src/bc2c").normalize().toAbsolutePath();
   private static final Path FIR2C_RSH_INCLUDE_PATH =
@@ -46,7 +62,29 @@ public class RshCompiler {
           // "-DRSH_INLINE"
           );
 
+  private static final Logger LOG = Logger.getLogger(RshCompiler.class.getName());
+  private static final String RUNTIME_HEADER = "runtime.h";
+  private static final int MAX_OPTIMIZATION_LEVEL = 3;
+
+  /// Version of the C code generators (BC2C and FIR2C). Bump it when they change the code they
+  /// generate for the same input, so that the native code persisted by an earlier version (see
+  /// [#buildFingerprint()]) isn't reused.
+  public static final int CODEGEN_VERSION = 1;
+
+  /// Directories containing a precompiled `runtime.h`, for each runtime variant and optimization
+  /// level whose header has been precompiled.
+  private static final Map<PchKey, Path> PCH_DIRECTORIES = new ConcurrentHashMap<>();
+
+  private record PchKey(RuntimeVariant variant, int optimizationLevel) {}
+
+  /// [#hashHeaders()], computed once. Empty if it failed, which isn't retried either: the compiler
+  /// and the headers are not going to appear while the server runs.
+  private static final Supplier<Optional<String>> HEADERS_HASH =
+      Suppliers.memoize(RshCompiler::tryHashHeaders);
+
   private final List<String> compilerFlags;
+  // The directory of the precompiled `runtime.h`, if any.
+  private final @Nullable Path pchDirectory;
 
   public enum RuntimeVariant {
     DIRECT_BC2C,
@@ -54,18 +92,174 @@ public class RshCompiler {
   }
 
   public RshCompiler(List<String> compilerFlags) {
+    this(compilerFlags, null);
+  }
+
+  private RshCompiler(List<String> compilerFlags, @Nullable Path pchDirectory) {
     this.compilerFlags = compilerFlags;
+    this.pchDirectory = pchDirectory;
   }
 
   public static RshCompiler getInstance(int optimizationLevel, RuntimeVariant variant) {
+    return new RshCompiler(
+        compilerFlags(optimizationLevel, variant),
+        PCH_DIRECTORIES.get(new PchKey(variant, optimizationLevel)));
+  }
+
+  /// Precompiles `runtime.h` for every runtime variant and optimization level, so that
+  /// [#getInstance(int, RuntimeVariant)] compilers don't parse it (and R's headers) again and
+  /// again.
+  ///
+  /// Precompiled headers are stored in [AppConfig#PCH_DIR], in a directory versioned by the
+  /// compiler, the flags, and the contents of the headers: they are only rebuilt when one of these
+  /// changes. Failures are logged and the compilers keep working without precompiled headers.
+  public static void precompileHeaders() {
+    if (!AppConfig.PRECOMPILED_HEADERS) {
+      return;
+    }
+
+    var headersHash = headersHash();
+    if (headersHash == null) {
+      LOG.warning("Not precompiling the runtime headers, since they cannot be hashed");
+      return;
+    }
+    try {
+      org.prlprg.util.Files.createPrivateDirectory(Path.of(AppConfig.PCH_DIR));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Not precompiling the runtime headers in " + AppConfig.PCH_DIR, e);
+      return;
+    }
+
+    for (var variant : RuntimeVariant.values()) {
+      for (int level = 0; level <= MAX_OPTIMIZATION_LEVEL; level++) {
+        try {
+          var directory = precompileHeader(variant, level, headersHash);
+          PCH_DIRECTORIES.put(new PchKey(variant, level), directory);
+        } catch (Exception e) {
+          LOG.log(
+              Level.WARNING,
+              "Cannot precompile the " + variant + " runtime header at -O" + level,
+              e);
+        }
+      }
+    }
+  }
+
+  /// Like [#precompileHeaders()] but in a background thread. Compilations which start before the
+  /// headers are ready just don't use them.
+  public static void precompileHeadersInBackground() {
+    Thread.ofPlatform().daemon().name("precompile-headers").start(RshCompiler::precompileHeaders);
+  }
+
+  /// Forgets the precompiled headers (they are kept on disk), for benchmarks.
+  public static void disablePrecompiledHeaders() {
+    PCH_DIRECTORIES.clear();
+  }
+
+  private static Path precompileHeader(RuntimeVariant variant, int level, String headersHash)
+      throws Exception {
+    var flags = compilerFlags(level, variant);
+    var version =
+        Hashing.sha256()
+            .newHasher()
+            .putString(headersHash, StandardCharsets.UTF_8)
+            .putString(String.join(" ", flags), StandardCharsets.UTF_8)
+            .hash()
+            .toString();
+    var root = Path.of(AppConfig.PCH_DIR);
+    var directory =
+        root.resolve(variant.name().toLowerCase() + "-O" + level + "-" + version.substring(0, 16));
+    if (Files.exists(directory)) {
+      if (isValidHeader(directory, version)) {
+        return directory;
+      }
+      LOG.warning("Rebuilding the invalid precompiled header " + directory);
+      org.prlprg.util.Files.deleteRecursively(directory);
+    }
+
+    // Build in a temporary directory and move it in place, so that concurrent servers never see
+    // a partially written header.
+    Files.createDirectories(root);
+    var tmp = Files.createTempDirectory(root, directory.getFileName() + ".tmp");
+    var time = System.currentTimeMillis();
+    new CCCompilationBuilder(
+            includePath(variant).resolve(RUNTIME_HEADER), tmp.resolve(RUNTIME_HEADER + ".gch"))
+        .flags(flags)
+        .compile();
+    Files.writeString(
+        tmp.resolve(RUNTIME_HEADER + ".key"),
+        headerKey(tmp.resolve(RUNTIME_HEADER + ".gch"), version));
+    try {
+      Files.move(tmp, directory, StandardCopyOption.ATOMIC_MOVE);
+    } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+      // Another server built it at the same time.
+      try (var files = Files.list(tmp)) {
+        for (var file : files.toList()) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(tmp);
+    }
+    LOG.info(
+        "Precompiled the "
+            + variant
+            + " runtime header at -O"
+            + level
+            + " in "
+            + (System.currentTimeMillis() - time)
+            + " ms");
+    return directory;
+  }
+
+  /// Whether `directory` has the precompiled header for `version`, as it was written: its key file
+  /// names `version` and the hash of the header.
+  private static boolean isValidHeader(Path directory, String version) {
+    try {
+      var key = Files.readString(directory.resolve(RUNTIME_HEADER + ".key"));
+      return key.equals(headerKey(directory.resolve(RUNTIME_HEADER + ".gch"), version));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static String headerKey(Path header, String version) throws IOException {
+    return version + " " + Hashing.sha256().hashBytes(Files.readAllBytes(header));
+  }
+
+  /// Hashes the compiler version and every header a runtime header can include: the Rsh ones and
+  /// R's.
+  private static String hashHeaders() throws IOException, InterruptedException {
+    var hasher = Hashing.sha256().newHasher();
+
+    var version = new ProcessBuilder(AppConfig.CC, "--version").redirectErrorStream(true).start();
+    hasher.putBytes(version.getInputStream().readAllBytes());
+    version.waitFor();
+
+    for (var dir : List.of(RSH_DIRECTORY.resolve("src"), R_INCLUDE_PATH)) {
+      if (!Files.isDirectory(dir)) {
+        continue;
+      }
+      try (var files = Files.walk(dir)) {
+        for (var file : files.filter(f -> f.toString().endsWith(".h")).sorted().toList()) {
+          hasher.putString(file.toString(), StandardCharsets.UTF_8);
+          hasher.putBytes(Files.readAllBytes(file));
+        }
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  private static Path includePath(RuntimeVariant variant) {
+    return switch (variant) {
+      case DIRECT_BC2C -> BC2C_RSH_INCLUDE_PATH;
+      case FIR2C -> FIR2C_RSH_INCLUDE_PATH;
+    };
+  }
+
+  private static ArrayList<String> compilerFlags(int optimizationLevel, RuntimeVariant variant) {
     var flags = new ArrayList<>(COMMON_COMPILER_FLAGS);
 
-    var rshInclude =
-        switch (variant) {
-          case DIRECT_BC2C -> BC2C_RSH_INCLUDE_PATH;
-          case FIR2C -> FIR2C_RSH_INCLUDE_PATH;
-        };
-    flags.add("-I" + rshInclude);
+    flags.add("-I" + includePath(variant));
 
     if (optimizationLevel == 0) {
       flags.add("-g3");
@@ -77,10 +271,60 @@ public class RshCompiler {
     }
     flags.add("-O" + optimizationLevel);
 
-    return new RshCompiler(flags);
+    return flags;
   }
 
+  /// Builder for a compilation of `input`, whose output goes through the
+  /// [CCObjectCache#shared()] cache if enabled.
   public CCCompilationBuilder createBuilder(Path input, Path output) {
-    return new CCCompilationBuilder(input, output).flags(compilerFlags);
+    return configure(new CCCompilationBuilder(input, output));
+  }
+
+  /// Like [#createBuilder(Path, Path)], but the C code is piped to the compiler instead of being
+  /// read from a file.
+  public CCCompilationBuilder createBuilder(String source, Path output) {
+    return configure(CCCompilationBuilder.fromSource(source, output));
+  }
+
+  private CCCompilationBuilder configure(CCCompilationBuilder builder) {
+    builder.flags(compilerFlags);
+    // gcc looks for `runtime.h.gch` in each include directory before `runtime.h`, so putting the
+    // precompiled header's directory first makes it use it. If the precompiled header doesn't
+    // match the flags of the compilation (e.g. the caller adds a `-D`), gcc ignores it and reads
+    // `runtime.h` from the next include directory. Either way the object is the same, so whether
+    // the header was precompiled yet doesn't change the key of the object cache.
+    if (pchDirectory != null) {
+      builder.uncachedFlag("-I" + pchDirectory);
+    }
+
+    var cache = CCObjectCache.shared();
+    var salt = headersHash();
+    // Without the hash of the headers, a cached object could be stale.
+    return cache == null || salt == null ? builder : builder.cache(cache, salt);
+  }
+
+  /// A fingerprint of what determines the native code of a function besides the function and the
+  /// compilation options: the code generators, the C compiler and the runtime headers.
+  ///
+  /// @return the fingerprint, or `null` if the headers cannot be hashed.
+  public static @Nullable String buildFingerprint() {
+    var headersHash = headersHash();
+    return headersHash == null ? null : "codegen-" + CODEGEN_VERSION + "-" + headersHash;
+  }
+
+  private static @Nullable String headersHash() {
+    return HEADERS_HASH.get().orElse(null);
+  }
+
+  private static Optional<String> tryHashHeaders() {
+    try {
+      return Optional.of(hashHeaders());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Cannot hash the runtime headers", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.log(Level.WARNING, "Interrupted while hashing the runtime headers", e);
+    }
+    return Optional.empty();
   }
 }
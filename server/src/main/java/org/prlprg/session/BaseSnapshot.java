@@ -0,0 +1,155 @@
+package org.prlprg.session;
+
+import com.google.common.hash.Hashing;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jspecify.annotations.Nullable;
+import org.prlprg.rds.RDSReader;
+import org.prlprg.rds.RDSWriter;
+import org.prlprg.sexp.Attributes;
+import org.prlprg.sexp.SEXP;
+import org.prlprg.sexp.SEXPs;
+import org.prlprg.sexp.StrSXP;
+import org.prlprg.sexp.VecSXP;
+
+/**
+ * A snapshot of the objects of the {@code base} package database, once they are inflated and linked
+ * together (the {@code env::N} references are resolved).
+ *
+ * <p>It is an uncompressed RDS file of a named list, which is mapped and read in one go. The name
+ * of the file depends on the R version and on the size and modification time of {@code base.rdb},
+ * as well as on the version of the snapshot format, so that a snapshot is not used for another
+ * installation of R or by another server. The whole key is stored in the snapshot and checked
+ * when it is read.
+ *
+ * <p>The directory of the snapshots must be private to the server's user (see {@link
+ * org.prlprg.util.Files#createPrivateDirectory(Path)}): a snapshot contains closures which are
+ * then compiled and run.
+ */
+final class BaseSnapshot {
+  private static final Logger LOGGER = Logger.getLogger(BaseSnapshot.class.getName());
+  private static final String KEY_ATTRIBUTE = "rsh.key";
+
+  /**
+   * Version of what a snapshot contains: bump it when the reader, the writer or the way objects
+   * are linked change, so that older snapshots are rebuilt. The version of the server is part of
+   * the key too, when it runs from a packaged build.
+   */
+  private static final int FORMAT_VERSION = 2;
+
+  private final String key;
+  private final Path file;
+
+  /**
+   * @param dir the directory of the snapshots.
+   * @param rVersion the version of R the database belongs to.
+   * @param rdb the {@code base.rdb} file the snapshot is made from.
+   */
+  BaseSnapshot(Path dir, String rVersion, Path rdb) throws IOException {
+    var attrs = Files.readAttributes(rdb, "size,lastModifiedTime");
+    this.key =
+        Hashing.sha256()
+            .hashString(
+                FORMAT_VERSION
+                    + "\0"
+                    + BaseSnapshot.class.getPackage().getImplementationVersion()
+                    + "\0"
+                    + rdb.toAbsolutePath()
+                    + "\0"
+                    + attrs.get("size")
+                    + "\0"
+                    + attrs.get("lastModifiedTime"),
+                StandardCharsets.UTF_8)
+            .toString();
+    this.file = dir.resolve("base-" + rVersion + "-" + key.substring(0, 16) + ".rds");
+  }
+
+  Path file() {
+    return file;
+  }
+
+  /**
+   * Reads the objects of the snapshot.
+   *
+   * @return the objects, or {@code null} if there is no snapshot yet, or it can't be read or
+   *     isn't the snapshot of this key.
+   */
+  @Nullable HashMap<String, SEXP> read(RSession session) {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+
+    try (var channel = FileChannel.open(file)) {
+      org.prlprg.util.Files.createPrivateDirectory(file.getParent());
+      var list =
+          (VecSXP)
+              RDSReader.readBuffer(
+                  session, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      if (!(list.attributes().get(KEY_ATTRIBUTE) instanceof StrSXP k
+          && k.size() == 1
+          && k.get(0).equals(key))) {
+        LOGGER.warning("Ignoring the base snapshot " + file + ", which was made for another key");
+        return null;
+      }
+      var names = list.names();
+      var objects = HashMap.<String, SEXP>newHashMap(list.size());
+      for (int i = 0; i < list.size(); i++) {
+        objects.put(names.get(i), list.get(i));
+      }
+      return objects;
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Ignoring the unreadable base snapshot " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes a snapshot of {@code objects}, unless it can't be done. The snapshot appears atomically,
+   * so concurrent servers never read a partial one.
+   */
+  void write(Map<String, SEXP> objects) {
+    var names = new String[objects.size()];
+    var values = new SEXP[objects.size()];
+    var i = 0;
+    for (var e : objects.entrySet()) {
+      names[i] = e.getKey();
+      values[i] = e.getValue();
+      i++;
+    }
+    var list =
+        SEXPs.vec(
+            values,
+            new Attributes.Builder()
+                .put("names", SEXPs.string(names))
+                .put(KEY_ATTRIBUTE, SEXPs.string(key))
+                .build());
+
+    Path tmp = null;
+    try {
+      org.prlprg.util.Files.createPrivateDirectory(file.getParent());
+      tmp = Files.createTempFile(file.getParent(), "base", ".tmp");
+      try (var out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+        RDSWriter.writeStream(out, list);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Failed to write the base snapshot " + file, e);
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException _) {
+          // Only a leftover temporary file.
+        }
+      }
+    }
+  }
+}
@@ -6,9 +6,11 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
 import org.prlprg.RVersion;
 import org.prlprg.primitive.FunTabEntry;
 import org.prlprg.rds.RDSReader;
@@ -60,7 +62,7 @@ class DummySession implements RSession {
   }
 
   @Override
-  public NamespaceEnvSXP getNamespace(String name, String version) {
+  public synchronized NamespaceEnvSXP getNamespace(String name, String version) {
     if (name.equals("base")) {
       return baseNamespace();
     }
@@ -87,17 +89,20 @@ public class GNURSession implements RSession {
   private static final String SPECIALS_SYMBOLS_RDS_FILE = "specials.RDS";
   private static final String BUILTINS_INTERNAL_SYMBOLS_RDS_FILE = "builtins-internal.RDS";
 
-  private @Nullable BaseEnvSXP baseEnv = null;
-  private @Nullable NamespaceEnvSXP baseNamespace = null;
-  private @Nullable GlobalEnvSXP globalEnv = null;
+  private volatile @Nullable BaseEnvSXP baseEnv = null;
+  private volatile @Nullable NamespaceEnvSXP baseNamespace = null;
+  private volatile @Nullable GlobalEnvSXP globalEnv = null;
   private @Nullable Set<String> builtins = null;
   private @Nullable Set<String> specials = null;
   private @Nullable Set<String> builtinsInternal = null;
-  private final HashMap<String, NamespaceEnvSXP> namespaces = new HashMap<>();
+  // Package databases are read in parallel, and their objects look up namespaces.
+  private final Map<String, NamespaceEnvSXP> namespaces = new ConcurrentHashMap<>();
   private static final String LATEST_BASEENV_FILE = "latest-baseenv.RDS";
   private static final String R_FUN_TAB_FILE = "R_FunTab.txt";
   private static @Nullable EnvSXP LATEST_BASE_ENV = null;
   private static @Nullable ImmutableMap<String, FunTabEntry> FUN_TAB = null;
+  private @Nullable Path baseSnapshotDir =
+      AppConfig.BASE_SNAPSHOT_DIR.isEmpty() ? null : Path.of(AppConfig.BASE_SNAPSHOT_DIR);
 
   // TODO: need the path to R *and* the path to the installed packages
   public GNURSession(RVersion version, Path r_dir, Path r_libraries) {
@@ -114,6 +119,14 @@ public class GNURSession implements RSession {
 
   public void setCranMirror(URI uri) {}
 
+  /**
+   * Set the directory of the snapshots of base (see {@link AppConfig#BASE_SNAPSHOT_DIR}), or {@code
+   * null} to always load base from its package database.
+   */
+  public void setBaseSnapshotDir(@Nullable Path dir) {
+    baseSnapshotDir = dir;
+  }
+
   private @Nullable Path resolvePaths(String name) {
     for (var p : RLibraries) {
       var pkgPath = p.resolve(name);
@@ -150,25 +163,27 @@ public class GNURSession implements RSession {
 
     // Make sure base is loaded
     if (baseNamespace == null) {
-      loadBase();
+      loadBaseOnce();
     }
 
-    // Bootstrap the namespace
-    prepareNamespace(name, version);
-
-    // Load the package
+    // Load the package. Only the index is read now: objects are read when they are first looked
+    // up in the namespace, and they refer to the namespace, which exists by then.
     try {
-      // getParent() because we add the name of the package to the path in readPackageDatabase
-      var bindings = readPackageDatabase(this, pkgDir.getParent(), name);
-      var ns = namespaces.get(name + version);
-      ns.setBindings(bindings);
+      // getParent() because we add the name of the package to the path
+      var db = new PackageDatabase(this, pkgDir.getParent(), name);
+      namespaces.putIfAbsent(
+          name + version, NamespaceEnvSXP.backedBy(name, version, globalEnv, db.lazyBindings()));
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private void installPackage(String name) {
-    var pkgDir = resolvePaths(name);
+  // Synchronized since sessions are shared, so several lookups may load the package at once.
+  private synchronized void installPackage(String name) {
+    if (resolvePaths(name) != null) {
+      // Installed by another lookup in the meantime.
+      return;
+    }
 
     var RScript = RDir.resolve("bin/Rscript");
     try {
@@ -207,21 +222,6 @@ public class GNURSession implements RSession {
     return db.getBindings();
   }
 
-  /**
-   * Objects in a package database refer to their own namespace so we need to create it before
-   * reading.
-   */
-  private void prepareNamespace(String name, String version) {
-    var ns = namespaces.get(name + version);
-    if (globalEnv == null) {
-      loadBase();
-    }
-    if (ns == null) {
-      ns = new NamespaceEnvSXP(name, version, globalEnv, new HashMap<>());
-      namespaces.put(name + version, ns);
-    }
-  }
-
   /**
    * Makes it possible to load a package by providing its functions directly.
    *
@@ -264,11 +264,11 @@ public class GNURSession implements RSession {
   }
 
   /** Load base from the given installed R version */
-  public void loadBase() {
+  public synchronized void loadBase() {
     var session = new DummySession();
     var baseLibPath = RDir.resolve("library");
     try {
-      var objs = GNURSession.readPackageDatabase(session, baseLibPath, "base");
+      var objs = readBaseObjects(session, baseLibPath);
       // The rdx does not contain builtins and specials so we need to load them separately
       var builtinSxps =
           builtins().stream().collect(Collectors.toMap((name) -> name, SEXPs::builtin));
@@ -288,10 +288,29 @@ public class GNURSession implements RSession {
     }
   }
 
+  /**
+   * Read the objects of base from its snapshot if there is one, or else from its package database,
+   * and snapshot them for the next sessions.
+   */
+  private HashMap<String, SEXP> readBaseObjects(RSession session, Path libPath) throws IOException {
+    if (baseSnapshotDir == null) {
+      return readPackageDatabase(session, libPath, "base");
+    }
+
+    var snapshot =
+        new BaseSnapshot(baseSnapshotDir, RVersion.toString(), libPath.resolve("base/R/base.rdb"));
+    var objs = snapshot.read(session);
+    if (objs == null) {
+      objs = readPackageDatabase(session, libPath, "base");
+      snapshot.write(objs);
+    }
+    return objs;
+  }
+
   @Override
   public NamespaceEnvSXP baseNamespace() {
     if (baseNamespace == null) {
-      loadBase();
+      loadBaseOnce();
     }
     return baseNamespace;
   }
@@ -299,7 +318,7 @@ public class GNURSession implements RSession {
   @Override
   public BaseEnvSXP baseEnv() {
     if (baseEnv == null) {
-      loadBase();
+      loadBaseOnce();
     }
     return baseEnv;
   }
@@ -307,11 +326,18 @@ public class GNURSession implements RSession {
   @Override
   public GlobalEnvSXP globalEnv() {
     if (globalEnv == null) {
-      loadBase();
+      loadBaseOnce();
     }
     return globalEnv;
   }
 
+  /** Load base, unless another thread has loaded it in the meantime. */
+  private synchronized void loadBaseOnce() {
+    if (baseNamespace == null) {
+      loadBase();
+    }
+  }
+
   public synchronized Set<String> builtins() {
     if (builtins == null) {
       builtins = readNamesFromRds(BUILTINS_SYMBOLS_RDS_FILE);
@@ -380,7 +406,7 @@ public class GNURSession implements RSession {
     return LATEST_BASE_ENV;
   }
 
-  public static ImmutableMap<String, FunTabEntry> readFunTab() {
+  public static synchronized ImmutableMap<String, FunTabEntry> readFunTab() {
     if (FUN_TAB == null) {
       var funtabFileStream =
           Objects.requireNonNull(GNURSession.class.getResourceAsStream(R_FUN_TAB_FILE));
@@ -1,12 +1,21 @@
 package org.prlprg.session;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Logger;
-import java.util.zip.InflaterInputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
+import org.prlprg.primitive.Logical;
+import org.prlprg.rds.HashConsTable;
 import org.prlprg.rds.RDSException;
 import org.prlprg.rds.RDSReader;
 import org.prlprg.sexp.*;
@@ -18,19 +27,43 @@ import org.prlprg.sexp.*;
  * installed package and consists of two files: a compressed index file with the extension .rdx and
  * a serialized object file with the extension .rdb.
  *
- * <p>This class can load object in the package on demand, and not all of them at once.
+ * <p>This class can load object in the package on demand, and not all of them at once (see {@link
+ * #lazyBindings()}).
  */
 public class PackageDatabase {
   private static Logger LOGGER = Logger.getLogger(PackageDatabase.class.getName());
-  private final RandomAccessFile objectFile;
+  // The .rdb file, mapped once: objects are inflated straight from it.
+  private final MappedByteBuffer objectFile;
+  // Inflaters not in use. Objects are inflated completely before being read, so reading an object
+  // which reads another one through the hook doesn't interleave inflations.
+  private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
   private final HashMap<String, IntSXP> index = new HashMap<>();
   private final HashMap<String, IntSXP> tmpEnvs = new HashMap<>();
-  private final HashMap<String, SEXP> objects = new HashMap<>();
+  // The objects are read concurrently by getBindings.
+  private final ConcurrentHashMap<String, SEXP> objects = new ConcurrentHashMap<>();
+  // The environments (env::N) rebuilt from tmpEnvs, shared by all the objects which refer to them.
+  private final ConcurrentHashMap<String, SEXP> envs = new ConcurrentHashMap<>();
   private final RSession session;
-  private final EnvHook envHook = new EnvHook();
-  private final Set<String> seenTmpEnvs = new HashSet<>();
+  // Shared by the objects of the package, if enabled.
+  private final @Nullable HashConsTable sharing =
+      AppConfig.SHARE_PACKAGE_ASTS ? new HashConsTable() : null;
 
+  // Environments are rebuilt under this lock, so that two threads never rebuild the same cycle of
+  // environments (each would end up with its own copy of some of them).
+  private final Object envLock = new Object();
+
+  /**
+   * Resolves the env::N references of the object being read. Each read has its own hook, which
+   * tracks the environments it is resolving, to detect cycles.
+   *
+   * <p>The environments of a cycle are only published to {@link #envs} once the outermost one is
+   * rebuilt, since until then some of them still refer to placeholders.
+   */
   private class EnvHook implements RDSReader.Hook {
+    private final Set<String> resolving = new HashSet<>();
+    // Environments rebuilt by this read, but not published yet.
+    private final Map<String, SEXP> rebuilt = new HashMap<>();
+
     @Override
     public SEXP hook(SEXP sexp) throws IOException {
       if (sexp instanceof StrSXP s) {
@@ -39,29 +72,52 @@ public class PackageDatabase {
         if (position == null) {
           return sexp;
         }
-        // There is a cycle in the Env!
-        if (seenTmpEnvs.contains(name)) {
-          // create a placeholder environment, which we will replace later
-          // by the actual environment
-          return new NamespaceEnvSXP(
-              // add a binding which would be the parent SEXP?
-              name, "__placeholder__", session.baseNamespace(), new HashMap<>());
+        var env = envs.get(name);
+        if (env != null) {
+          return env;
         }
 
-        seenTmpEnvs.add(name);
-        // env::4, env::10, env::9 are not environments but VecSXP!
-        // We should convert them to environments.
-        // They are created when the function was defined using `local`
-        // But more generally, any non special env (i.e, not global, namespace, base etc)
-        // is serialized to a VecSXP in the rdb file.
-        var tmpEnv = readObject(name, tmpEnvs);
-        if (tmpEnv instanceof VecSXP v) {
-          var realEnv = vecToEnv(v);
-          realEnv = (UserEnvSXP) replacePlaceHolder(realEnv, realEnv, name);
-          return realEnv;
-        }
+        synchronized (envLock) {
+          // Another thread may have rebuilt it while we waited.
+          env = envs.get(name);
+          if (env == null) {
+            env = rebuilt.get(name);
+          }
+          if (env != null) {
+            return env;
+          }
+          // There is a cycle in the Env!
+          if (resolving.contains(name)) {
+            // create a placeholder environment, which we will replace later
+            // by the actual environment
+            return new NamespaceEnvSXP(
+                // add a binding which would be the parent SEXP?
+                name, "__placeholder__", session.baseNamespace(), new HashMap<>());
+          }
 
-        return tmpEnv;
+          var outermost = resolving.isEmpty();
+          resolving.add(name);
+          try {
+            // env::4, env::10, env::9 are not environments but VecSXP!
+            // We should convert them to environments.
+            // They are created when the function was defined using `local`
+            // But more generally, any non special env (i.e, not global, namespace, base etc)
+            // is serialized to a VecSXP in the rdb file.
+            env = read(position, this);
+            if (env instanceof VecSXP v) {
+              var realEnv = vecToEnv(v);
+              env = replacePlaceHolder(realEnv, realEnv, name);
+            }
+            rebuilt.put(name, env);
+          } finally {
+            resolving.remove(name);
+          }
+          if (outermost) {
+            envs.putAll(rebuilt);
+            rebuilt.clear();
+          }
+          return env;
+        }
       }
 
       return sexp;
@@ -154,6 +210,14 @@ public class PackageDatabase {
     var enclos = (EnvSXP) v.get(1);
 
     // Bindings
+    // makeLazyLoadDB also records whether the environment is locked (makebasedb doesn't)
+    var locked = false;
+    for (int i = 2; i < v.size(); i++) {
+      if (names.get(i).equals("locked") && v.get(i) instanceof LglSXP l && l.size() == 1) {
+        locked = l.get(0) == Logical.TRUE;
+      }
+    }
+
     var symbols = (VecSXP) v.get(0);
     names = (StrSXP) symbols.attributes().get("names");
     assert names != null;
@@ -165,7 +229,9 @@ public class PackageDatabase {
       bindings.put(name, value);
     }
 
-    return new UserEnvSXP(enclos, bindings);
+    var env = new UserEnvSXP(enclos, bindings);
+    env.setLocked(locked);
+    return env;
   }
 
   /**
@@ -185,7 +251,9 @@ public class PackageDatabase {
     var indexFile = RDSReader.readFile(session, basePath.resolve(packageName + ".rdx").toFile());
 
     // Load objects .rdb
-    objectFile = new RandomAccessFile(String.valueOf(basePath.resolve(packageName + ".rdb")), "r");
+    try (var channel = FileChannel.open(basePath.resolve(packageName + ".rdb"))) {
+      objectFile = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
 
     // Read the index
     if (indexFile instanceof VecSXP l) {
@@ -238,72 +306,168 @@ public class PackageDatabase {
    * @return
    */
   public SEXP getObject(String name) throws IOException {
-    return readObject(name, index);
-  }
-
-  private SEXP readObject(String name, HashMap<String, IntSXP> offsets) throws IOException {
     var obj = objects.get(name);
     if (obj != null) {
       return obj;
     }
 
-    var posInRdb = offsets.get(name);
-    objectFile.seek(posInRdb.get(0));
-    byte[] raw = new byte[posInRdb.get(1)];
-    objectFile.readFully(raw);
+    obj = read(index.get(name), new EnvHook());
+    // Another thread may have read it at the same time: everyone uses the first one.
+    var previous = objects.putIfAbsent(name, obj);
+    return previous != null ? previous : obj;
+  }
+
+  private SEXP read(IntSXP posInRdb, EnvHook hook) throws IOException {
+    var raw = objectFile.slice(posInRdb.get(0), posInRdb.get(1));
     // The first 4 bytes are the uncompressed size for the chunk we read
     // It is a big endian int
-    int length = (raw[0] << 24) | (raw[1] << 16) | (raw[2] << 8) | raw[3];
-    // assert length >= raw.length - 4;
+    int length = raw.getInt();
 
-    var input = new ByteArrayInputStream(raw);
-    input.skipNBytes(4);
-    obj = RDSReader.readStream(session, new InflaterInputStream(input), envHook);
+    var buffer = ByteBuffer.wrap(inflate(raw, length));
+    return sharing == null
+        ? RDSReader.readBuffer(session, buffer, hook)
+        : RDSReader.readBuffer(session, buffer, hook, sharing);
+  }
 
-    objects.put(name, obj);
-    return obj;
+  /**
+   * Inflates the zlib stream of {@code compressed}, from its position to its limit.
+   *
+   * @param length the size of the inflated data
+   */
+  private byte[] inflate(ByteBuffer compressed, int length) throws IOException {
+    var inflated = new byte[length];
+    var inflater = inflaters.poll();
+    if (inflater == null) {
+      inflater = new Inflater();
+    } else {
+      inflater.reset();
+    }
+    inflater.setInput(compressed);
+    try {
+      var n = 0;
+      while (n < length && !inflater.finished()) {
+        var read = inflater.inflate(inflated, n, length - n);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        n += read;
+      }
+      if (n != length) {
+        throw new IOException(
+            "Truncated object in the package database: " + n + " < " + length + " bytes");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupted object in the package database", e);
+    } finally {
+      inflaters.add(inflater);
+    }
+    return inflated;
   }
 
   /**
-   * Get all the objects in the package database.
+   * Get all the objects in the package database. They are inflated and read in parallel, on the
+   * common fork/join pool.
    *
    * @return
    */
   public HashMap<String, SEXP> getBindings() throws IOException {
-    if (objects.size() == index.size() + tmpEnvs.size()) {
-      return objects;
-    }
+    readAll();
+
+    var bindings = new HashMap<String, SEXP>(objects);
+    var notClos =
+        bindings.entrySet().stream()
+            .filter(e -> !(e.getValue() instanceof CloSXP))
+            .map(e -> e.getKey() + ":" + e.getValue().type())
+            .toList();
+    LOGGER.info("Not Closures: " + notClos);
+
+    return bindings;
+  }
+
+  /**
+   * Get a view of the objects in the package database which reads each of them the first time it is
+   * looked up, and caches it. Iterating over the view reads all the remaining objects.
+   *
+   * <p>Bindings can be added to the view, or replaced, without changing the database, but not
+   * removed.
+   */
+  public Map<String, SEXP> lazyBindings() {
+    return new LazyBindings();
+  }
+
+  private void readAll() throws IOException {
     if (index.containsKey(".__NAMESPACE__.")) {
-      readObject(".__NAMESPACE__.", index);
+      getObject(".__NAMESPACE__.");
     }
 
-    // Problems:
-    // - .doSortWrap : cycle in with env:4
-    // - globalCallingHandlers : same as .doSortWrap
-    // - conflictRules : same
-    // - .doWrap : same (but it seems it depends on the order of the symbol reading
-    // - .dynLibs: cycle with env:4
-    // - .libPaths: same
-    for (var name : index.keySet()) {
-      // LOGGER.info("Loading " + name);
+    // Environments with cycles (e.g., env::4 for .doSortWrap, .dynLibs or .libPaths) are rebuilt
+    // by the first object which refers to them, whatever the order in which objects are read.
+    try {
+      index.keySet().parallelStream()
+          .forEach(
+              name -> {
+                try {
+                  getObject(name);
+                } catch (RDSException e) {
+                  LOGGER.warning("Error loading " + name + ": " + e.getMessage());
+                } catch (IOException e) {
+                  throw new UncheckedIOException(e);
+                }
+              });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private class LazyBindings extends AbstractMap<String, SEXP> {
+    // Bindings added or replaced after the database was opened.
+    private final ConcurrentHashMap<String, SEXP> overrides = new ConcurrentHashMap<>();
+    // Objects which could not be read, so they are not read again on each lookup.
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public @Nullable SEXP get(Object key) {
+      var value = overrides.get(key);
+      if (value != null
+          || !(key instanceof String name)
+          || !index.containsKey(name)
+          || failed.contains(name)) {
+        return value;
+      }
 
       try {
-        readObject(name, index);
+        return getObject(name);
       } catch (RDSException e) {
         LOGGER.warning("Error loading " + name + ": " + e.getMessage());
+        failed.add(name);
+        return null;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
       }
     }
 
-    var notClos =
-        objects.entrySet().stream()
-            .filter(e -> !(e.getValue() instanceof CloSXP))
-            .map(e -> e.getKey() + ":" + e.getValue().type())
-            .toList();
-    LOGGER.info("Not Closures: " + notClos);
+    @Override
+    public boolean containsKey(Object key) {
+      return overrides.containsKey(key) || (index.containsKey(key) && !failed.contains(key));
+    }
+
+    @Override
+    public @Nullable SEXP put(String key, SEXP value) {
+      var previous = overrides.put(key, value);
+      return previous != null ? previous : objects.get(key);
+    }
 
-    // Remove the persist environments
-    objects.keySet().removeAll(tmpEnvs.keySet());
+    @Override
+    public Set<Entry<String, SEXP>> entrySet() {
+      try {
+        readAll();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
 
-    return objects;
+      var all = new HashMap<String, SEXP>(objects);
+      all.putAll(overrides);
+      return Collections.unmodifiableMap(all).entrySet();
+    }
   }
 }
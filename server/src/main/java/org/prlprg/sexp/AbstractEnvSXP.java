@@ -14,9 +14,14 @@ abstract class AbstractEnvSXP {
   protected final Map<String, SEXP> bindings;
 
   public AbstractEnvSXP(EnvSXP parent) {
-    this.parent = parent;
     // Preserving the order makes testing and debugging easier and more consistent.
-    this.bindings = new LinkedHashMap<>();
+    this(parent, new LinkedHashMap<>());
+  }
+
+  /// Creates an environment whose bindings are stored in `bindings`, which is used as is.
+  protected AbstractEnvSXP(EnvSXP parent, Map<String, SEXP> bindings) {
+    this.parent = parent;
+    this.bindings = bindings;
   }
 
   // @Override
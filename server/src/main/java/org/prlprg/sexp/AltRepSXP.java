@@ -0,0 +1,22 @@
+package org.prlprg.sexp;
+
+/// A vector with a compact representation, an ALTREP class in GNU-R, e.g. the sequence `1:1e6`
+/// which only stores its bounds.
+///
+/// Its elements are computed when they are accessed. It is serialized in its compact form, which
+/// GNU-R reads back as the same ALTREP class (see [org.prlprg.rds.RDSWriter]).
+public sealed interface AltRepSXP permits IntSeqSXP, RealSeqSXP, DeferredStrSXP {
+  /// The name of the ALTREP class in GNU-R, e.g. `compact_intseq`.
+  String altRepClass();
+
+  /// The package which defines the ALTREP class.
+  default String altRepPackage() {
+    return "base";
+  }
+
+  /// The state GNU-R serializes, and rebuilds the vector from.
+  ///
+  /// A dotted pair `(x . y)`, which has no representation as a [SEXP], is returned as a
+  /// two-element [ListSXP].
+  SEXP altRepState();
+}
@@ -73,6 +73,20 @@ public final class Coercions {
     };
   }
 
+  /** The elements of {@code x} as reals, like {@link #realFromInteger(int)} but in bulk. */
+  public static double[] toReals(NumericSXP<?> x) {
+    var res = new double[x.size()];
+    switch (x) {
+      case RealSXP reals -> reals.copyInto(res, 0);
+      case IntSXP ints -> {
+        for (int i = 0; i < res.length; i++) {
+          res[i] = realFromInteger(ints.asInt(i));
+        }
+      }
+    }
+    return res;
+  }
+
   public static SEXPType commonType(SEXPType... types) {
     if (types.length == 0) {
       throw new IllegalArgumentException("No types provided");
@@ -187,6 +201,19 @@ public final class Coercions {
     return Double.isNaN(x);
   }
 
+  /**
+   * Is {@code x} {@code NA} and not another NaN?
+   *
+   * <p>Unlike {@link #isNA(double)}, which is true for every NaN, this only accepts {@link
+   * Constants#NA_REAL} and GNU-R's {@code NA}, the NaN whose low word is 1954 (cf. {@code R_IsNA}
+   * in arithmetic.c).
+   */
+  public static boolean isStrictNA(double x) {
+    var bits = Double.doubleToRawLongBits(x);
+    return Double.isNaN(x)
+        && (bits == Double.doubleToRawLongBits(Constants.NA_REAL) || (int) bits == 1954);
+  }
+
   public static boolean isNA(Complex x) {
     return isNA(x.real()) || isNA(x.imag());
   }
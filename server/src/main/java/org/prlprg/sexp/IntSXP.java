@@ -1,8 +1,11 @@
 package org.prlprg.sexp;
 
+import java.nio.IntBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import javax.annotation.concurrent.Immutable;
 import org.prlprg.parseprint.Printer;
 import org.prlprg.primitive.Constants;
@@ -10,13 +13,37 @@ import org.prlprg.primitive.Constants;
 /** Integer vector SEXP. */
 @Immutable
 public sealed interface IntSXP extends NumericSXP<Integer>
-    permits EmptyIntSXPImpl, IntSXPImpl, ScalarIntSXP {
+    permits EmptyIntSXPImpl, IntSXPImpl, IntSeqSXP, ScalarIntSXP {
   /**
-   * The data contained in this vector. Note that if it's an empty or scalar, those aren't actually
-   * backed by an array, so this gets created and returns every access.
+   * The data contained in this vector. Note that if it's an empty, a scalar or a compact sequence,
+   * those aren't actually backed by an array, so this gets created and returns every access: a
+   * sequence like {@code 1:1e6} allocates all its elements each time. Prefer {@link #asInt(int)},
+   * {@link #forEachInt} or {@link #copyInto} to read the elements.
    */
   int[] data();
 
+  /** Calls {@code action} on each element in order, without boxing them. */
+  default void forEachInt(IntConsumer action) {
+    for (int i = 0; i < size(); i++) {
+      action.accept(asInt(i));
+    }
+  }
+
+  /**
+   * A read-only view of the elements. It doesn't copy them if the vector is backed by an array.
+   */
+  default IntBuffer intBuffer() {
+    return IntBuffer.wrap(data()).asReadOnlyBuffer();
+  }
+
+  /** Copies the elements into {@code dest}, from index {@code destPos}. */
+  default void copyInto(int[] dest, int destPos) {
+    Objects.checkFromIndexSize(destPos, size(), dest.length);
+    for (int i = 0; i < size(); i++) {
+      dest[destPos + i] = asInt(i);
+    }
+  }
+
   @Override
   default SEXPType type() {
     return SEXPType.INT;
@@ -24,8 +51,8 @@ public sealed interface IntSXP extends NumericSXP<Integer>
 
   @Override
   default boolean hasNaOrNaN() {
-    for (var integer : this) {
-      if (integer == Constants.NA_INT) {
+    for (int i = 0; i < size(); i++) {
+      if (asInt(i) == Constants.NA_INT) {
         return true;
       }
     }
@@ -44,18 +71,31 @@ public sealed interface IntSXP extends NumericSXP<Integer>
   }
 }
 
-/** Int vector which doesn't fit any of the more specific subclasses. */
+/**
+ * Int vector which doesn't fit any of the more specific subclasses.
+ *
+ * <p>It owns {@code data} instead of copying it, so creators must give it a fresh array (see
+ * {@link SEXPs#integerOwned}).
+ */
 record IntSXPImpl(int[] data, Attributes attributes) implements IntSXP {
-  IntSXPImpl(int[] data, Attributes attributes) {
-    this.data = Arrays.copyOf(data, data.length);
-    this.attributes = attributes;
-  }
 
   @Override
   public Iterator<Integer> iterator() {
     return Arrays.stream(data).iterator();
   }
 
+  @Override
+  public void forEachInt(IntConsumer action) {
+    for (var i : data) {
+      action.accept(i);
+    }
+  }
+
+  @Override
+  public void copyInto(int[] dest, int destPos) {
+    System.arraycopy(data, 0, dest, destPos, data.length);
+  }
+
   @Override
   public Integer get(int i) {
     return data[i];
@@ -78,7 +118,7 @@ record IntSXPImpl(int[] data, Attributes attributes) implements IntSXP {
 
   @Override
   public IntSXP copy() {
-    return new IntSXPImpl(data, attributes);
+    return new IntSXPImpl(Arrays.copyOf(data, data.length), attributes);
   }
 
   @Override
@@ -93,6 +133,9 @@ record IntSXPImpl(int[] data, Attributes attributes) implements IntSXP {
 
   @Override
   public boolean equals(Object o) {
+    if (o instanceof IntSeqSXP seq) {
+      return seq.equals(this);
+    }
     if (!(o instanceof IntSXPImpl(var data1, var attributes1))) {
       return false;
     }
@@ -110,6 +153,123 @@ record IntSXPImpl(int[] data, Attributes attributes) implements IntSXP {
   }
 }
 
+/**
+ * Compact integer sequence, e.g. {@code 1:1e6}, which only stores its bounds (GNU-R's {@code
+ * compact_intseq} ALTREP class).
+ *
+ * @param step 1 or -1.
+ */
+record IntSeqSXP(int size, int first, int step, Attributes attributes)
+    implements IntSXP, AltRepSXP {
+  IntSeqSXP {
+    if (size < 0) {
+      throw new IllegalArgumentException("negative size: " + size);
+    }
+    if (step != 1 && step != -1) {
+      throw new IllegalArgumentException("step must be 1 or -1: " + step);
+    }
+  }
+
+  /** Allocates and fills a new array of {@link #size()} elements on each call. */
+  @Override
+  public int[] data() {
+    var data = new int[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = first + i * step;
+    }
+    return data;
+  }
+
+  @Override
+  public Iterator<Integer> iterator() {
+    return IntStream.range(0, size).map(i -> first + i * step).iterator();
+  }
+
+  @Override
+  public Integer get(int i) {
+    return asInt(i);
+  }
+
+  @Override
+  public void set(int i, Integer value) {
+    throw new UnsupportedOperationException("Compact integer sequences are immutable");
+  }
+
+  @Override
+  public IntSXP withAttributes(Attributes attributes) {
+    return new IntSeqSXP(size, first, step, attributes);
+  }
+
+  @Override
+  public IntSXP copy() {
+    return new IntSXPImpl(data(), attributes);
+  }
+
+  @Override
+  public int asInt(int index) {
+    Objects.checkIndex(index, size);
+    return first + index * step;
+  }
+
+  @Override
+  public double asReal(int index) {
+    return asInt(index);
+  }
+
+  @Override
+  public String altRepClass() {
+    return "compact_intseq";
+  }
+
+  /// Equal to the integer vectors with the same elements and attributes, whether they are
+  /// sequences or not (like in GNU-R, where the representation isn't visible).
+  @Override
+  public boolean equals(Object o) {
+    return switch (o) {
+      case IntSeqSXP(var size1, var first1, var step1, var attributes1)
+          when size == size1
+              && (size == 0 || first == first1)
+              && (size <= 1 || step == step1) ->
+          attributes.equals(attributes1);
+      case IntSeqSXP _ -> false;
+      case IntSXPImpl other -> size == other.size() && hasElementsOf(other);
+      case null, default -> false;
+    };
+  }
+
+  private boolean hasElementsOf(IntSXP other) {
+    if (!attributes.equals(other.attributes())) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (first + i * step != other.asInt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /// The hash of an [IntSXPImpl] with the same elements and attributes.
+  @Override
+  public int hashCode() {
+    var hash = 1;
+    for (int i = 0; i < size; i++) {
+      hash = 31 * hash + first + i * step;
+    }
+    return Objects.hash(hash, attributes);
+  }
+
+  @Override
+  public SEXP altRepState() {
+    return SEXPs.real(size, first, step);
+  }
+
+  @Override
+  public String toString() {
+    return Printer.toString(this);
+  }
+}
+
 /** Simple scalar integer = int vector of size 1 with no ALTREP, ATTRIB, or OBJECT. */
 final class ScalarIntSXP extends ScalarSXPImpl<Integer> implements IntSXP {
   ScalarIntSXP(int data) {
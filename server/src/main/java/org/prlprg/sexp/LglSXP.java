@@ -1,6 +1,7 @@
 package org.prlprg.sexp;
 
 import com.google.common.collect.ImmutableList;
+import java.nio.IntBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Objects;
@@ -12,6 +13,34 @@ import org.prlprg.primitive.Logical;
 @Immutable
 public sealed interface LglSXP extends PrimVectorSXP<Logical>
     permits EmptyLglSXPImpl, LglSXPImpl, ScalarLglSXP {
+  /**
+   * The data contained in this vector, in GNU-R's representation (see {@link Logical#toInt()}).
+   * Note that if it's an empty or scalar, those aren't actually backed by an array, so this gets
+   * created and returns every access.
+   */
+  int[] data();
+
+  /** The element at {@code index}, in GNU-R's representation (see {@link Logical#toInt()}). */
+  int asInt(int index);
+
+  /**
+   * A read-only view of the elements in GNU-R's representation. It doesn't copy them if the vector
+   * is backed by an array.
+   */
+  default IntBuffer intBuffer() {
+    return IntBuffer.wrap(data()).asReadOnlyBuffer();
+  }
+
+  /**
+   * Copies the elements in GNU-R's representation into {@code dest}, from index {@code destPos}.
+   */
+  default void copyInto(int[] dest, int destPos) {
+    Objects.checkFromIndexSize(destPos, size(), dest.length);
+    for (int i = 0; i < size(); i++) {
+      dest[destPos + i] = asInt(i);
+    }
+  }
+
   @Override
   default SEXPType type() {
     return SEXPType.LGL;
@@ -19,8 +48,8 @@ public sealed interface LglSXP extends PrimVectorSXP<Logical>
 
   @Override
   default boolean hasNaOrNaN() {
-    for (var logical : this) {
-      if (logical == Logical.NA) {
+    for (int i = 0; i < size(); i++) {
+      if (asInt(i) == Logical.NA.toInt()) {
         return true;
       }
     }
@@ -39,16 +68,37 @@ public sealed interface LglSXP extends PrimVectorSXP<Logical>
   }
 }
 
-/** Logical vector which doesn't fit any of the more specific subclasses. */
+/**
+ * Logical vector which doesn't fit any of the more specific subclasses.
+ *
+ * <p>The elements are stored in GNU-R's representation rather than as {@link Logical}s, so they
+ * take 4 bytes each and are read and written in bulk. Like {@link IntSXPImpl}, it owns {@code data}
+ * instead of copying it (see {@link SEXPs#logicalOwned}).
+ */
 final class LglSXPImpl implements LglSXP {
-  private final Logical[] data;
+  private final int[] data;
   private final Attributes attributes;
 
-  LglSXPImpl(Logical[] data, Attributes attributes) {
-    this.data = Arrays.copyOf(data, data.length);
+  LglSXPImpl(int[] data, Attributes attributes) {
+    this.data = data;
     this.attributes = attributes;
   }
 
+  @Override
+  public int[] data() {
+    return data;
+  }
+
+  @Override
+  public int asInt(int index) {
+    return data[index];
+  }
+
+  @Override
+  public void copyInto(int[] dest, int destPos) {
+    System.arraycopy(data, 0, dest, destPos, data.length);
+  }
+
   @Override
   public Attributes attributes() {
     return attributes;
@@ -56,17 +106,17 @@ final class LglSXPImpl implements LglSXP {
 
   @Override
   public Iterator<Logical> iterator() {
-    return Arrays.stream(data).iterator();
+    return Arrays.stream(data).mapToObj(Logical::valueOf).iterator();
   }
 
   @Override
   public Logical get(int i) {
-    return data[i];
+    return Logical.valueOf(data[i]);
   }
 
   @Override
   public void set(int i, Logical value) {
-    data[i] = value;
+    data[i] = value.toInt();
   }
 
   @Override
@@ -81,7 +131,7 @@ final class LglSXPImpl implements LglSXP {
 
   @Override
   public LglSXP copy() {
-    return new LglSXPImpl(data, attributes);
+    return new LglSXPImpl(Arrays.copyOf(data, data.length), attributes);
   }
 
   @Override
@@ -118,6 +168,20 @@ final class ScalarLglSXP extends ScalarSXPImpl<Logical> implements LglSXP {
     return data;
   }
 
+  @Override
+  public int[] data() {
+    return new int[] {data.toInt()};
+  }
+
+  @Override
+  public int asInt(int index) {
+    if (index == 0) {
+      return data.toInt();
+    } else {
+      throw new ArrayIndexOutOfBoundsException("Index out of bounds: " + index);
+    }
+  }
+
   @Override
   public LglSXP withAttributes(Attributes attributes) {
     return SEXPs.logical(data, attributes);
@@ -137,6 +201,16 @@ final class EmptyLglSXPImpl extends EmptyVectorSXPImpl<Logical> implements LglSX
     super();
   }
 
+  @Override
+  public int[] data() {
+    return new int[0];
+  }
+
+  @Override
+  public int asInt(int index) {
+    throw new ArrayIndexOutOfBoundsException("Empty logical vector");
+  }
+
   @Override
   public LglSXP withAttributes(Attributes attributes) {
     return SEXPs.logical(ImmutableList.of(), attributes);
@@ -21,14 +21,33 @@ public final class NamespaceEnvSXP extends AbstractStaticEnvSXP implements Stati
   public NamespaceEnvSXP(
       String name, String version, StaticEnvSXP parent, Map<String, SEXP> bindings) {
     this(name, version, parent);
+    checkNameAndVersion(name, version);
+    this.setBindings(bindings);
+  }
+
+  private NamespaceEnvSXP(
+      StaticEnvSXP parent, Map<String, SEXP> bindings, String name, String version) {
+    super(parent, bindings);
+    checkNameAndVersion(name, version);
+    this.name = name;
+    this.version = version;
+  }
 
+  /// Creates a namespace whose bindings are stored in `bindings` rather than copied from it.
+  ///
+  /// This lets a namespace load its bindings lazily, when they are first looked up (see
+  /// `PackageDatabase#lazyBindings()`).
+  public static NamespaceEnvSXP backedBy(
+      String name, String version, StaticEnvSXP parent, Map<String, SEXP> bindings) {
+    return new NamespaceEnvSXP(parent, bindings, name, version);
+  }
+
+  private static void checkNameAndVersion(String name, String version) {
     if (name.isEmpty()) {
       throw new IllegalArgumentException("Namespace name must not be empty");
     } else if (!version.chars().allMatch(NamespaceEnvSXP::isValidVersionChar)) {
       throw new IllegalArgumentException("Namespace version must be a valid version string");
     }
-
-    this.setBindings(bindings);
   }
 
   public String version() {
@@ -1,24 +1,51 @@
 package org.prlprg.sexp;
 
 import com.google.common.math.DoubleMath;
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Objects;
+import java.util.function.DoubleConsumer;
+import java.util.stream.IntStream;
 import javax.annotation.concurrent.Immutable;
 import org.prlprg.parseprint.Printer;
 
 /** Real vector SEXP. */
 @Immutable
 public sealed interface RealSXP extends NumericSXP<Double>
-    permits EmptyRealSXPImpl, RealSXPImpl, ScalarRealSXP {
+    permits EmptyRealSXPImpl, RealSXPImpl, RealSeqSXP, ScalarRealSXP {
   double DOUBLE_CMP_DELTA = 0.000001d;
 
   /**
-   * The data contained in this vector. Note that if it's an empty or scalar, those aren't actually
-   * backed by an array, so this gets created and returns every access.
+   * The data contained in this vector. Note that if it's an empty, a scalar or a compact sequence,
+   * those aren't actually backed by an array, so this gets created and returns every access: a
+   * sequence like {@code 1:1e6} allocates all its elements each time. Prefer {@link #asReal(int)},
+   * {@link #forEachReal} or {@link #copyInto} to read the elements.
    */
   double[] data();
 
+  /** Calls {@code action} on each element in order, without boxing them. */
+  default void forEachReal(DoubleConsumer action) {
+    for (int i = 0; i < size(); i++) {
+      action.accept(asReal(i));
+    }
+  }
+
+  /**
+   * A read-only view of the elements. It doesn't copy them if the vector is backed by an array.
+   */
+  default DoubleBuffer doubleBuffer() {
+    return DoubleBuffer.wrap(data()).asReadOnlyBuffer();
+  }
+
+  /** Copies the elements into {@code dest}, from index {@code destPos}. */
+  default void copyInto(double[] dest, int destPos) {
+    Objects.checkFromIndexSize(destPos, size(), dest.length);
+    for (int i = 0; i < size(); i++) {
+      dest[destPos + i] = asReal(i);
+    }
+  }
+
   @Override
   default SEXPType type() {
     return SEXPType.REAL;
@@ -26,8 +53,8 @@ public sealed interface RealSXP extends NumericSXP<Double>
 
   @Override
   default boolean hasNaOrNaN() {
-    for (var real : this) {
-      if (Double.isNaN(real)) {
+    for (int i = 0; i < size(); i++) {
+      if (Double.isNaN(asReal(i))) {
         return true;
       }
     }
@@ -46,18 +73,31 @@ public sealed interface RealSXP extends NumericSXP<Double>
   }
 }
 
-/** Real vector which doesn't fit any of the more specific subclasses. */
+/**
+ * Real vector which doesn't fit any of the more specific subclasses.
+ *
+ * <p>It owns {@code data} instead of copying it, so creators must give it a fresh array (see
+ * {@link SEXPs#realOwned}).
+ */
 record RealSXPImpl(double[] data, Attributes attributes) implements RealSXP {
-  RealSXPImpl(double[] data, Attributes attributes) {
-    this.data = Arrays.copyOf(data, data.length);
-    this.attributes = attributes;
-  }
 
   @Override
   public Iterator<Double> iterator() {
     return Arrays.stream(data).iterator();
   }
 
+  @Override
+  public void forEachReal(DoubleConsumer action) {
+    for (var d : data) {
+      action.accept(d);
+    }
+  }
+
+  @Override
+  public void copyInto(double[] dest, int destPos) {
+    System.arraycopy(data, 0, dest, destPos, data.length);
+  }
+
   @Override
   public Double get(int i) {
     return data[i];
@@ -80,7 +120,7 @@ record RealSXPImpl(double[] data, Attributes attributes) implements RealSXP {
 
   @Override
   public RealSXP copy() {
-    return new RealSXPImpl(data, attributes);
+    return new RealSXPImpl(Arrays.copyOf(data, data.length), attributes);
   }
 
   @Override
@@ -98,6 +138,9 @@ record RealSXPImpl(double[] data, Attributes attributes) implements RealSXP {
     if (this == o) {
       return true;
     }
+    if (o instanceof RealSeqSXP seq) {
+      return seq.equals(this);
+    }
     if (!(o instanceof RealSXPImpl(var data1, var attributes1))) {
       return false;
     }
@@ -124,6 +167,115 @@ record RealSXPImpl(double[] data, Attributes attributes) implements RealSXP {
   }
 }
 
+/**
+ * Compact real sequence, e.g. {@code 3e9:(3e9 + 10)}, whose elements don't fit integers, which
+ * only stores its bounds (GNU-R's {@code compact_realseq} ALTREP class). Only sequences whose
+ * length fits an {@code int} are supported.
+ *
+ * @param step 1 or -1.
+ */
+record RealSeqSXP(int size, double first, double step, Attributes attributes)
+    implements RealSXP, AltRepSXP {
+  RealSeqSXP {
+    if (size < 0) {
+      throw new IllegalArgumentException("negative size: " + size);
+    }
+    if (step != 1 && step != -1) {
+      throw new IllegalArgumentException("step must be 1 or -1: " + step);
+    }
+  }
+
+  /** Allocates and fills a new array of {@link #size()} elements on each call. */
+  @Override
+  public double[] data() {
+    var data = new double[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = first + i * step;
+    }
+    return data;
+  }
+
+  @Override
+  public Iterator<Double> iterator() {
+    return IntStream.range(0, size).mapToDouble(i -> first + i * step).iterator();
+  }
+
+  @Override
+  public Double get(int i) {
+    return asReal(i);
+  }
+
+  @Override
+  public void set(int i, Double value) {
+    throw new UnsupportedOperationException("Compact real sequences are immutable");
+  }
+
+  @Override
+  public RealSXP withAttributes(Attributes attributes) {
+    return new RealSeqSXP(size, first, step, attributes);
+  }
+
+  @Override
+  public RealSXP copy() {
+    return new RealSXPImpl(data(), attributes);
+  }
+
+  @Override
+  public int asInt(int index) {
+    return (int) asReal(index);
+  }
+
+  @Override
+  public double asReal(int index) {
+    Objects.checkIndex(index, size);
+    return first + index * step;
+  }
+
+  @Override
+  public String altRepClass() {
+    return "compact_realseq";
+  }
+
+  /// Equal to the real vectors with the same elements (up to [RealSXP#DOUBLE_CMP_DELTA]) and
+  /// attributes, whether they are sequences or not.
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RealSeqSXP || o instanceof RealSXPImpl)) {
+      return false;
+    }
+    var other = (RealSXP) o;
+    if (size != other.size() || !attributes.equals(other.attributes())) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (!DoubleMath.fuzzyEquals(first + i * step, other.asReal(i), DOUBLE_CMP_DELTA)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /// The hash of a [RealSXPImpl] with the same attributes.
+  @Override
+  public int hashCode() {
+    // Can't hash the elements because approximates are equal.
+    return Objects.hash(attributes);
+  }
+
+  @Override
+  public SEXP altRepState() {
+    return SEXPs.real(size, first, step);
+  }
+
+  @Override
+  public String toString() {
+    return Printer.toString(this);
+  }
+}
+
 /** Simple scalar real = vector of size 1 with no ALTERP, ATTRIB, or OBJECT. */
 final class ScalarRealSXP extends ScalarSXPImpl<Double> implements RealSXP {
   ScalarRealSXP(double data) {
@@ -5,12 +5,11 @@ import com.google.common.primitives.ImmutableDoubleArray;
 import com.google.common.primitives.ImmutableIntArray;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collector;
 import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
 import org.prlprg.bc.Bc;
 import org.prlprg.primitive.BuiltinId;
 import org.prlprg.primitive.Complex;
@@ -39,7 +38,8 @@ public final class SEXPs {
 
   public static final SpecialSymSXP MISSING_ARG = new SpecialSymSXP("missing");
 
-  private static final Map<String, RegSymSXP> SYMBOL_POOL = new HashMap<>();
+  // Symbols are created concurrently, e.g. when package databases are read in parallel.
+  private static final SymbolPool SYMBOL_POOL = new SymbolPool(AppConfig.WEAK_SYMBOLS);
 
   public static final RegSymSXP DOTS_SYMBOL = symbol("...");
   public static final RegSymSXP SUPER_ASSIGN = symbol("<<-");
@@ -48,7 +48,7 @@ public final class SEXPs {
 
   static {
     Set.of("TRUE", "FALSE", "NULL", "NA", "Inf", "NaN")
-        .forEach(x -> SYMBOL_POOL.put(x, new RegSymSXP(x)));
+        .forEach(SYMBOL_POOL::intern);
   }
 
   public static final EmptyEnvSXP EMPTY_ENV = EmptyEnvSXP.INSTANCE;
@@ -131,7 +131,7 @@ public final class SEXPs {
   }
 
   public static IntSXP integer(ImmutableIntArray data) {
-    return integer(data.toArray());
+    return integerOwned(data.toArray(), Attributes.NONE);
   }
 
   public static IntSXP integer(Integer[] data) {
@@ -143,7 +143,7 @@ public final class SEXPs {
   }
 
   public static RealSXP real(ImmutableDoubleArray data) {
-    return real(data.toArray());
+    return realOwned(data.toArray(), Attributes.NONE);
   }
 
   public static RealSXP real(Double[] data) {
@@ -211,11 +211,11 @@ public final class SEXPs {
   }
 
   public static IntSXP integer(List<Integer> data, Attributes attributes) {
-    return integer(data.stream().mapToInt(i -> i).toArray(), attributes);
+    return integerOwned(data.stream().mapToInt(i -> i).toArray(), attributes);
   }
 
   public static RealSXP real(List<Double> data, Attributes attributes) {
-    return real(data.stream().mapToDouble(d -> d).toArray(), attributes);
+    return realOwned(data.stream().mapToDouble(d -> d).toArray(), attributes);
   }
 
   public static LglSXP logical(List<Logical> data, Attributes attributes) {
@@ -248,6 +248,14 @@ public final class SEXPs {
   }
 
   public static IntSXP integer(int[] data, Attributes attributes) {
+    return integerOwned(Arrays.copyOf(data, data.length), attributes);
+  }
+
+  /// Like [#integer(int[], Attributes)], but the vector takes ownership of `data` instead of
+  /// copying it, so the caller must not use the array afterwards.
+  ///
+  /// Meant for arrays which were just allocated, e.g. by a decoder.
+  public static IntSXP integerOwned(int[] data, Attributes attributes) {
     if (attributes.isEmpty()) {
       return switch (data.length) {
         case 0 -> EMPTY_INTEGER;
@@ -259,6 +267,12 @@ public final class SEXPs {
   }
 
   public static RealSXP real(double[] data, Attributes attributes) {
+    return realOwned(Arrays.copyOf(data, data.length), attributes);
+  }
+
+  /// Like [#real(double[], Attributes)], but the vector takes ownership of `data` instead of
+  /// copying it, so the caller must not use the array afterwards.
+  public static RealSXP realOwned(double[] data, Attributes attributes) {
     if (attributes.isEmpty()) {
       return switch (data.length) {
         case 0 -> EMPTY_REAL;
@@ -270,10 +284,31 @@ public final class SEXPs {
   }
 
   public static LglSXP logical(Logical[] data, Attributes attributes) {
+    var ints = new int[data.length];
+    for (int i = 0; i < data.length; i++) {
+      ints[i] = data[i].toInt();
+    }
+    return logicalOwned(ints, attributes);
+  }
+
+  /// A logical vector of `data` in GNU-R's representation (see [Logical#toInt()]). Like in GNU-R,
+  /// any value other than `FALSE` (0) and `NA` is `TRUE`, and is stored as 1.
+  public static LglSXP logical(int[] data, Attributes attributes) {
+    return logicalOwned(Arrays.copyOf(data, data.length), attributes);
+  }
+
+  /// Like [#logical(int[], Attributes)], but the vector takes ownership of `data` instead of
+  /// copying it (it is normalized in place), so the caller must not use the array afterwards.
+  public static LglSXP logicalOwned(int[] data, Attributes attributes) {
+    for (int i = 0; i < data.length; i++) {
+      if (data[i] != 0 && data[i] != Constants.NA_INT) {
+        data[i] = 1;
+      }
+    }
     if (attributes.isEmpty()) {
       return switch (data.length) {
         case 0 -> EMPTY_LOGICAL;
-        case 1 -> logical(data[0]);
+        case 1 -> logical(Logical.valueOf(data[0]));
         default -> new LglSXPImpl(data, attributes);
       };
     }
@@ -313,6 +348,28 @@ public final class SEXPs {
     return new StrSXPImpl(data, attributes);
   }
 
+  /// The compact integer sequence `first`, `first + step`, ... of `size` elements.
+  ///
+  /// @param step 1 or -1.
+  public static IntSXP intSeq(int size, int first, int step, Attributes attributes) {
+    return new IntSeqSXP(size, first, step, attributes);
+  }
+
+  /// The compact real sequence `first`, `first + step`, ... of `size` elements.
+  ///
+  /// @param step 1 or -1.
+  public static RealSXP realSeq(int size, double first, double step, Attributes attributes) {
+    return new RealSeqSXP(size, first, step, attributes);
+  }
+
+  /// The strings of `source`, formatted when they are accessed like `as.character` in GNU-R.
+  ///
+  /// @param scipen the penalty of the scientific notation (the `scipen` option).
+  public static StrSXP deferredString(NumericSXP<?> source, int scipen, Attributes attributes) {
+    return new DeferredStrSXP(
+        (NumericSXP<?>) source.withAttributes(Attributes.NONE), scipen, attributes);
+  }
+
   public static VecSXP vec(SEXP[] data, Attributes attributes) {
     return new VecSXPImpl(data, attributes);
   }
@@ -465,7 +522,7 @@ public final class SEXPs {
   }
 
   public static RegSymSXP symbol(String name) {
-    return SYMBOL_POOL.computeIfAbsent(name, RegSymSXP::new);
+    return SYMBOL_POOL.intern(name);
   }
 
   public static BuiltinSXP builtin(BuiltinId id) {
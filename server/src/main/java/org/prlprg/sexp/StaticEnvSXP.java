@@ -1,5 +1,7 @@
 package org.prlprg.sexp;
 
+import java.util.Map;
+
 /** A global, namespace, or base environment. */
 public sealed interface StaticEnvSXP extends EnvSXP
     permits BaseEnvSXP, EmptyEnvSXP, GlobalEnvSXP, NamespaceEnvSXP {
@@ -21,6 +23,10 @@ abstract class AbstractStaticEnvSXP extends AbstractEnvSXP {
     super(parent);
   }
 
+  protected AbstractStaticEnvSXP(StaticEnvSXP parent, Map<String, SEXP> bindings) {
+    super(parent, bindings);
+  }
+
   @Override
   public StaticEnvSXP parent() {
     return (StaticEnvSXP) super.parent();
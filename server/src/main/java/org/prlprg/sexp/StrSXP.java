@@ -1,12 +1,16 @@
 package org.prlprg.sexp;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
 import com.google.common.escape.Escaper;
 import com.google.common.escape.Escapers;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.IntStream;
 import javax.annotation.concurrent.Immutable;
 import org.prlprg.parseprint.Printer;
 import org.prlprg.primitive.Constants;
@@ -14,7 +18,7 @@ import org.prlprg.primitive.Constants;
 /** String vector SEXP. */
 @Immutable
 public sealed interface StrSXP extends PrimVectorSXP<String>, StrOrRegSymSXP
-    permits EmptyStrSXPImpl, ScalarStrSXP, StrSXPImpl {
+    permits DeferredStrSXP, EmptyStrSXPImpl, ScalarStrSXP, StrSXPImpl {
   @Override
   default SEXPType type() {
     return SEXPType.STR;
@@ -27,8 +31,8 @@ public sealed interface StrSXP extends PrimVectorSXP<String>, StrOrRegSymSXP
 
   @Override
   default boolean hasNaOrNaN() {
-    for (var string : this) {
-      if (Constants.isNaString(string)) {
+    for (int i = 0; i < size(); i++) {
+      if (Constants.isNaString(get(i))) {
         return true;
       }
     }
@@ -59,7 +63,7 @@ final class StrSXPImpl implements StrSXP {
 
   @Override
   public Iterator<String> iterator() {
-    return Arrays.stream(data).iterator();
+    return Iterators.forArray(data);
   }
 
   @Override
@@ -94,6 +98,9 @@ final class StrSXPImpl implements StrSXP {
 
   @Override
   public boolean equals(Object o) {
+    if (o instanceof DeferredStrSXP deferred) {
+      return deferred.equals(this);
+    }
     if (!(o instanceof StrSXPImpl that)) {
       return false;
     }
@@ -164,6 +171,102 @@ final class EmptyStrSXPImpl extends EmptyVectorSXPImpl<String> implements StrSXP
   }
 }
 
+/**
+ * Numbers converted to strings, e.g. by {@code as.character(1:1e6)}, which are only formatted when
+ * they are accessed (GNU-R's {@code deferred_string} ALTREP class).
+ *
+ * @param source the numbers, without attributes.
+ * @param scipen the {@code scipen} option when they were converted, which is the penalty of the
+ *     scientific notation.
+ */
+record DeferredStrSXP(NumericSXP<?> source, int scipen, Attributes attributes)
+    implements StrSXP, AltRepSXP {
+  @Override
+  public Iterator<String> iterator() {
+    return IntStream.range(0, size()).mapToObj(this::get).iterator();
+  }
+
+  @Override
+  public String get(int i) {
+    return switch (source) {
+      case IntSXP ints -> Coercions.stringFromInteger(ints.asInt(i));
+      case RealSXP reals -> StrSXPs.formatReal(reals.asReal(i), scipen);
+    };
+  }
+
+  @Override
+  public void set(int i, String value) {
+    throw new UnsupportedOperationException("Deferred strings are immutable");
+  }
+
+  @Override
+  public int size() {
+    return source.size();
+  }
+
+  @Override
+  public StrSXP withAttributes(Attributes attributes) {
+    return new DeferredStrSXP(source, scipen, attributes);
+  }
+
+  @Override
+  public StrSXP copy() {
+    return new StrSXPImpl(Iterators.toArray(iterator(), String.class), attributes);
+  }
+
+  @Override
+  public Optional<String> reifyString() {
+    return size() == 1 ? Optional.of(get(0)) : Optional.empty();
+  }
+
+  @Override
+  public String altRepClass() {
+    return "deferred_string";
+  }
+
+  /// Equal to the string vectors with the same elements and attributes, whether they are
+  /// deferred or not.
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof DeferredStrSXP || o instanceof StrSXPImpl)) {
+      return false;
+    }
+    var other = (StrSXP) o;
+    if (size() != other.size() || !attributes.equals(other.attributes())) {
+      return false;
+    }
+    for (int i = 0; i < size(); i++) {
+      if (!get(i).equals(other.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /// The hash of a [StrSXPImpl] with the same elements and attributes.
+  @Override
+  public int hashCode() {
+    var hash = 1;
+    for (int i = 0; i < size(); i++) {
+      hash = 31 * hash + get(i).hashCode();
+    }
+    return Objects.hash(hash, attributes);
+  }
+
+  @Override
+  public SEXP altRepState() {
+    return SEXPs.list(source, SEXPs.integer(scipen));
+  }
+
+  @Override
+  public String toString() {
+    return Printer.toString(this);
+  }
+}
+
 final class StrSXPs {
   private static final Escaper rEscaper =
       Escapers.builder()
@@ -178,5 +281,38 @@ final class StrSXPs {
     return Coercions.isNA(s) ? "NA" : "\"" + rEscaper.escape(s) + "\"";
   }
 
+  /**
+   * Formats {@code x} like GNU-R's {@code as.character}: with up to 15 significant digits, in
+   * scientific notation if it is narrower than the fixed notation by more than {@code scipen}
+   * characters.
+   */
+  static String formatReal(double x, int scipen) {
+    if (Coercions.isStrictNA(x)) {
+      return Constants.NA_STRING;
+    }
+    if (Double.isNaN(x)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(x)) {
+      return x > 0 ? "Inf" : "-Inf";
+    }
+    if (x == 0) {
+      return "0";
+    }
+
+    var decimal = new BigDecimal(x).round(new MathContext(15)).stripTrailingZeros();
+    var fixed = decimal.toPlainString();
+    var digits = decimal.unscaledValue().abs().toString();
+    var exponent = digits.length() - 1 - decimal.scale();
+    var scientific =
+        (decimal.signum() < 0 ? "-" : "")
+            + digits.charAt(0)
+            + (digits.length() > 1 ? "." + digits.substring(1) : "")
+            + (exponent < 0 ? "e-" : "e+")
+            + (Math.abs(exponent) < 10 ? "0" : "")
+            + Math.abs(exponent);
+    return fixed.length() <= scientific.length() + scipen ? fixed : scientific;
+  }
+
   private StrSXPs() {}
 }
@@ -0,0 +1,84 @@
+package org.prlprg.sexp;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import org.jspecify.annotations.Nullable;
+
+/// Interning table of [RegSymSXP]s, so that there is a single symbol of each name.
+///
+/// It is shared by every thread. Looking up a symbol which already exists doesn't lock; only
+/// creating one locks a bin of the underlying [ConcurrentHashMap].
+///
+/// With weak retention, the pool only references symbols weakly, so the symbols which nothing else
+/// references (e.g. those of a package which was unloaded) are collected. Their entries are removed
+/// when the next symbols are created.
+final class SymbolPool {
+  // Either `RegSymSXP`s, or `Entry`s with weak retention (saves an indirection when it's off).
+  private final ConcurrentHashMap<String, Object> table = new ConcurrentHashMap<>();
+  private final @Nullable ReferenceQueue<RegSymSXP> collected;
+
+  SymbolPool(boolean weak) {
+    collected = weak ? new ReferenceQueue<>() : null;
+  }
+
+  /// The symbol named `name`, created if there is none.
+  RegSymSXP intern(String name) {
+    var symbol = unwrap(table.get(name));
+    return symbol != null ? symbol : insert(name);
+  }
+
+  /// The number of entries, including those of collected symbols which weren't removed yet.
+  int size() {
+    return table.size();
+  }
+
+  private RegSymSXP insert(String name) {
+    var collected = this.collected;
+    if (collected == null) {
+      return (RegSymSXP) table.computeIfAbsent(name, RegSymSXP::new);
+    }
+
+    expungeCollected(collected);
+    var result = new RegSymSXP[1];
+    // The entry may exist but have been cleared, in which case it's replaced.
+    table.compute(
+        name,
+        (_, entry) -> {
+          var existing = unwrap(entry);
+          if (existing != null) {
+            result[0] = existing;
+            return entry;
+          }
+          result[0] = new RegSymSXP(name);
+          return new Entry(result[0], collected);
+        });
+    return result[0];
+  }
+
+  private void expungeCollected(ReferenceQueue<RegSymSXP> collected) {
+    for (var ref = collected.poll(); ref != null; ref = collected.poll()) {
+      var entry = (Entry) ref;
+      // Only if it wasn't already replaced by a new symbol.
+      table.remove(entry.name, entry);
+    }
+  }
+
+  private static @Nullable RegSymSXP unwrap(@Nullable Object entry) {
+    return switch (entry) {
+      case null -> null;
+      case RegSymSXP symbol -> symbol;
+      case Entry weak -> weak.get();
+      default -> throw new AssertionError("unexpected symbol pool entry: " + entry);
+    };
+  }
+
+  private static final class Entry extends WeakReference<RegSymSXP> {
+    private final String name;
+
+    Entry(RegSymSXP symbol, ReferenceQueue<RegSymSXP> queue) {
+      super(symbol, queue);
+      name = symbol.name();
+    }
+  }
+}
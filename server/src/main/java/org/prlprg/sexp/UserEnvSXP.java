@@ -8,6 +8,7 @@ import java.util.Map;
 /** An environment inside a closure or explicitly defined by the user. */
 public final class UserEnvSXP extends AbstractEnvSXP implements EnvSXP, Iterable<TaggedElem> {
   private Attributes attributes = Attributes.NONE;
+  private boolean locked = false;
 
   public UserEnvSXP() {
     this(EmptyEnvSXP.INSTANCE);
@@ -54,6 +55,16 @@ public final class UserEnvSXP extends AbstractEnvSXP implements EnvSXP, Iterable
     this.attributes = attributes;
   }
 
+  /// Whether the environment is locked: in GNU-R, bindings can't be added to or removed from it.
+  /// It is only recorded, so that it survives serialization.
+  public boolean isLocked() {
+    return locked;
+  }
+
+  public void setLocked(boolean locked) {
+    this.locked = locked;
+  }
+
   public ListSXP frame() {
     return SEXPs.list(
         bindings.entrySet().stream()
@@ -5,10 +5,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
@@ -75,6 +79,50 @@ public class Files {
     }
   }
 
+  /// Creates the directory `dir` (and its parents) so that only the current user can access it,
+  /// unless it exists, then checks that it is private: a directory (not a link) owned by the
+  /// current user which nobody else can access.
+  ///
+  /// Caches of code which is loaded or run must be in such a directory, otherwise other users of
+  /// the machine could plant entries in it.
+  ///
+  /// @throws IOException if it can't be created or isn't private.
+  @CanIgnoreReturnValue
+  public static Path createPrivateDirectory(Path dir) throws IOException {
+    var ownerOnly = PosixFilePermissions.fromString("rwx------");
+    if (!java.nio.file.Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+      if (dir.toAbsolutePath().getParent() != null) {
+        java.nio.file.Files.createDirectories(dir.toAbsolutePath().getParent());
+      }
+      try {
+        java.nio.file.Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(ownerOnly));
+      } catch (FileAlreadyExistsException _) {
+        // Created concurrently, checked below like any existing directory.
+      }
+    }
+
+    var attrs =
+        java.nio.file.Files.readAttributes(
+            dir, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    if (!attrs.isDirectory()) {
+      throw new IOException("Not a directory: " + dir);
+    }
+    var user =
+        dir.getFileSystem()
+            .getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+    if (!attrs.owner().equals(user)) {
+      throw new IOException(dir + " is owned by " + attrs.owner() + ", not by " + user);
+    }
+    if (!ownerOnly.containsAll(attrs.permissions())) {
+      throw new IOException(
+          dir
+              + " is accessible by other users: "
+              + PosixFilePermissions.toString(attrs.permissions()));
+    }
+    return dir;
+  }
+
   public static boolean isOlder(Path lhs, Path rhs) {
     return getLastModifiedTime(lhs).compareTo(getLastModifiedTime(rhs)) < 0;
   }
@@ -5,24 +5,59 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.jspecify.annotations.Nullable;
 import org.prlprg.AppConfig;
 import org.prlprg.util.Files;
 
-// TODO: consider in-memory filesystem
+/// Builds and runs a C compiler command. The compilers run in the [CCompilerPool#shared()] pool.
 public class CCCompilationBuilder {
   public static final Logger LOG = Logger.getLogger(CCCompilationBuilder.class.getName());
 
-  private final Path input;
+  private final @Nullable Path input;
+  private final @Nullable String source;
   private final Path output;
   private final List<String> flags = new ArrayList<>();
+  private final List<String> uncachedFlags = new ArrayList<>();
+  private CCompilerPool pool = CCompilerPool.shared();
+  private @Nullable CCObjectCache objectCache = null;
+  private String cacheSalt = "";
 
   public CCCompilationBuilder(Path input, Path output) {
     this.input = input;
+    this.source = null;
     this.output = output;
   }
 
+  private CCCompilationBuilder(String source, Path output) {
+    this.input = null;
+    this.source = source;
+    this.output = output;
+  }
+
+  /// Compiles `source`, which is piped to the compiler's standard input, so no C file is written.
+  public static CCCompilationBuilder fromSource(String source, Path output) {
+    return new CCCompilationBuilder(source, output);
+  }
+
+  /// Looks up the output in `cache` before running the compiler, and stores it there after.
+  ///
+  /// `salt` must identify everything the source includes which is not in the compiler flags (e.g.
+  /// a hash of the headers), since a change there changes the output.
+  public CCCompilationBuilder cache(CCObjectCache cache, String salt) {
+    this.objectCache = cache;
+    this.cacheSalt = salt;
+    return this;
+  }
+
+  /// Runs the compiler in `pool` instead of the shared one.
+  public CCCompilationBuilder pool(CCompilerPool pool) {
+    this.pool = pool;
+    return this;
+  }
+
   public CCCompilationBuilder flag(String flag) {
     flags.add(flag);
     return this;
@@ -33,17 +68,53 @@ public class CCCompilationBuilder {
     return this;
   }
 
+  /// Adds a flag which doesn't change the output, so that it isn't part of the key of the object
+  /// cache (e.g. the directory of a precompiled header, which the compiler only uses if it is
+  /// equivalent to the header). These flags come before the others.
+  public CCCompilationBuilder uncachedFlag(String flag) {
+    uncachedFlags.add(flag);
+    return this;
+  }
+
+  /// @throws CCompilerBusyException if the pool is saturated.
+  /// @throws CCompilationException if the compiler fails or times out.
   public void compile() throws IOException, InterruptedException, CCompilationException {
     if (LOG.isLoggable(Level.FINE)) {
-      var size = Files.size(input);
-      LOG.fine("Compiling input: %s (size: %s), output: %s".formatted(input, size, output));
+      var size = input != null ? Files.size(input) : Objects.requireNonNull(source).length();
+      LOG.fine(
+          "Compiling input: %s (size: %s), output: %s"
+              .formatted(input != null ? input : "<stdin>", size, output));
     }
 
     var time = System.currentTimeMillis();
 
+    String cacheKey = null;
+    if (objectCache != null) {
+      var command = new ArrayList<String>();
+      command.add(AppConfig.CC);
+      command.addAll(flags);
+      cacheKey =
+          objectCache.key(
+              command,
+              source != null ? source : Files.readString(Objects.requireNonNull(input)),
+              cacheSalt);
+      if (objectCache.copyTo(cacheKey, output)) {
+        if (LOG.isLoggable(Level.FINE)) {
+          LOG.fine("Found the compiler output in the object cache (key: %s)".formatted(cacheKey));
+        }
+        return;
+      }
+    }
+
     var builder = new ProcessBuilder();
-    builder.redirectErrorStream(true);
-    builder.command(AppConfig.CC, "-o", output.toString(), input.toString());
+    builder.command(AppConfig.CC, "-o", output.toString());
+    if (input != null) {
+      builder.command().add(input.toString());
+    } else {
+      // The language can't be inferred from the file extension.
+      builder.command().addAll(List.of("-x", "c", "-"));
+    }
+    builder.command().addAll(uncachedFlags);
     builder.command().addAll(flags);
 
     var cmd = String.join(" ", builder.command());
@@ -52,28 +123,24 @@ public class CCCompilationBuilder {
       LOG.finer("Running command: " + cmd);
     }
 
-    Process process = builder.start();
+    var result = pool.run(builder, source);
+    var stdout = result.stdout();
 
-    // Capture the output and error streams
-    StringBuilder stdout = new StringBuilder();
-    try (BufferedReader reader =
-        new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        stdout.append(line).append(System.lineSeparator());
-      }
-    }
-
-    int exitCode = process.waitFor();
-
-    if (exitCode != 0) {
-      throw new CCompilationException(cmd, input, stdout.toString(), exitCode);
+    if (result.timedOut() || result.exitCode() != 0) {
+      throw input != null
+          ? new CCompilationException(cmd, input, stdout, result.exitCode())
+          : new CCompilationException(
+              cmd, Objects.requireNonNull(source), stdout, result.exitCode());
     }
 
     if (!stdout.isEmpty()) {
       LOG.warning("Compilation warnings:\n" + stdout);
     }
 
+    if (objectCache != null) {
+      objectCache.put(Objects.requireNonNull(cacheKey), output);
+    }
+
     time = System.currentTimeMillis() - time;
     var size = Files.size(output);
 
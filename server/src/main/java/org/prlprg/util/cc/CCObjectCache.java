@@ -0,0 +1,243 @@
+package org.prlprg.util.cc;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
+
+/// Content-addressed cache of compiler outputs.
+///
+/// Outputs are stored in a directory, under the SHA-256 of everything that determines them: the
+/// compiler, its flags, the source, and a salt for what the source includes (e.g. a hash of the
+/// headers). Identical translation units are therefore compiled only once, even when they come
+/// from different R functions, and across server restarts.
+///
+/// Entries are written to a temporary file and atomically moved in place, so concurrent
+/// compilations (also from other servers) of the same unit never see a partial output. Each entry
+/// starts with its key and the hash of the output, which are checked before it is used: an entry
+/// which doesn't match (e.g. truncated, or copied from another key) is a miss. Nothing is ever
+/// evicted.
+public final class CCObjectCache {
+  private static final Logger LOG = Logger.getLogger(CCObjectCache.class.getName());
+
+  private static final @Nullable CCObjectCache SHARED = createShared();
+
+  // ELF64 layout: the offsets of fields of the file header and of section headers.
+  private static final int ELF_MAGIC = 0x464c457f; // "\x7fELF", little-endian
+  private static final int E_SHOFF = 0x28;
+  private static final int E_SHENTSIZE = 0x3a;
+  private static final int E_SHNUM = 0x3c;
+  private static final int E_SHSTRNDX = 0x3e;
+  private static final int SH_TYPE = 0x04;
+  private static final int SH_OFFSET = 0x18;
+  private static final int SH_SIZE = 0x20;
+  private static final int SHT_STRTAB = 3;
+
+  private final Path directory;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /// The cache shared by every compilation in the application, or `null` if it is disabled (see
+  /// [AppConfig#OBJECT_CACHE_DIR]).
+  public static @Nullable CCObjectCache shared() {
+    return SHARED;
+  }
+
+  public CCObjectCache(Path directory) {
+    this.directory = directory;
+  }
+
+  private static @Nullable CCObjectCache createShared() {
+    if (AppConfig.OBJECT_CACHE_DIR.isEmpty()) {
+      return null;
+    }
+    var directory = Path.of(AppConfig.OBJECT_CACHE_DIR);
+    try {
+      org.prlprg.util.Files.createPrivateDirectory(directory);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Not caching compiler outputs in " + directory, e);
+      return null;
+    }
+    return new CCObjectCache(directory);
+  }
+
+  /// Returns the key of the output of compiling `source` with `command` (the compiler followed
+  /// by its flags, without the input and output paths) and `salt`.
+  String key(List<String> command, String source, String salt) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (var arg : command) {
+      hasher.putString(arg, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+    hasher.putString(salt, StandardCharsets.UTF_8).putByte((byte) 0);
+    hasher.putString(source, StandardCharsets.UTF_8);
+    return hasher.hash().toString();
+  }
+
+  /// Copies the output cached for `key` to `output`.
+  ///
+  /// @return whether there was one, and it was valid.
+  boolean copyTo(String key, Path output) {
+    var path = path(key);
+    try {
+      var entry = Files.readAllBytes(path);
+      var payload = payload(key, entry);
+      if (payload < 0) {
+        LOG.warning("Ignoring the invalid cached compiler output " + path);
+        misses.increment();
+        return false;
+      }
+      try (var out = Files.newOutputStream(output)) {
+        out.write(entry, payload, entry.length - payload);
+      }
+      hits.increment();
+      return true;
+    } catch (IOException e) {
+      misses.increment();
+      return false;
+    }
+  }
+
+  /// Stores a copy of `output` as the output for `key`. Failures are only logged: the cache is an
+  /// optimization.
+  void put(String key, Path output) {
+    var path = path(key);
+    try {
+      Files.createDirectories(path.getParent());
+      var tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+      var object = Files.readAllBytes(output);
+      try (var out = Files.newOutputStream(tmp)) {
+        out.write(header(key, object));
+        out.write(object);
+      }
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Cannot store a compiler output in " + directory, e);
+    }
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  private Path path(String key) {
+    // Two-level layout, so that no directory gets too big.
+    return directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+  }
+
+  /// The line an entry starts with: its key and the hash of the output.
+  private static byte[] header(String key, byte[] object) {
+    return (key + " " + Hashing.sha256().hashBytes(object) + "\n")
+        .getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /// The offset of the output in `entry`, or -1 if it isn't the entry of `key` or the output
+  /// doesn't match its hash.
+  private static int payload(String key, byte[] entry) {
+    var newline = -1;
+    for (int i = 0; i < entry.length; i++) {
+      if (entry[i] == '\n') {
+        newline = i;
+        break;
+      }
+    }
+    if (newline < 0) {
+      return -1;
+    }
+    var header = new String(entry, 0, newline, StandardCharsets.US_ASCII);
+    var hash = Hashing.sha256().hashBytes(entry, newline + 1, entry.length - newline - 1);
+    return header.equals(key + " " + hash) ? newline + 1 : -1;
+  }
+
+  /// Returns a copy of the object file `object` where the symbol `from` (and every symbol it is a
+  /// prefix of) is renamed to `to`.
+  ///
+  /// This lets functions which only differ by their name share the cached object: they are
+  /// compiled under a placeholder name and renamed afterward. The names must have the same
+  /// length, so that no offset in the object changes. Only the names of the symbols are patched,
+  /// in the `.strtab` section: the code, the data and the debug information are left as they are,
+  /// even where `from` appears in them (e.g. in a string literal).
+  ///
+  /// @throws IllegalArgumentException if the names don't have the same length, or `object` isn't
+  ///     a 64-bit little-endian ELF object with a `.strtab` section.
+  public static byte[] renameSymbol(byte[] object, String from, String to) {
+    var fromBytes = from.getBytes(StandardCharsets.US_ASCII);
+    var toBytes = to.getBytes(StandardCharsets.US_ASCII);
+    if (fromBytes.length != toBytes.length) {
+      throw new IllegalArgumentException(
+          "Symbols must have the same length: " + from + " and " + to);
+    }
+
+    var result = object.clone();
+    var elf = ByteBuffer.wrap(result).order(ByteOrder.LITTLE_ENDIAN);
+    var strtab = section(elf, ".strtab");
+    var start = Math.toIntExact(elf.getLong(strtab + SH_OFFSET));
+    var end = Math.toIntExact(start + elf.getLong(strtab + SH_SIZE));
+    outer:
+    for (int i = start; i <= end - fromBytes.length; i++) {
+      // Symbol names are NUL-terminated, so they start after a NUL.
+      if (i > start && result[i - 1] != 0) {
+        continue;
+      }
+      for (int j = 0; j < fromBytes.length; j++) {
+        if (result[i + j] != fromBytes[j]) {
+          continue outer;
+        }
+      }
+      System.arraycopy(toBytes, 0, result, i, toBytes.length);
+      i += fromBytes.length - 1;
+    }
+    return result;
+  }
+
+  /// The offset of the header of the string table `name` in the ELF object `elf`.
+  private static int section(ByteBuffer elf, String name) {
+    if (elf.limit() < 0x40
+        || elf.getInt(0) != ELF_MAGIC
+        || elf.get(4) != 2 // ELFCLASS64
+        || elf.get(5) != 1) { // ELFDATA2LSB
+      throw new IllegalArgumentException("Not a 64-bit little-endian ELF object");
+    }
+    var shoff = Math.toIntExact(elf.getLong(E_SHOFF));
+    var shentsize = Short.toUnsignedInt(elf.getShort(E_SHENTSIZE));
+    var shnum = Short.toUnsignedInt(elf.getShort(E_SHNUM));
+    var names = shoff + Short.toUnsignedInt(elf.getShort(E_SHSTRNDX)) * shentsize;
+    var namesOffset = Math.toIntExact(elf.getLong(names + SH_OFFSET));
+
+    var nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+    for (int i = 0; i < shnum; i++) {
+      var header = shoff + i * shentsize;
+      if (elf.getInt(header + SH_TYPE) == SHT_STRTAB
+          && isCString(elf, namesOffset + elf.getInt(header), nameBytes)) {
+        return header;
+      }
+    }
+    throw new IllegalArgumentException("No " + name + " section in the ELF object");
+  }
+
+  private static boolean isCString(ByteBuffer elf, int offset, byte[] string) {
+    if (offset + string.length >= elf.limit()) {
+      return false;
+    }
+    for (int i = 0; i < string.length; i++) {
+      if (elf.get(offset + i) != string[i]) {
+        return false;
+      }
+    }
+    return elf.get(offset + string.length) == 0;
+  }
+}
@@ -1,17 +1,29 @@
 package org.prlprg.util.cc;
 
 import java.nio.file.Path;
+import org.jspecify.annotations.Nullable;
 import org.prlprg.util.Files;
 
 public class CCompilationException extends Exception {
   private final String command;
-  private final Path cPath;
+  private final @Nullable Path cPath;
+  private final @Nullable String source;
   private final String stdout;
   private final int exitCode;
 
   public CCompilationException(String command, Path cPath, String stdout, int exitCode) {
     this.command = command;
     this.cPath = cPath;
+    this.source = null;
+    this.stdout = stdout;
+    this.exitCode = exitCode;
+  }
+
+  /// For a compilation whose source was piped to the compiler.
+  public CCompilationException(String command, String source, String stdout, int exitCode) {
+    this.command = command;
+    this.cPath = null;
+    this.source = source;
     this.stdout = stdout;
     this.exitCode = exitCode;
   }
@@ -29,7 +41,9 @@ public class CCompilationException extends Exception {
         .append(stdout)
         .append("\n")
         .append("Path: ");
-    if (Files.exists(cPath)) {
+    if (source != null) {
+      sb.append("<stdin>\n").append(source).append("\n");
+    } else if (cPath != null && Files.exists(cPath)) {
       sb.append("\n")
           .append(cPath.toAbsolutePath())
           .append("\n")
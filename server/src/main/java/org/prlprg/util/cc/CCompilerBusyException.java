@@ -0,0 +1,16 @@
+package org.prlprg.util.cc;
+
+import java.io.IOException;
+
+/// Thrown when a C compilation waited too long for a free slot in the [CCompilerPool]: the
+/// machine is saturated and the caller should retry later.
+public class CCompilerBusyException extends IOException {
+  public CCompilerBusyException(int maxJobs, int queuedJobs) {
+    super(
+        "All "
+            + maxJobs
+            + " C compiler slots are busy ("
+            + queuedJobs
+            + " compilations waiting), try again later");
+  }
+}
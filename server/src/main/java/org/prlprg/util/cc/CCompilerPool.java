@@ -0,0 +1,144 @@
+package org.prlprg.util.cc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jspecify.annotations.Nullable;
+import org.prlprg.AppConfig;
+import org.prlprg.util.Files;
+
+/// Runs C compiler processes with bounded concurrency.
+///
+/// C compilers can't be kept running between compilations, so what this pools are the slots to
+/// run them: at most [AppConfig#CC_MAX_JOBS] compilers run at the same time, and the other jobs
+/// wait for a slot for at most [AppConfig#CC_QUEUE_TIMEOUT_SECONDS] before being rejected with a
+/// [CCompilerBusyException]. This keeps the machine from thrashing when many requests arrive at
+/// once, and tells clients to back off instead of letting them time out.
+///
+/// Each compiler process is killed if it runs for longer than [AppConfig#CC_TIMEOUT_SECONDS].
+///
+/// Compiler output and temporary files go to [#workDirectory()], which is on a RAM-backed file
+/// system when one is available, so that the compilation doesn't touch the disk. The source can
+/// also be piped to the compiler's standard input, see [CCCompilationBuilder#fromSource].
+public final class CCompilerPool {
+  private static final Logger LOG = Logger.getLogger(CCompilerPool.class.getName());
+  private static final Path SHM = Path.of("/dev/shm");
+
+  private static final CCompilerPool SHARED =
+      new CCompilerPool(
+          AppConfig.CC_MAX_JOBS, AppConfig.CC_QUEUE_TIMEOUT_SECONDS, AppConfig.CC_TIMEOUT_SECONDS);
+
+  private final int maxJobs;
+  private final Semaphore slots;
+  private final long queueTimeoutSeconds;
+  private final long jobTimeoutSeconds;
+  private final Path workDirectory;
+
+  /// The pool shared by every compilation in the application, configured by [AppConfig].
+  public static CCompilerPool shared() {
+    return SHARED;
+  }
+
+  public CCompilerPool(int maxJobs, long queueTimeoutSeconds, long jobTimeoutSeconds) {
+    if (maxJobs <= 0) {
+      throw new IllegalArgumentException("The C compiler pool needs at least one slot");
+    }
+    this.maxJobs = maxJobs;
+    this.slots = new Semaphore(maxJobs, true);
+    this.queueTimeoutSeconds = queueTimeoutSeconds;
+    this.jobTimeoutSeconds = jobTimeoutSeconds;
+    this.workDirectory = createWorkDirectory();
+  }
+
+  /// Directory for the temporary files of the compilations, preferably RAM-backed.
+  public Path workDirectory() {
+    return workDirectory;
+  }
+
+  /// Number of compilers running.
+  public int activeJobs() {
+    return maxJobs - slots.availablePermits();
+  }
+
+  /// Number of compilations waiting for a slot.
+  public int queuedJobs() {
+    return slots.getQueueLength();
+  }
+
+  /// Runs `builder` once a slot is free, writing `stdin` to its standard input if not `null`.
+  ///
+  /// If the process times out, it is killed and the result has [Result#timedOut()] set.
+  ///
+  /// @return the exit code and the combined standard output and error of the process.
+  /// @throws CCompilerBusyException if no slot became free in time.
+  Result run(ProcessBuilder builder, @Nullable String stdin)
+      throws IOException, InterruptedException {
+    if (!slots.tryAcquire(queueTimeoutSeconds, TimeUnit.SECONDS)) {
+      throw new CCompilerBusyException(maxJobs, queuedJobs());
+    }
+
+    var output = java.nio.file.Files.createTempFile(workDirectory, "cc", ".out");
+    Process process = null;
+    try {
+      // Redirecting to a file rather than a pipe means we never have to read the output while
+      // writing the input to avoid a deadlock.
+      builder.redirectErrorStream(true);
+      builder.redirectOutput(output.toFile());
+
+      process = builder.start();
+      // The input is written by another thread, so that a compiler which stops reading it (and
+      // fills the pipe) is also subject to the timeout.
+      var input = process.getOutputStream();
+      var writer = Thread.ofVirtual().name("cc-stdin").start(() -> writeInput(input, stdin));
+
+      if (!process.waitFor(jobTimeoutSeconds, TimeUnit.SECONDS)) {
+        process.destroyForcibly().waitFor();
+        writer.join();
+        return new Result(
+            true, -1, "Timed out after " + jobTimeoutSeconds + "s\n" + Files.readString(output));
+      }
+      writer.join();
+      return new Result(false, process.exitValue(), Files.readString(output));
+    } finally {
+      if (process != null && process.isAlive()) {
+        process.destroyForcibly();
+      }
+      slots.release();
+      java.nio.file.Files.deleteIfExists(output);
+    }
+  }
+
+  private static void writeInput(OutputStream input, @Nullable String stdin) {
+    try (input) {
+      if (stdin != null) {
+        input.write(stdin.getBytes(StandardCharsets.UTF_8));
+      }
+    } catch (IOException e) {
+      // The compiler exited (e.g. on an error it reports in its output) or was killed before
+      // reading all of it: the result tells what happened.
+      LOG.log(Level.FINE, "The C compiler didn't read all of its input", e);
+    }
+  }
+
+  record Result(boolean timedOut, int exitCode, String stdout) {}
+
+  private static Path createWorkDirectory() {
+    var parent =
+        java.nio.file.Files.isDirectory(SHM) && java.nio.file.Files.isWritable(SHM)
+            ? SHM
+            : Path.of(System.getProperty("java.io.tmpdir"));
+    try {
+      var dir = java.nio.file.Files.createTempDirectory(parent, "rsh-cc");
+      dir.toFile().deleteOnExit();
+      return dir;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Cannot create a C compiler work directory in " + parent, e);
+      return Path.of(System.getProperty("java.io.tmpdir"));
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package org.prlprg.rds;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.prlprg.primitive.Complex;
+import org.prlprg.primitive.Logical;
+import org.prlprg.session.TestRSession;
+import org.prlprg.sexp.Attributes;
+import org.prlprg.sexp.ComplexSXP;
+import org.prlprg.sexp.IntSXP;
+import org.prlprg.sexp.LglSXP;
+import org.prlprg.sexp.RealSXP;
+import org.prlprg.sexp.SEXPs;
+
+public class RDSInputStreamTest {
+  // More than the buffer, so that vectors straddle refills.
+  private static final int LENGTH = 100_000;
+
+  @Test
+  public void testVectorsAcrossRefills() throws IOException {
+    var bytes = new ByteArrayOutputStream();
+    var out = new DataOutputStream(bytes);
+    out.writeByte('X');
+    for (int i = 0; i < LENGTH; i++) {
+      out.writeInt(i * 31);
+    }
+    for (int i = 0; i < LENGTH; i++) {
+      out.writeDouble(i / 7.0);
+    }
+    var raw = new byte[3 * LENGTH];
+    for (int i = 0; i < raw.length; i++) {
+      raw[i] = (byte) i;
+    }
+    out.write(raw);
+    out.writeInt(-1);
+
+    // Odd reads, so that elements are split between reads.
+    try (var in = new RDSInputStream(chunked(bytes.toByteArray(), 4093))) {
+      assertEquals('X', in.readByte());
+      var ints = in.readInts(LENGTH);
+      for (int i = 0; i < LENGTH; i++) {
+        assertEquals(i * 31, ints[i]);
+      }
+      var doubles = in.readDoubles(LENGTH);
+      for (int i = 0; i < LENGTH; i++) {
+        assertEquals(i / 7.0, doubles[i]);
+      }
+      assertArrayEquals(raw, in.readBytes(raw.length));
+      assertEquals(-1, in.readInt());
+      assertEquals(-1, in.readRaw());
+      assertThrows(EOFException.class, in::readInt);
+    }
+  }
+
+  @Test
+  public void testByteBuffer() throws IOException {
+    var bytes = ByteBuffer.allocateDirect(32);
+    bytes.put((byte) 1).putInt(2).putDouble(3.5).putInt(4).putInt(5);
+    // Only the bytes between the position and the limit are read, and the buffer is untouched.
+    var input = bytes.flip().position(1).asReadOnlyBuffer();
+
+    var in = new RDSInputStream(input);
+    assertEquals(2, in.readInt());
+    assertEquals(3.5, in.readDouble());
+    assertArrayEquals(new int[] {4, 5}, in.readInts(2));
+    assertEquals(-1, in.readRaw());
+    assertThrows(EOFException.class, () -> in.readBytes(1));
+    assertEquals(1, input.position());
+  }
+
+  @Test
+  public void testTruncatedInput() {
+    var in = new RDSInputStream(new ByteArrayInputStream(new byte[10]));
+    assertThrows(EOFException.class, () -> in.readInts(3));
+  }
+
+  @Test
+  public void testRoundTripLargeVectors() throws IOException {
+    var session = new TestRSession();
+    var ints = SEXPs.integer(IntStream.range(0, LENGTH).map(i -> i ^ 0x5555).toArray());
+    var reals = SEXPs.real(IntStream.range(0, LENGTH).mapToDouble(i -> i * 0.25).toArray());
+    var complexes =
+        SEXPs.complex(IntStream.range(0, LENGTH).mapToObj(i -> new Complex(i, -i)).toList());
+    var logicals =
+        SEXPs.logical(
+            IntStream.range(0, LENGTH).map(i -> i % 3 == 2 ? Logical.NA.toInt() : i % 3).toArray(),
+            Attributes.NONE);
+
+    var readInts = (IntSXP) RDSReader.readByteString(session, RDSWriter.writeByteString(ints));
+    var readReals = (RealSXP) RDSReader.readByteString(session, RDSWriter.writeByteString(reals));
+    var readComplexes =
+        (ComplexSXP) RDSReader.readByteString(session, RDSWriter.writeByteString(complexes));
+    var readLogicals =
+        (LglSXP) RDSReader.readByteString(session, RDSWriter.writeByteString(logicals));
+
+    assertEquals(ints, readInts);
+    assertEquals(reals, readReals);
+    assertEquals(complexes, readComplexes);
+    assertEquals(logicals, readLogicals);
+    assertEquals(Logical.NA, readLogicals.get(2));
+  }
+
+  private static InputStream chunked(byte[] bytes, int chunk) {
+    return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, chunk));
+      }
+    };
+  }
+}
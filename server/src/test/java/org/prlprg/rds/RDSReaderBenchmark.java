@@ -0,0 +1,93 @@
+package org.prlprg.rds;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.prlprg.service.RshCompiler.R_DIRECTORY;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+import org.prlprg.RVersion;
+import org.prlprg.session.GNURSession;
+import org.prlprg.session.PackageDatabase;
+
+/// Decoding times of the RDS reader.
+///
+/// Not run with the tests, run it with `mvn test -Dtest=RDSReaderBenchmark`. The package database
+/// benchmark needs an R installation in [org.prlprg.service.RshCompiler#R_DIRECTORY].
+@SuppressWarnings("NewClassNamingConvention")
+public class RDSReaderBenchmark {
+  private static final int WARMUP = 5;
+  private static final int ITERATIONS = 20;
+  private static final int LENGTH = 1_000_000;
+
+  /// Bulk decoding of numeric vectors, compared with decoding one element at a time from a
+  /// [DataInputStream], as the reader used to do.
+  @Test
+  void vectors() throws IOException {
+    var ints = new byte[LENGTH * Integer.BYTES];
+    var doubles = new byte[LENGTH * Double.BYTES];
+
+    var intsPerElement = time(() -> perElementInts(ints));
+    var intsBulk = time(() -> new RDSInputStream(new ByteArrayInputStream(ints)).readInts(LENGTH));
+    var doublesPerElement = time(() -> perElementDoubles(doubles));
+    var doublesBulk =
+        time(() -> new RDSInputStream(new ByteArrayInputStream(doubles)).readDoubles(LENGTH));
+
+    System.err.printf(
+        "%d ints: %.2f ms per element, %.2f ms in bulk (%.1fx)%n",
+        LENGTH, intsPerElement, intsBulk, intsPerElement / intsBulk);
+    System.err.printf(
+        "%d doubles: %.2f ms per element, %.2f ms in bulk (%.1fx)%n",
+        LENGTH, doublesPerElement, doublesBulk, doublesPerElement / doublesBulk);
+  }
+
+  /// Reading every object of real package databases.
+  @Test
+  void packageDatabases() throws IOException {
+    var libDir = R_DIRECTORY.resolve("library");
+    for (var pkg : new String[] {"utils", "stats"}) {
+      assumeTrue(
+          Files.exists(libDir.resolve(pkg + "/R/" + pkg + ".rdb")),
+          "No R library in " + libDir.toAbsolutePath());
+      var session = new GNURSession(RVersion.LATEST_AWARE, R_DIRECTORY, libDir);
+      var elapsed = time(() -> new PackageDatabase(session, libDir, pkg).getBindings());
+      System.err.printf("%s: %.1f ms to read all the objects%n", pkg, elapsed);
+    }
+  }
+
+  private interface Action {
+    void run() throws IOException;
+  }
+
+  /// Average time of `action`, in milliseconds.
+  private static double time(Action action) throws IOException {
+    for (int i = 0; i < WARMUP; i++) {
+      action.run();
+    }
+    var start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      action.run();
+    }
+    return (System.nanoTime() - start) / 1e6 / ITERATIONS;
+  }
+
+  private static int[] perElementInts(byte[] bytes) throws IOException {
+    var in = new DataInputStream(new ByteArrayInputStream(bytes));
+    var result = new int[LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      result[i] = in.readInt();
+    }
+    return result;
+  }
+
+  private static double[] perElementDoubles(byte[] bytes) throws IOException {
+    var in = new DataInputStream(new ByteArrayInputStream(bytes));
+    var result = new double[LENGTH];
+    for (int i = 0; i < LENGTH; i++) {
+      result[i] = in.readDouble();
+    }
+    return result;
+  }
+}
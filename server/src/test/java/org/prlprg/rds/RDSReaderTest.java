@@ -4,14 +4,27 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.prlprg.sexp.Coercions.isNA;
 
+import com.google.protobuf.ByteString;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
 import java.util.Objects;
 import org.junit.jupiter.api.Test;
 import org.prlprg.primitive.Constants;
 import org.prlprg.primitive.Logical;
+import org.prlprg.session.TestRSession;
 import org.prlprg.session.gnur.GNUR;
 import org.prlprg.sexp.*;
 
 public class RDSReaderTest {
+  private static final int LANG_FLAGS = 6;
+  private static final int LIST_FLAGS = 2;
+  private static final int NILVALUE_FLAGS = 254;
+  private static final int LGLSXP_FLAGS = 10;
+  // A reference to the first item of the reference table, i.e., the symbol `f`.
+  private static final int FIRST_REF_FLAGS = (1 << 8) | 255;
+
   @Test
   public void testInts() {
     var R = GNUR.instance();
@@ -212,4 +225,111 @@ public class RDSReaderTest {
     var sexp = R.eval("compiler::cmpfun(function(x) local(x))");
     assertThat(sexp).isInstanceOf(CloSXP.class);
   }
+
+  @Test
+  public void testNonCanonicalLogicals() throws IOException {
+    // GNU-R reads any value other than 0 and NA as TRUE.
+    var header = RDSWriter.writeByteString(SEXPs.NULL).toByteArray();
+    var bytes = new ByteArrayOutputStream();
+    var out = new DataOutputStream(bytes);
+    out.write(header, 0, header.length - 4);
+    out.writeInt(LGLSXP_FLAGS);
+    out.writeInt(5);
+    for (var value : new int[] {0, 1, 2, -1, Constants.NA_INT}) {
+      out.writeInt(value);
+    }
+
+    var sexp =
+        RDSReader.readByteString(new TestRSession(), ByteString.copyFrom(bytes.toByteArray()));
+
+    assertEquals(
+        SEXPs.logical(Logical.FALSE, Logical.TRUE, Logical.TRUE, Logical.TRUE, Logical.NA), sexp);
+    assertEquals(1, ((LglSXP) sexp).asInt(2));
+  }
+
+  @Test
+  public void testDeepLanguage() throws IOException {
+    // `f(f(...f()...))`, far deeper than what the Java stack can recurse.
+    var depth = 100_000;
+    var header = RDSWriter.writeByteString(SEXPs.NULL).toByteArray();
+    var symbol = RDSWriter.writeByteString(SEXPs.symbol("f")).toByteArray();
+    var bytes = new ByteArrayOutputStream();
+    var out = new DataOutputStream(bytes);
+    // The header of the stream, without the trailing `NILVALUE_SXP`.
+    out.write(header, 0, header.length - 4);
+    for (int i = 0; i <= depth; i++) {
+      out.writeInt(LANG_FLAGS);
+      if (i == 0) {
+        out.write(symbol, header.length - 4, symbol.length - header.length + 4);
+      } else {
+        out.writeInt(FIRST_REF_FLAGS);
+      }
+      out.writeInt(i < depth ? LIST_FLAGS : NILVALUE_FLAGS);
+    }
+    for (int i = 0; i < depth; i++) {
+      out.writeInt(NILVALUE_FLAGS);
+    }
+
+    var sexp =
+        RDSReader.readByteString(new TestRSession(), ByteString.copyFrom(bytes.toByteArray()));
+
+    var actualDepth = 0;
+    while (sexp instanceof LangSXP call && call.args().size() == 1) {
+      assertEquals(SEXPs.symbol("f"), call.fun());
+      sexp = call.arg(0);
+      actualDepth++;
+    }
+    assertEquals(depth, actualDepth);
+    assertEquals(SEXPs.lang(SEXPs.symbol("f")), sexp);
+  }
+
+  @Test
+  public void testIterativeDecodingMatchesRecursive() throws IOException {
+    var session = new TestRSession();
+    var names = new Attributes.Builder().put("names", SEXPs.string("a", "b")).build();
+    var call =
+        SEXPs.lang(
+            SEXPs.symbol("g"),
+            List.of(
+                new TaggedElem("x", SEXPs.integer(1)),
+                new TaggedElem(SEXPs.lang(SEXPs.symbol("h"), SEXPs.symbol("y")))));
+    var sexp =
+        SEXPs.vec(
+            List.of(
+                SEXPs.closure(
+                    SEXPs.list(new TaggedElem("y", SEXPs.MISSING_ARG)), call, SEXPs.EMPTY_ENV),
+                SEXPs.expr(call, SEXPs.symbol("g"), SEXPs.real(1.5))),
+            names);
+    var bytes = RDSWriter.writeByteString(sexp).asReadOnlyByteBuffer();
+
+    var recursive = RDSReader.readBuffer(session, bytes);
+    var iterative = RDSReader.readBuffer(session, bytes, 0);
+
+    assertEquals(sexp.toString(), recursive.toString());
+    assertEquals(recursive.toString(), iterative.toString());
+  }
+
+  @Test
+  public void testSharedNodes() throws IOException {
+    var session = new TestRSession();
+    var call =
+        SEXPs.lang(
+            SEXPs.symbol("is.null"),
+            SEXPs.lang(SEXPs.symbol("[["), SEXPs.symbol("x"), SEXPs.symbol("i")));
+    var constant = SEXPs.lang(SEXPs.symbol("+"), SEXPs.symbol("x"), SEXPs.real(1.5));
+    var first = RDSWriter.writeByteString(SEXPs.vec(call, constant));
+    var second = RDSWriter.writeByteString(SEXPs.vec(call, constant));
+    var sharing = new HashConsTable();
+
+    var a = (VecSXP) RDSReader.readBuffer(session, first.asReadOnlyByteBuffer(), s -> s, sharing);
+    var b = (VecSXP) RDSReader.readBuffer(session, second.asReadOnlyByteBuffer(), s -> s, sharing);
+    var unshared = RDSReader.readByteString(session, first);
+
+    assertEquals(unshared, a);
+    assertSame(a.get(0), b.get(0));
+    // Vectors can be mutated, so neither they nor the calls containing them are shared.
+    assertNotSame(a.get(1), b.get(1));
+    assertNotSame(((LangSXP) a.get(1)).arg(1), ((LangSXP) b.get(1)).arg(1));
+    assertNotSame(((VecSXP) unshared).get(0), a.get(0));
+  }
 }
@@ -1,10 +1,15 @@
 package org.prlprg.rds;
 
 import static java.lang.Double.NaN;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.prlprg.sexp.SEXPs.*;
 
+import com.google.common.collect.ImmutableList;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.util.HashMap;
@@ -14,6 +19,7 @@ import org.prlprg.bc.BCCompiler;
 import org.prlprg.primitive.Complex;
 import org.prlprg.primitive.Constants;
 import org.prlprg.primitive.Logical;
+import org.prlprg.session.TestRSession;
 import org.prlprg.session.gnur.GNUR;
 import org.prlprg.sexp.*;
 
@@ -411,4 +417,93 @@ public class RDSWriterTest {
 
     assertEquals(output, real(6, 7));
   }
+
+  @Test
+  public void testCompactSequencesStayCompact() throws Exception {
+    var session = new TestRSession();
+    var names = new Attributes.Builder().put("a", integer(1)).build();
+    var up = intSeq(1_000_000, 1, 1, Attributes.NONE);
+    var down = intSeq(5, 10, -1, names);
+    var reals = realSeq(3, 3e9, -1, Attributes.NONE);
+
+    var bytes = RDSWriter.writeByteString(vec(up, down, reals));
+    var read = (VecSXP) RDSReader.readByteString(session, bytes);
+
+    assertTrue(bytes.size() < 1024, "Expanded the sequences: " + bytes.size() + " bytes");
+    assertEquals(up, read.get(0));
+    assertEquals(down, read.get(1));
+    assertEquals(reals, read.get(2));
+    assertInstanceOf(AltRepSXP.class, read.get(0));
+    assertArrayEquals(new int[] {10, 9, 8, 7, 6}, ((IntSXP) read.get(1)).data());
+    assertEquals(3e9 - 2, ((RealSXP) read.get(2)).asReal(2));
+    assertEquals(names, read.get(1).attributes());
+  }
+
+  @Test
+  public void testCompactIntSeqState() {
+    // The state R serializes for `1:3` and `3:1`.
+    var up = (IntSXP) new BaseAltrRep.CompactIntSeq().unserialize(real(3, 1, 1));
+    var down = (IntSXP) new BaseAltrRep.CompactIntSeq().unserialize(real(3, 3, -1));
+
+    assertArrayEquals(new int[] {1, 2, 3}, up.data());
+    assertArrayEquals(new int[] {3, 2, 1}, down.data());
+  }
+
+  @Test
+  public void testWrappersAreUnwrapped() {
+    var wrapped = integer(3, 1, 2);
+    var wrapper = new BaseAltrRep.Wrapper(SEXPType.INT, "wrap_integer");
+
+    assertEquals(wrapped, wrapper.unserialize(list(wrapped, integer(0, 1))));
+  }
+
+  @Test
+  public void testDeferredStrings() throws Exception {
+    var session = new TestRSession();
+    var strings = deferredString(real(1, 1e5, 0.1, 123456, 1e-4, -2.5, NaN), 0, Attributes.NONE);
+
+    var read = (StrSXP) RDSReader.readByteString(session, RDSWriter.writeByteString(strings));
+
+    assertInstanceOf(AltRepSXP.class, read);
+    assertEquals(
+        List.of("1", "1e+05", "0.1", "123456", "1e-04", "-2.5"),
+        ImmutableList.copyOf(read).subList(0, 6));
+    assertTrue(Coercions.isNA(read.get(6)));
+    assertEquals("100000", deferredString(real(1e5), 1, Attributes.NONE).get(0));
+  }
+
+  @Test
+  public void testDeferredStringsTellNaFromNaN() throws Exception {
+    var session = new TestRSession();
+    var gnurNa = Double.longBitsToDouble(0x7FF00000000007A2L);
+    var gnurNaN = Double.longBitsToDouble(0xFFF8000000000000L);
+    var strings = deferredString(real(Constants.NA_REAL, gnurNa, gnurNaN, 1), 0, Attributes.NONE);
+
+    var read = (StrSXP) RDSReader.readByteString(session, RDSWriter.writeByteString(strings));
+
+    assertTrue(Coercions.isNA(read.get(0)));
+    assertTrue(Coercions.isNA(read.get(1)));
+    assertEquals("NaN", read.get(2));
+    assertEquals("1", read.get(3));
+  }
+
+  @Test
+  public void testCompactVectorsEqualTheirElements() {
+    var names = new Attributes.Builder().put("a", integer(1)).build();
+    var ints = intSeq(5, 10, -1, names);
+    var reals = realSeq(3, 3e9, -1, Attributes.NONE);
+    var strings = deferredString(real(1, 1e5, 0.1), 0, Attributes.NONE);
+
+    assertEquals(integer(new int[] {10, 9, 8, 7, 6}, names), ints);
+    assertEquals(ints, integer(new int[] {10, 9, 8, 7, 6}, names));
+    assertEquals(integer(new int[] {10, 9, 8, 7, 6}, names).hashCode(), ints.hashCode());
+    assertNotEquals(integer(10, 9, 8, 7, 6), ints);
+    assertEquals(real(3e9, 3e9 - 1, 3e9 - 2), reals);
+    assertEquals(reals, real(3e9, 3e9 - 1, 3e9 - 2));
+    assertEquals(real(3e9, 3e9 - 1, 3e9 - 2).hashCode(), reals.hashCode());
+    assertNotEquals(realSeq(3, 3e9, 1, Attributes.NONE), reals);
+    assertEquals(string("1", "1e+05", "0.1"), strings);
+    assertEquals(strings, string("1", "1e+05", "0.1"));
+    assertEquals(string("1", "1e+05", "0.1").hashCode(), strings.hashCode());
+  }
 }
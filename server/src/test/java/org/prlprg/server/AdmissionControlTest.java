@@ -0,0 +1,60 @@
+package org.prlprg.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+
+public class AdmissionControlTest {
+  @Test
+  void testLimitsArePerTier() throws Exception {
+    var admission = new AdmissionControl(1, 2, 100);
+
+    var baseline = admission.admit(Messages.Tier.BASELINE);
+    assertNull(admission.tryAdmit(Messages.Tier.BASELINE));
+    var optimized1 = admission.admit(Messages.Tier.OPTIMIZED);
+    var optimized2 = admission.admit(Messages.Tier.OPTIMIZED);
+    assertNull(admission.tryAdmit(Messages.Tier.OPTIMIZED));
+
+    assertEquals(1, admission.active(Messages.Tier.BASELINE));
+    assertEquals(2, admission.active(Messages.Tier.OPTIMIZED));
+    assertEquals(1, admission.degraded(Messages.Tier.BASELINE));
+    assertEquals(1, admission.degraded(Messages.Tier.OPTIMIZED));
+    assertThrows(CompileException.class, () -> admission.admit(Messages.Tier.OPTIMIZED));
+    // Only the requests turned away are rejected.
+    assertEquals(0, admission.rejected(Messages.Tier.BASELINE));
+    assertEquals(1, admission.rejected(Messages.Tier.OPTIMIZED));
+
+    baseline.close();
+    optimized1.close();
+    optimized2.close();
+    assertEquals(0, admission.active(Messages.Tier.BASELINE));
+    assertEquals(0, admission.active(Messages.Tier.OPTIMIZED));
+  }
+
+  @Test
+  void testRejectionHasRetryHint() throws Exception {
+    var admission = new AdmissionControl(1, 1, 123);
+
+    try (var _ = admission.admit(Messages.Tier.BASELINE)) {
+      var e = assertThrows(CompileException.class, () -> admission.admit(Messages.Tier.BASELINE));
+      var exception = e.asRuntimeException();
+      assertEquals(Status.Code.RESOURCE_EXHAUSTED, exception.getStatus().getCode());
+      assertNotNull(exception.getTrailers());
+      assertTrue(exception.getTrailers().toString().contains("grpc-retry-pushback-ms=123"));
+    }
+    admission.admit(Messages.Tier.BASELINE).close();
+  }
+
+  @Test
+  void testPermitIsReleasedOnce() throws Exception {
+    var admission = new AdmissionControl(1, 0, 100);
+
+    var permit = admission.admit(Messages.Tier.BASELINE);
+    permit.close();
+    permit.close();
+    assertEquals(0, admission.active(Messages.Tier.BASELINE));
+    admission.admit(Messages.Tier.BASELINE);
+    assertNull(admission.tryAdmit(Messages.Tier.BASELINE));
+  }
+}
@@ -0,0 +1,136 @@
+package org.prlprg.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.prlprg.AppConfig.CacheEvictionPolicy;
+
+public class CompileCacheTest {
+  @Test
+  void testConcurrentRequestsShareCompilation() throws Exception {
+    var cache = new CompileCache<Long, String>();
+    var compilations = new AtomicInteger();
+    var start = new CountDownLatch(1);
+
+    try (var executor = Executors.newFixedThreadPool(8)) {
+      var results = new ArrayList<Future<String>>();
+      for (int i = 0; i < 8; i++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  return cache.get(
+                      42L,
+                      () -> {
+                        compilations.incrementAndGet();
+                        Thread.sleep(50);
+                        return "compiled";
+                      });
+                }));
+      }
+      start.countDown();
+
+      for (var result : results) {
+        assertEquals("compiled", result.get());
+      }
+    }
+
+    assertEquals(1, compilations.get());
+    assertEquals("compiled", cache.getIfPresent(42L));
+  }
+
+  @Test
+  void testFailuresAndNullsAreNotCached() throws Exception {
+    var cache = new CompileCache<Long, String>();
+
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            cache.get(
+                1L,
+                () -> {
+                  throw new IllegalStateException("boom");
+                }));
+    assertFalse(cache.contains(1L));
+
+    assertNull(cache.get(2L, () -> null));
+    assertFalse(cache.contains(2L));
+
+    assertEquals("ok", cache.get(1L, () -> "ok"));
+    assertTrue(cache.contains(1L));
+  }
+
+  @Test
+  void testRemoveIf() throws Exception {
+    var cache = new CompileCache<Long, String>();
+    cache.get(1L, () -> "a");
+    cache.get(2L, () -> "b");
+
+    cache.removeIf(key -> key == 1L);
+
+    assertNull(cache.getIfPresent(1L));
+    assertEquals("b", cache.getIfPresent(2L));
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void testLruEvictsLeastRecentlyUsed() throws Exception {
+    var cache = new CompileCache<Long, String>(10, CacheEvictionPolicy.LRU, String::length);
+    cache.get(1L, () -> "aaaa");
+    cache.get(2L, () -> "bbbb");
+    // Touch 1, so that 2 is the least recently used.
+    cache.get(1L, () -> fail("should be cached"));
+    cache.get(3L, () -> "cccc");
+
+    assertTrue(cache.contains(1L));
+    assertFalse(cache.contains(2L));
+    assertTrue(cache.contains(3L));
+
+    var stats = cache.stats();
+    assertEquals(1, stats.hits());
+    assertEquals(3, stats.misses());
+    assertEquals(1, stats.evictions());
+    assertEquals(8, stats.bytes());
+    assertEquals(2, stats.entries());
+  }
+
+  @Test
+  void testLfuEvictsLeastFrequentlyUsed() throws Exception {
+    var cache = new CompileCache<Long, String>(10, CacheEvictionPolicy.LFU, String::length);
+    cache.get(1L, () -> "aaaa");
+    cache.get(1L, () -> fail("should be cached"));
+    cache.get(1L, () -> fail("should be cached"));
+    cache.get(2L, () -> "bbbb");
+    cache.get(2L, () -> fail("should be cached"));
+    cache.get(3L, () -> "cccc");
+
+    // 3 is the least frequently used, but also the one which was just inserted: it goes first.
+    assertTrue(cache.contains(1L));
+    assertTrue(cache.contains(2L));
+    assertFalse(cache.contains(3L));
+    assertEquals(1, cache.stats().evictions());
+  }
+
+  @Test
+  void testRemovalsReleaseBudget() throws Exception {
+    var cache = new CompileCache<Long, String>(10, CacheEvictionPolicy.LRU, String::length);
+    cache.get(1L, () -> "aaaa");
+    cache.get(2L, () -> "bbbb");
+    cache.removeIf(key -> key == 1L);
+    assertEquals(4, cache.stats().bytes());
+
+    cache.get(3L, () -> "cccc");
+    assertTrue(cache.contains(2L));
+    assertEquals(0, cache.stats().evictions());
+
+    cache.clear();
+    assertEquals(0, cache.stats().bytes());
+  }
+}
@@ -0,0 +1,53 @@
+package org.prlprg.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+public class CompileMetricsTest {
+  @Test
+  void testHistogramBucketsAreCumulative() {
+    var histogram = new CompileMetrics.Histogram(new double[] {1, 10});
+    histogram.observe(0.5);
+    histogram.observe(1);
+    histogram.observe(5);
+    histogram.observe(100);
+
+    var out = new StringBuilder();
+    histogram.write(out, "h", "a=\"b\"");
+    assertEquals(
+        """
+        h_bucket{a="b",le="1"} 2
+        h_bucket{a="b",le="10"} 3
+        h_bucket{a="b",le="+Inf"} 4
+        h_sum{a="b"} 106.5
+        h_count{a="b"} 4
+        """,
+        out.toString());
+  }
+
+  @Test
+  void testSeriesAreGroupedUnderOneHeader() {
+    var metrics = new CompileMetrics();
+    metrics.register("x_total", "X", "k=\"1\"", () -> 1);
+    metrics.register("x_total", "X", "k=\"2\"", () -> 2);
+    metrics.register("y", "Y", "", () -> 3);
+
+    var text = metrics.scrape();
+    assertTrue(
+        text.endsWith(
+            """
+            # HELP x_total X
+            # TYPE x_total counter
+            x_total{k="1"} 1
+            x_total{k="2"} 2
+            # HELP y Y
+            # TYPE y gauge
+            y 3
+            """),
+        text);
+    assertTrue(text.contains("# TYPE rsh_compile_stage_seconds histogram\n"));
+    assertTrue(
+        text.contains("rsh_compile_stage_seconds_bucket{stage=\"cc_compile\",le=\"0.0001\"} 0\n"));
+  }
+}
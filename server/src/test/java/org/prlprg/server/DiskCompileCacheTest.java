@@ -0,0 +1,184 @@
+package org.prlprg.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.protobuf.ByteString;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.prlprg.RVersion;
+import org.prlprg.bc.BcOptLevel;
+
+public class DiskCompileCacheTest {
+  private static final RVersion R_VERSION = new RVersion(4, 3, 2);
+  private static final String FINGERPRINT = "build";
+
+  @TempDir Path tempDir;
+
+  private static DiskCompileCache.Key key(long hash) {
+    return new DiskCompileCache.Key(
+        hash, Messages.Tier.OPTIMIZED, BcOptLevel.DEFAULT, 2, R_VERSION);
+  }
+
+  private static Messages.CompileResponse response(long hash, String code) {
+    return Messages.CompileResponse.newBuilder()
+        .setHash(hash)
+        .setTier(Messages.Tier.OPTIMIZED)
+        .setCode(ByteString.copyFromUtf8(code))
+        .build();
+  }
+
+  @Test
+  void testEntriesSurviveReopening() throws IOException {
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      cache.put(key(1), response(1, "one"));
+      cache.put(key(2), response(2, "two"));
+      cache.put(key(1), response(1, "one again"));
+    }
+
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      assertEquals(2, cache.size());
+      assertEquals(response(1, "one again"), cache.get(key(1)));
+      assertEquals(response(2, "two"), cache.get(key(2)));
+      assertNull(cache.get(key(3)));
+    }
+  }
+
+  @Test
+  void testEntriesOfAnotherBuildAreDropped() throws IOException {
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      cache.put(key(1), response(1, "one"));
+    }
+
+    try (var cache = new DiskCompileCache(tempDir, "another build")) {
+      assertEquals(0, cache.size());
+      assertNull(cache.get(key(1)));
+      cache.put(key(2), response(2, "two"));
+    }
+
+    // Nor are the entries of the other build kept when coming back.
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      assertEquals(0, cache.size());
+    }
+  }
+
+  @Test
+  void testKeyIncludesCompilationParameters() throws IOException {
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      cache.put(key(1), response(1, "one"));
+
+      assertNull(
+          cache.get(
+              new DiskCompileCache.Key(
+                  1, Messages.Tier.BASELINE, BcOptLevel.DEFAULT, 2, R_VERSION)));
+      assertNull(
+          cache.get(
+              new DiskCompileCache.Key(
+                  1, Messages.Tier.OPTIMIZED, BcOptLevel.DEFAULT, 3, R_VERSION)));
+      assertNull(
+          cache.get(
+              new DiskCompileCache.Key(
+                  1, Messages.Tier.OPTIMIZED, BcOptLevel.DEFAULT, 2, new RVersion(4, 4, 0))));
+    }
+  }
+
+  @Test
+  void testIndexGrows() throws IOException {
+    var n = 10_000;
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      for (long i = 0; i < n; i++) {
+        cache.put(key(i * 4096), response(i, "code " + i));
+      }
+    }
+
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      assertEquals(n, cache.size());
+      for (long i = 0; i < n; i++) {
+        assertEquals(response(i, "code " + i), cache.get(key(i * 4096)));
+      }
+    }
+  }
+
+  @Test
+  void testRemoveAndClear() throws IOException {
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      cache.put(key(1), response(1, "one"));
+      cache.put(key(2), response(2, "two"));
+
+      cache.removeIf(hash -> hash == 1);
+      assertNull(cache.get(key(1)));
+      assertEquals(response(2, "two"), cache.get(key(2)));
+
+      cache.clear();
+      assertEquals(0, cache.size());
+      assertNull(cache.get(key(2)));
+    }
+  }
+
+  @Test
+  void testTruncatedBlobsAreMisses() throws IOException {
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      cache.put(key(1), response(1, "one"));
+      cache.put(key(2), response(2, "two"));
+    }
+
+    try (var blobs = FileChannel.open(tempDir.resolve("blobs"), StandardOpenOption.WRITE)) {
+      blobs.truncate(blobs.size() - 1);
+    }
+
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      assertEquals(response(1, "one"), cache.get(key(1)));
+      assertNull(cache.get(key(2)));
+    }
+  }
+
+  @Test
+  void testSharedDirectoriesAreRefused() throws IOException {
+    var shared = Files.createDirectory(tempDir.resolve("shared"));
+    Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+
+    assertThrows(IOException.class, () -> new DiskCompileCache(shared, FINGERPRINT));
+  }
+
+  @Test
+  void testOnlyOneServerUsesADirectory() throws IOException {
+    try (var _ = new DiskCompileCache(tempDir, FINGERPRINT)) {
+      assertThrows(IOException.class, () -> new DiskCompileCache(tempDir, FINGERPRINT));
+    }
+    new DiskCompileCache(tempDir, FINGERPRINT).close();
+  }
+
+  @Test
+  void testReplacedEntriesAreCompacted() throws IOException {
+    var code = "x".repeat(10_000);
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT, 0)) {
+      for (int i = 0; i < 1_000; i++) {
+        cache.put(key(1), response(1, code + i));
+      }
+
+      assertEquals(response(1, code + 999), cache.get(key(1)));
+    }
+    // 10 MB were written, but at most 1 MiB of garbage is kept.
+    assertTrue(Files.size(tempDir.resolve("blobs")) < 2 << 20);
+  }
+
+  @Test
+  void testOldestEntriesAreDroppedBeyondTheMaximumSize() throws IOException {
+    var code = "x".repeat(10_000);
+    try (var cache = new DiskCompileCache(tempDir, FINGERPRINT, 100_000)) {
+      for (long i = 0; i < 100; i++) {
+        cache.put(key(i), response(i, code));
+      }
+
+      assertTrue(Files.size(tempDir.resolve("blobs")) <= 100_000);
+      assertNull(cache.get(key(0)));
+      assertEquals(response(99, code), cache.get(key(99)));
+      assertTrue(cache.size() <= 10);
+    }
+  }
+}
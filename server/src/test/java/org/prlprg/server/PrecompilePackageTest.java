@@ -0,0 +1,104 @@
+package org.prlprg.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.asarkar.grpc.test.GrpcCleanupExtension;
+import com.asarkar.grpc.test.Resources;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.prlprg.rds.RDSWriter;
+import org.prlprg.session.GNURSession;
+import org.prlprg.session.PackageDatabaseTest;
+import org.prlprg.sexp.NamespaceEnvSXP;
+import org.prlprg.sexp.SEXP;
+import org.prlprg.sexp.SEXPs;
+import org.prlprg.sexp.TaggedElem;
+
+@ExtendWith(GrpcCleanupExtension.class)
+public class PrecompilePackageTest {
+  @TempDir Path tempDir;
+
+  @Test
+  void testPrecompiledFunctionsAreCacheHits(Resources resources) throws IOException {
+    // An installation of R with a package `pkg`, with a closure and a constant.
+    var rHome = tempDir.resolve("R");
+    var library = rHome.resolve("library");
+    PackageDatabaseTest.writeDatabase(library, "base", Map.of("x", SEXPs.integer(1)));
+    // Only the closures of the namespaces of precompiled packages are looked up.
+    var identity =
+        SEXPs.closure(
+            SEXPs.list(new TaggedElem("x", SEXPs.symbol("x"))),
+            SEXPs.symbol("x"),
+            new NamespaceEnvSXP("pkg", "1.0.0", SEXPs.EMPTY_ENV));
+    PackageDatabaseTest.writeDatabase(
+        library, "pkg", Map.<String, SEXP>of("f", identity, "y", SEXPs.integer(2)));
+    Files.writeString(library.resolve("pkg/DESCRIPTION"), "Package: pkg\nVersion: 1.0.0\n");
+
+    var service =
+        new CompileService(
+            null,
+            new AdmissionControl(0, 0, 0),
+            key -> {
+              var session = new GNURSession(key.rVersion(), rHome, tempDir.resolve("lib"));
+              session.setBaseSnapshotDir(null);
+              return session;
+            });
+    var serverName = InProcessServerBuilder.generateName();
+    var server =
+        InProcessServerBuilder.forName(serverName)
+            .directExecutor()
+            .addService(service)
+            .build()
+            .start();
+    resources.register(server, Duration.ofSeconds(3));
+    var channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    resources.register(channel, Duration.ofSeconds(3));
+    var stub = CompileServiceGrpc.newBlockingStub(channel);
+
+    var version = Messages.Version.newBuilder().setMajor(4).setMinor(3).setPatch(2).build();
+    stub.init(Messages.InitRequest.newBuilder().setRVersion(version).setPlatform("amd64").build());
+
+    var progress = new ArrayList<Messages.PrecompileProgress>();
+    stub.precompilePackage(
+            Messages.PrecompileRequest.newBuilder()
+                .setPackage(
+                    Messages.Package.newBuilder()
+                        .setName("pkg")
+                        .setVersion(
+                            Messages.Version.newBuilder().setMajor(1).setMinor(0).setPatch(0)))
+                .setTier(Messages.Tier.BASELINE)
+                .setBcOpt(0)
+                .build())
+        .forEachRemaining(progress::add);
+    assertEquals(1, progress.size());
+    assertEquals("f", progress.getFirst().getFunction());
+    assertEquals(1, progress.getFirst().getDone());
+    assertEquals(1, progress.getFirst().getTotal());
+    assertFalse(progress.getFirst().hasError(), progress.getFirst().getError());
+
+    // The client sends the closure with its own hash.
+    var response =
+        stub.compile(
+            Messages.CompileRequest.newBuilder()
+                .setFunction(
+                    Messages.Function.newBuilder()
+                        .setName("f")
+                        .setHash(42)
+                        .setBody(RDSWriter.writeByteString(identity)))
+                .setTier(Messages.Tier.BASELINE)
+                .setBcOpt(0)
+                .build());
+    assertTrue(response.hasCode());
+    var text = service.metrics().scrape();
+    assertTrue(text.contains("rsh_cache_hits_total{cache=\"precompiled\"} 1\n"), text);
+  }
+}
@@ -6,10 +6,14 @@ import com.asarkar.grpc.test.GrpcCleanupExtension;
 import com.asarkar.grpc.test.Resources;
 import io.grpc.ManagedChannel;
 import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
 import org.jspecify.annotations.Nullable;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -22,28 +26,36 @@ import org.prlprg.sexp.TaggedElem;
 @ExtendWith(GrpcCleanupExtension.class)
 public class ServerTests {
 
+  private @Nullable CompileService service;
   private @Nullable Server server;
   private @Nullable ManagedChannel channel;
   private CompileServiceGrpc.@Nullable CompileServiceBlockingStub blockingStub;
+  private MetricsServiceGrpc.@Nullable MetricsServiceBlockingStub metricsStub;
 
   @BeforeEach
   public void setupServer() throws IOException {
     String serverName = InProcessServerBuilder.generateName();
+    service = new CompileService();
     server =
         InProcessServerBuilder.forName(serverName)
             .directExecutor()
-            .addService(new CompileService())
+            .addService(service)
+            .addService(new MetricsService(service.metrics()))
             .build()
             .start();
 
     channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
     blockingStub = CompileServiceGrpc.newBlockingStub(channel);
+    metricsStub = MetricsServiceGrpc.newBlockingStub(channel);
   }
 
   @AfterEach
   public void tearDown() {
     assert server != null;
     server.shutdown();
+    // Stops the background compilations of the tests, e.g. of deferred native code.
+    assert service != null;
+    service.shutdown();
   }
 
   @Test
@@ -159,4 +171,153 @@ public class ServerTests {
           Messages.InitResponse response = blockingStub.init(initRequest);
         });
   }
+
+  @Test
+  void testDeferNative(Resources resources) throws IOException {
+    initSession(resources);
+
+    var compileRequest =
+        Messages.CompileRequest.newBuilder()
+            .setFunction(identityFunction())
+            .setTier(Messages.Tier.OPTIMIZED)
+            .setBcOpt(0)
+            .setDeferNative(true)
+            .build();
+
+    assert blockingStub != null;
+    var response = blockingStub.compile(compileRequest);
+    // The native code is not ready yet, so we get the bytecode.
+    assertEquals(Messages.Tier.BASELINE, response.getTier());
+    assertFalse(response.getCode().isEmpty());
+  }
+
+  @Test
+  void testCompileTieredSendsBytecodeFirst(Resources resources) throws IOException {
+    initSession(resources);
+
+    var compileRequest =
+        Messages.CompileRequest.newBuilder()
+            .setFunction(identityFunction())
+            .setTier(Messages.Tier.OPTIMIZED)
+            .setBcOpt(0)
+            .build();
+
+    assert blockingStub != null;
+    var responses = blockingStub.compileTiered(compileRequest);
+    var first = responses.next();
+    assertEquals(Messages.Tier.BASELINE, first.getTier());
+    assertFalse(first.getCode().isEmpty());
+  }
+
+  @Test
+  void testCompileBatch(Resources resources) throws IOException {
+    initSession(resources);
+
+    var identity = identityFunction();
+    var constant =
+        SEXPs.closure(
+            SEXPs.list(new TaggedElem("x", SEXPs.symbol("x"))), SEXPs.integer(42), SEXPs.EMPTY_ENV);
+    var other =
+        Messages.Function.newBuilder()
+            .setName("constantFunc")
+            .setHash(constant.hashCode())
+            .setBody(RDSWriter.writeByteString(constant))
+            .build();
+    var batchRequest =
+        Messages.CompileBatchRequest.newBuilder()
+            .addFunctions(identity)
+            .addFunctions(other)
+            .setTier(Messages.Tier.BASELINE)
+            .setBcOpt(0)
+            .build();
+
+    assert blockingStub != null;
+    var hashes = new HashSet<Long>();
+    blockingStub
+        .compileBatch(batchRequest)
+        .forEachRemaining(
+            response -> {
+              assertEquals(Messages.Tier.BASELINE, response.getTier());
+              assertFalse(response.getCode().isEmpty());
+              hashes.add(response.getHash());
+            });
+    assertEquals(Set.of(identity.getHash(), other.getHash()), hashes);
+  }
+
+  @Test
+  void testMetrics(Resources resources) throws IOException {
+    initSession(resources);
+
+    var compileRequest =
+        Messages.CompileRequest.newBuilder()
+            .setFunction(identityFunction())
+            .setTier(Messages.Tier.BASELINE)
+            .setBcOpt(0)
+            .build();
+    assert blockingStub != null;
+    blockingStub.compile(compileRequest);
+    blockingStub.compile(compileRequest);
+
+    assert metricsStub != null;
+    var text = metricsStub.getMetrics(Messages.MetricsRequest.getDefaultInstance()).getText();
+    assertTrue(text.contains("rsh_compile_stage_seconds_count{stage=\"bc_compile\"} 1\n"), text);
+    assertTrue(text.contains("rsh_response_bytes_count 2\n"), text);
+    assertTrue(text.contains("rsh_cache_hits_total{cache=\"bytecode\"} 1\n"), text);
+    assertTrue(text.contains("rsh_cache_misses_total{cache=\"bytecode\"} 1\n"), text);
+  }
+
+  @Test
+  void testSessionsAreShared(Resources resources) throws IOException {
+    assert server != null;
+    resources.register(server, Duration.ofSeconds(3));
+    assert channel != null;
+    resources.register(channel, Duration.ofSeconds(3));
+    assert blockingStub != null;
+
+    var initRequest =
+        Messages.InitRequest.newBuilder()
+            .setRVersion(Messages.Version.newBuilder().setMajor(4).setMinor(3).setPatch(2).build())
+            .setPlatform("amd64")
+            .build();
+    var id = blockingStub.init(initRequest).getSessionId();
+    assertEquals(id, blockingStub.init(initRequest).getSessionId());
+    assertNotEquals(
+        id, blockingStub.init(initRequest.toBuilder().setPlatform("arm64").build()).getSessionId());
+
+    var compileRequest =
+        Messages.CompileRequest.newBuilder()
+            .setFunction(identityFunction())
+            .setTier(Messages.Tier.BASELINE)
+            .setSessionId(id + 42)
+            .build();
+    var e = assertThrows(StatusRuntimeException.class, () -> blockingStub.compile(compileRequest));
+    assertEquals(Status.Code.FAILED_PRECONDITION, e.getStatus().getCode());
+  }
+
+  private void initSession(Resources resources) {
+    assert server != null;
+    resources.register(server, Duration.ofSeconds(3));
+    assert channel != null;
+    resources.register(channel, Duration.ofSeconds(3));
+
+    var initRequest =
+        Messages.InitRequest.newBuilder()
+            .setRVersion(Messages.Version.newBuilder().setMajor(4).setMinor(3).setPatch(2).build())
+            .setRshVersion(Messages.Version.newBuilder().build())
+            .setPlatform("amd64")
+            .build();
+    assert blockingStub != null;
+    assertDoesNotThrow(() -> blockingStub.init(initRequest));
+  }
+
+  private static Messages.Function identityFunction() throws IOException {
+    var function =
+        SEXPs.closure(
+            SEXPs.list(new TaggedElem("x", SEXPs.symbol("x"))), SEXPs.symbol("x"), SEXPs.EMPTY_ENV);
+    return Messages.Function.newBuilder()
+        .setName("testFunc")
+        .setHash(function.hashCode())
+        .setBody(RDSWriter.writeByteString(function))
+        .build();
+  }
 }
@@ -0,0 +1,65 @@
+package org.prlprg.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.ByteString;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+import org.prlprg.RVersion;
+import org.prlprg.session.GNURSession;
+
+public class SessionRegistryTest {
+  @Test
+  public void testSessionsAreSharedByKey() {
+    var preloads = new ArrayList<Runnable>();
+    var registry =
+        new SessionRegistry(
+            key -> new GNURSession(key.rVersion(), Path.of("R"), Path.of("lib")),
+            preloads::add,
+            8);
+
+    var a = ByteString.copyFromUtf8("a");
+    var b = ByteString.copyFromUtf8("b");
+    var version = new RVersion(4, 3, 2);
+    var session =
+        registry.register(new SessionRegistry.Key(version, "amd64", ImmutableSet.of(a, b)));
+
+    // The order of the packages doesn't matter.
+    assertSame(
+        session,
+        registry.register(new SessionRegistry.Key(version, "amd64", ImmutableSet.of(b, a))));
+    assertSame(session, registry.get(session.id()));
+
+    var other = registry.register(new SessionRegistry.Key(version, "amd64", ImmutableSet.of(a)));
+    assertNotEquals(session.id(), other.id());
+    assertNotSame(session.session(), other.session());
+
+    assertEquals(2, registry.size());
+    assertEquals(2, preloads.size());
+    assertNull(registry.get(-1));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedSessionsAreEvicted() {
+    var registry =
+        new SessionRegistry(
+            key -> new GNURSession(key.rVersion(), Path.of("R"), Path.of("lib")), _ -> {}, 2);
+    var version = new RVersion(4, 3, 2);
+
+    var first = registry.register(new SessionRegistry.Key(version, "amd64", ImmutableSet.of()));
+    var second = registry.register(new SessionRegistry.Key(version, "arm64", ImmutableSet.of()));
+    // Compiling in the first session makes the second one the least recently used.
+    assertSame(first, registry.get(first.id()));
+    var third = registry.register(new SessionRegistry.Key(version, "riscv64", ImmutableSet.of()));
+
+    assertEquals(2, registry.size());
+    assertSame(first, registry.get(first.id()));
+    assertNull(registry.get(second.id()));
+    assertSame(third, registry.get(third.id()));
+    // Its clients init again, in a new session.
+    var again = registry.register(second.key());
+    assertNotEquals(second.id(), again.id());
+  }
+}
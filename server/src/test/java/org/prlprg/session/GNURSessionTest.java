@@ -3,11 +3,24 @@ package org.prlprg.session;
 import static org.prlprg.service.RshCompiler.R_DIRECTORY;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.prlprg.RVersion;
+import org.prlprg.primitive.BuiltinId;
+import org.prlprg.sexp.Attributes;
+import org.prlprg.sexp.BaseEnvSXP;
+import org.prlprg.sexp.CloSXP;
+import org.prlprg.sexp.GlobalEnvSXP;
+import org.prlprg.sexp.SEXP;
+import org.prlprg.sexp.SEXPs;
+import org.prlprg.sexp.TaggedElem;
+import org.prlprg.sexp.UserEnvSXP;
 
 public class GNURSessionTest {
   private static final Path RDir = R_DIRECTORY;
@@ -38,6 +51,97 @@ public class GNURSessionTest {
     Assertions.assertFalse(session.baseNamespace().isEmpty());
   }
 
+  @Test
+  public void testBaseSnapshot() throws IOException {
+    var rDir = tempDir.resolve("R");
+    var objects = Map.<String, SEXP>of("x", SEXPs.integer(1, 2, 3), "y", SEXPs.string("y"));
+    PackageDatabaseTest.writeDatabase(rDir.resolve("library"), "base", objects);
+    var snapshots = tempDir.resolve("snapshots");
+
+    var session = new GNURSession(RVersion.LATEST_AWARE, rDir, tempDir.resolve("lib"));
+    session.setBaseSnapshotDir(snapshots);
+    session.loadBase();
+    Assertions.assertEquals(SEXPs.integer(1, 2, 3), session.baseNamespace().getLocal("x").get());
+    try (var files = Files.list(snapshots)) {
+      Assertions.assertEquals(1, files.count());
+    }
+
+    // The snapshot is used as long as the database looks unchanged.
+    var rdb = rDir.resolve("library/base/R/base.rdb");
+    var modified = Files.getLastModifiedTime(rdb);
+    Files.write(rdb, new byte[(int) Files.size(rdb)]);
+    Files.setLastModifiedTime(rdb, modified);
+
+    var other = new GNURSession(RVersion.LATEST_AWARE, rDir, tempDir.resolve("lib"));
+    other.setBaseSnapshotDir(snapshots);
+    other.loadBase();
+    for (var e : objects.entrySet()) {
+      Assertions.assertEquals(e.getValue(), other.baseNamespace().getLocal(e.getKey()).get());
+      Assertions.assertEquals(e.getValue(), other.baseEnv().getLocal(e.getKey()).get());
+    }
+    Assertions.assertTrue(other.baseEnv().getLocal("length").isPresent());
+  }
+
+  @Test
+  public void testBaseSnapshotOfCyclicEnvironment() throws IOException {
+    // `f` is a closure over env::1, a locked environment where `f` is bound to the same closure.
+    // The global environment stands for the reference to env::1 in the serialized objects.
+    var placeholder = new GlobalEnvSXP(new BaseEnvSXP());
+    var body = SEXPs.lang(SEXPs.symbol("sum"), SEXPs.symbol("x"));
+    var closure =
+        SEXPs.closure(SEXPs.list(new TaggedElem("x", SEXPs.MISSING_ARG)), body, placeholder);
+    var env =
+        SEXPs.vec(
+            List.of(
+                SEXPs.vec(
+                    List.of(closure),
+                    new Attributes.Builder().put("names", SEXPs.string("f")).build()),
+                SEXPs.EMPTY_ENV,
+                SEXPs.TRUE),
+            new Attributes.Builder()
+                .put("names", SEXPs.string("bindings", "enclos", "locked"))
+                .build());
+    var sum = SEXPs.builtin(BuiltinId.named("sum"));
+    var objects = new LinkedHashMap<String, byte[]>();
+    objects.put("f", PackageDatabaseTest.serializeWithReference(closure, placeholder, "env::1"));
+    objects.put("sum", PackageDatabaseTest.serialize(sum));
+    var rDir = tempDir.resolve("R");
+    PackageDatabaseTest.writeDatabase(
+        rDir.resolve("library"),
+        "base",
+        objects,
+        Map.of("env::1", PackageDatabaseTest.serializeWithReference(env, placeholder, "env::1")));
+    var snapshots = tempDir.resolve("snapshots");
+
+    var session = new GNURSession(RVersion.LATEST_AWARE, rDir, tempDir.resolve("lib"));
+    session.setBaseSnapshotDir(snapshots);
+    session.loadBase();
+    try (var files = Files.list(snapshots)) {
+      Assertions.assertEquals(1, files.count());
+    }
+
+    // Only the snapshot can be read now.
+    var rdb = rDir.resolve("library/base/R/base.rdb");
+    var modified = Files.getLastModifiedTime(rdb);
+    Files.write(rdb, new byte[(int) Files.size(rdb)]);
+    Files.setLastModifiedTime(rdb, modified);
+
+    var other = new GNURSession(RVersion.LATEST_AWARE, rDir, tempDir.resolve("lib"));
+    other.setBaseSnapshotDir(snapshots);
+    other.loadBase();
+    for (var s : List.of(session, other)) {
+      var f = (CloSXP) s.baseNamespace().getLocal("f").orElseThrow();
+      Assertions.assertEquals(closure.parameters(), f.parameters());
+      Assertions.assertEquals(body, f.body());
+      var fEnv = (UserEnvSXP) f.env();
+      Assertions.assertTrue(fEnv.isLocked());
+      var inner = (CloSXP) fEnv.getLocal("f").orElseThrow();
+      Assertions.assertEquals(body, inner.body());
+      Assertions.assertSame(fEnv, inner.env());
+      Assertions.assertEquals(sum, s.baseNamespace().getLocal("sum").orElseThrow());
+    }
+  }
+
   @Test
   public void testVersionMismatch() {
     var session = new GNURSession(RVersion.LATEST_AWARE, RDir, libDir);
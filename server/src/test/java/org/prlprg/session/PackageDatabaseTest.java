@@ -0,0 +1,266 @@
+package org.prlprg.session;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.prlprg.rds.RDSWriter;
+import org.prlprg.sexp.Attributes;
+import org.prlprg.sexp.NamespaceEnvSXP;
+import org.prlprg.sexp.SEXP;
+import org.prlprg.sexp.SEXPs;
+import org.prlprg.sexp.UserEnvSXP;
+import org.prlprg.sexp.VecSXP;
+
+public class PackageDatabaseTest {
+  @TempDir Path tempDir;
+
+  @Test
+  public void testReadObjects() throws IOException {
+    var objects = new LinkedHashMap<String, SEXP>();
+    objects.put("ints", SEXPs.integer(IntStream.range(0, 100_000).toArray()));
+    objects.put("str", SEXPs.string("hello", "world"));
+    objects.put("reals", SEXPs.real(1.5, 2.5));
+    writeDatabase(tempDir, "pkg", objects);
+
+    var db = new PackageDatabase(new TestRSession(), tempDir, "pkg");
+
+    assertEquals(objects.keySet(), db.getSymbolNames());
+    // In another order than the file, and twice, to check the inflater is reused correctly.
+    for (var name : new String[] {"str", "ints", "reals", "ints"}) {
+      assertEquals(objects.get(name), db.getObject(name));
+    }
+  }
+
+  @Test
+  public void testCorruptedObject() throws IOException {
+    writeDatabase(tempDir, "pkg", Map.of("x", SEXPs.integer(1, 2, 3)));
+    var rdb = tempDir.resolve("pkg/R/pkg.rdb");
+    var bytes = Files.readAllBytes(rdb);
+    bytes[6] ^= (byte) 0xFF;
+    Files.write(rdb, bytes);
+
+    var db = new PackageDatabase(new TestRSession(), tempDir, "pkg");
+    assertThrows(IOException.class, () -> db.getObject("x"));
+    assertEquals(Set.of("x"), db.getSymbolNames());
+  }
+
+  @Test
+  public void testGetBindings() throws IOException {
+    var objects = new LinkedHashMap<String, SEXP>();
+    for (int i = 0; i < 500; i++) {
+      objects.put("f" + i, SEXPs.integer(IntStream.range(0, i).toArray()));
+    }
+    writeDatabase(tempDir, "pkg", objects);
+
+    var db = new PackageDatabase(new TestRSession(), tempDir, "pkg");
+    var bindings = db.getBindings();
+
+    assertEquals(objects, bindings);
+    // The bindings are a copy.
+    bindings.clear();
+    assertEquals(objects.get("f42"), db.getObject("f42"));
+  }
+
+  @Test
+  public void testEnvironmentsAreShared() throws IOException {
+    var objects = new LinkedHashMap<String, byte[]>();
+    for (int i = 0; i < 100; i++) {
+      objects.put("f" + i, persistentReference("env::1"));
+    }
+    writeDatabase(
+        tempDir, "pkg", objects, Map.of("env::1", serialize(environment("x", SEXPs.integer(1)))));
+
+    var db = new PackageDatabase(new TestRSession(), tempDir, "pkg");
+    var bindings = db.getBindings();
+
+    var first = ((VecSXP) bindings.get("f0")).get(0);
+    assertInstanceOf(UserEnvSXP.class, first);
+    assertEquals(SEXPs.integer(1), ((UserEnvSXP) first).get("x").orElseThrow());
+    for (var binding : bindings.values()) {
+      assertSame(first, ((VecSXP) binding).get(0));
+    }
+  }
+
+  @Test
+  public void testEnvironmentCyclesAreShared() throws IOException {
+    // env::1 and env::2 refer to each other, and the objects to either, so that concurrent reads
+    // start rebuilding the cycle from both ends.
+    var objects = new LinkedHashMap<String, byte[]>();
+    for (int i = 0; i < 100; i++) {
+      objects.put("f" + i, persistentReference(i % 2 == 0 ? "env::1" : "env::2"));
+    }
+    writeDatabase(
+        tempDir,
+        "pkg",
+        objects,
+        Map.of(
+            "env::1",
+            serializeWithReference(
+                environment("other", SEXPs.string("env::2")), SEXPs.string("env::2"), "env::2"),
+            "env::2",
+            serializeWithReference(
+                environment("other", SEXPs.string("env::1")), SEXPs.string("env::1"), "env::1")));
+
+    var db = new PackageDatabase(new TestRSession(), tempDir, "pkg");
+    var bindings = db.getBindings();
+
+    var env1 = (UserEnvSXP) ((VecSXP) bindings.get("f0")).get(0);
+    var env2 = (UserEnvSXP) env1.get("other").orElseThrow();
+    assertNotSame(env1, env2);
+    assertSame(env1, env2.get("other").orElseThrow());
+    for (int i = 0; i < 100; i++) {
+      assertSame(i % 2 == 0 ? env1 : env2, ((VecSXP) bindings.get("f" + i)).get(0));
+    }
+  }
+
+  @Test
+  public void testLazyBindings() throws IOException {
+    var objects = new LinkedHashMap<String, byte[]>();
+    objects.put("x", serialize(SEXPs.integer(1, 2, 3)));
+    objects.put("broken", new byte[] {'Y', '\n'});
+    objects.put("y", serialize(SEXPs.string("y")));
+    writeDatabase(tempDir, "pkg", objects, Map.of());
+
+    var db = new PackageDatabase(new TestRSession(), tempDir, "pkg");
+    var ns = NamespaceEnvSXP.backedBy("pkg", "1.0", SEXPs.EMPTY_ENV, db.lazyBindings());
+
+    assertSame(db.getObject("x"), ns.getLocal("x").orElseThrow());
+    assertTrue(ns.getLocal("z").isEmpty());
+    // An object which can't be read is unbound, and isn't read again.
+    assertTrue(ns.getLocal("broken").isEmpty());
+    assertTrue(ns.getLocal("broken").isEmpty());
+
+    ns.set("x", SEXPs.NULL);
+    ns.set("z", SEXPs.TRUE);
+    assertEquals(SEXPs.NULL, ns.getLocal("x").orElseThrow());
+    assertEquals(SEXPs.TRUE, ns.getLocal("z").orElseThrow());
+    // The database itself is unchanged.
+    assertEquals(SEXPs.integer(1, 2, 3), db.getObject("x"));
+
+    var bindings = new HashMap<String, SEXP>();
+    for (var e : ns.bindings()) {
+      bindings.put(e.getKey(), e.getValue());
+    }
+    assertEquals(Map.of("x", SEXPs.NULL, "y", SEXPs.string("y"), "z", SEXPs.TRUE), bindings);
+  }
+
+  /// Writes the database of the package `name` in the library `libDir`.
+  public static void writeDatabase(Path libDir, String name, Map<String, SEXP> objects)
+      throws IOException {
+    var serialized = new LinkedHashMap<String, byte[]>();
+    for (var e : objects.entrySet()) {
+      serialized.put(e.getKey(), serialize(e.getValue()));
+    }
+    writeDatabase(libDir, name, serialized, Map.of());
+  }
+
+  /// Writes a lazy-load database like `makeLazyLoadDB`, with zlib-compressed objects.
+  ///
+  /// @param objects the serialized variables.
+  /// @param references the serialized environments the variables refer to.
+  static void writeDatabase(
+      Path libDir, String name, Map<String, byte[]> objects, Map<String, byte[]> references)
+      throws IOException {
+    var dir = Files.createDirectories(libDir.resolve(name).resolve("R"));
+    var rdb = new ByteArrayOutputStream();
+    var variables = offsets(rdb, objects);
+    var refs = offsets(rdb, references);
+    Files.write(dir.resolve(name + ".rdb"), rdb.toByteArray());
+
+    var index = SEXPs.vec(variables, refs, SEXPs.logical(true));
+    RDSWriter.writeFile(dir.resolve(name + ".rdx").toFile(), index);
+  }
+
+  /// Appends the compressed `objects` to `rdb`, and returns their offsets.
+  private static VecSXP offsets(ByteArrayOutputStream rdb, Map<String, byte[]> objects)
+      throws IOException {
+    var offsets = new SEXP[objects.size()];
+    var names = new String[objects.size()];
+    var i = 0;
+    for (var e : objects.entrySet()) {
+      var serialized = e.getValue();
+      var deflater = new Deflater();
+      deflater.setInput(serialized);
+      deflater.finish();
+      var compressed = new byte[serialized.length + 64];
+      var compressedLength = deflater.deflate(compressed);
+      deflater.end();
+
+      var chunk = new ByteArrayOutputStream();
+      var out = new DataOutputStream(chunk);
+      out.writeInt(serialized.length);
+      out.write(compressed, 0, compressedLength);
+
+      offsets[i] = SEXPs.integer(rdb.size(), chunk.size());
+      names[i] = e.getKey();
+      rdb.write(chunk.toByteArray());
+      i++;
+    }
+    return SEXPs.vec(offsets, new Attributes.Builder().put("names", SEXPs.string(names)).build());
+  }
+
+  static byte[] serialize(SEXP sexp) throws IOException {
+    return RDSWriter.writeByteString(sexp).toByteArray();
+  }
+
+  /// A serialized environment of a database, whose only binding is `name` bound to `value`.
+  static VecSXP environment(String name, SEXP value) {
+    return SEXPs.vec(
+        List.of(
+            SEXPs.vec(
+                List.of(value), new Attributes.Builder().put("names", SEXPs.string(name)).build()),
+            SEXPs.EMPTY_ENV),
+        new Attributes.Builder().put("names", SEXPs.string("bindings", "enclos")).build());
+  }
+
+  /// A list whose only element is a reference to the environment `name` of the database.
+  private static byte[] persistentReference(String name) throws IOException {
+    return serializeWithReference(SEXPs.vec(SEXPs.string(name)), SEXPs.string(name), name);
+  }
+
+  /// Serializes `sexp`, where `placeholder` (e.g. the string vector `c(name)`, or a special
+  /// environment `sexp` doesn't otherwise contain) is a reference to the environment `name` of the
+  /// database.
+  static byte[] serializeWithReference(SEXP sexp, SEXP placeholder, String name)
+      throws IOException {
+    // The RDS writer has no hook for persistent references, so we patch the placeholder into a
+    // reference: PERSISTSXP, 0, and the length and CHARSXP of the string vector `c(name)`.
+    var header = serialize(SEXPs.NULL).length - Integer.BYTES;
+    var placeholderBytes = serialize(placeholder);
+    var target = Arrays.copyOfRange(placeholderBytes, header, placeholderBytes.length);
+    var string = serialize(SEXPs.string(name));
+    var reference = new ByteArrayOutputStream();
+    var data = new DataOutputStream(reference);
+    data.writeInt(247);
+    data.writeInt(0);
+    data.write(string, header + Integer.BYTES, string.length - header - Integer.BYTES);
+
+    var bytes = serialize(sexp);
+    var out = new ByteArrayOutputStream();
+    var i = 0;
+    while (i < bytes.length) {
+      if (i + target.length <= bytes.length
+          && Arrays.equals(bytes, i, i + target.length, target, 0, target.length)) {
+        out.write(reference.toByteArray());
+        i += target.length;
+      } else {
+        out.write(bytes[i++]);
+      }
+    }
+    return out.toByteArray();
+  }
+}
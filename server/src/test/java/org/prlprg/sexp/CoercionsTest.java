@@ -1,5 +1,6 @@
 package org.prlprg.sexp;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.prlprg.sexp.Coercions.isNA;
@@ -43,4 +44,14 @@ public class CoercionsTest {
     assertTrue(isNA(c.real()));
     assertTrue(isNA(c.imag()));
   }
+
+  @Test
+  public void testToReals() {
+    assertArrayEquals(
+        new double[] {1, 2, Constants.NA_REAL},
+        Coercions.toReals(SEXPs.integer(1, 2, Constants.NA_INT)));
+    assertArrayEquals(
+        new double[] {3, 2, 1}, Coercions.toReals(SEXPs.intSeq(3, 3, -1, Attributes.NONE)));
+    assertArrayEquals(new double[] {0.5, 1.5}, Coercions.toReals(SEXPs.real(0.5, 1.5)));
+  }
 }
@@ -0,0 +1,49 @@
+package org.prlprg.sexp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.prlprg.sexp.SEXPs.*;
+
+import org.junit.jupiter.api.Test;
+import org.prlprg.primitive.Constants;
+import org.prlprg.primitive.Logical;
+
+public class SEXPsTest {
+  @Test
+  public void testVectorsCopyTheirArrays() {
+    var ints = new int[] {1, 2, 3};
+    var reals = new double[] {1, 2, 3};
+    var lgls = new int[] {0, 1, Constants.NA_INT};
+
+    var intSXP = integer(ints);
+    var realSXP = real(reals);
+    var lglSXP = logical(lgls, Attributes.NONE);
+    ints[0] = 42;
+    reals[0] = 42;
+    lgls[0] = 1;
+
+    assertEquals(integer(1, 2, 3), intSXP);
+    assertEquals(real(1, 2, 3), realSXP);
+    assertEquals(logical(Logical.FALSE, Logical.TRUE, Logical.NA), lglSXP);
+  }
+
+  @Test
+  public void testCopiesDontShareTheirArrays() {
+    var intSXP = integerOwned(new int[] {1, 2, 3}, Attributes.NONE);
+    var realSXP = realOwned(new double[] {1, 2, 3}, Attributes.NONE);
+    var lglSXP = logicalOwned(new int[] {0, 1, Constants.NA_INT}, Attributes.NONE);
+
+    var intCopy = intSXP.copy();
+    var realCopy = realSXP.copy();
+    var lglCopy = lglSXP.copy();
+    intCopy.set(0, 42);
+    realCopy.set(0, 42.0);
+    lglCopy.set(0, Logical.TRUE);
+
+    assertEquals(integer(1, 2, 3), intSXP);
+    assertEquals(real(1, 2, 3), realSXP);
+    assertEquals(logical(Logical.FALSE, Logical.TRUE, Logical.NA), lglSXP);
+    assertEquals(integer(42, 2, 3), intCopy);
+    assertEquals(real(42, 2, 3), realCopy);
+    assertEquals(logical(Logical.TRUE, Logical.TRUE, Logical.NA), lglCopy);
+  }
+}
@@ -0,0 +1,87 @@
+package org.prlprg.sexp;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+/// Throughput of the symbol pool when many threads intern symbols at the same time, like when
+/// package databases are read in parallel.
+///
+/// Not run with the tests, run it with `mvn test -Dtest=SymbolPoolBenchmark`.
+@SuppressWarnings("NewClassNamingConvention")
+public class SymbolPoolBenchmark {
+  private static final int WARMUP = 3;
+  private static final int ITERATIONS = 10;
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+  private static final int LOOKUPS_PER_THREAD = 1_000_000;
+  private static final String[] NAMES =
+      IntStream.range(0, 10_000).mapToObj(i -> "sym" + i).toArray(String[]::new);
+
+  /// Mostly lookups of existing symbols, compared with a synchronized [HashMap] (the pool used to
+  /// be a plain [HashMap], which isn't safe at all).
+  @Test
+  void contention() throws Exception {
+    var synchronizedMap = Collections.synchronizedMap(new HashMap<String, RegSymSXP>());
+    var strong = new SymbolPool(false);
+    var weak = new SymbolPool(true);
+
+    var synchronizedTime = time(name -> synchronizedMap.computeIfAbsent(name, RegSymSXP::new));
+    var strongTime = time(strong::intern);
+    var weakTime = time(weak::intern);
+
+    System.err.printf(
+        "%d threads x %d lookups: synchronized map %.1f ms, pool %.1f ms (%.1fx), weak pool %.1f"
+            + " ms (%.1fx)%n",
+        THREADS,
+        LOOKUPS_PER_THREAD,
+        synchronizedTime,
+        strongTime,
+        synchronizedTime / strongTime,
+        weakTime,
+        synchronizedTime / weakTime);
+  }
+
+  /// Average time for every thread to do its lookups, in milliseconds.
+  private static double time(Function<String, RegSymSXP> intern) throws Exception {
+    for (int i = 0; i < WARMUP; i++) {
+      run(intern);
+    }
+    var total = 0L;
+    for (int i = 0; i < ITERATIONS; i++) {
+      total += run(intern);
+    }
+    return total / 1e6 / ITERATIONS;
+  }
+
+  private static long run(Function<String, RegSymSXP> intern)
+      throws InterruptedException, ExecutionException {
+    var start = new CountDownLatch(1);
+    try (var executor = Executors.newFixedThreadPool(THREADS)) {
+      var futures =
+          IntStream.range(0, THREADS)
+              .mapToObj(
+                  t ->
+                      executor.submit(
+                          () -> {
+                            start.await();
+                            // Different threads go through the names in different orders.
+                            for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                              intern.apply(NAMES[(i * 31 + t * 7919) % NAMES.length]);
+                            }
+                            return null;
+                          }))
+              .toList();
+      var begin = System.nanoTime();
+      start.countDown();
+      for (var future : futures) {
+        future.get();
+      }
+      return System.nanoTime() - begin;
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package org.prlprg.sexp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class SymbolPoolTest {
+  private static final int THREADS = 8;
+  private static final int NAMES = 1_000;
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  public void testInternIsUnique(boolean weak) {
+    var pool = new SymbolPool(weak);
+    var x = pool.intern("x");
+
+    assertSame(x, pool.intern("x"));
+    assertEquals("x", x.name());
+    assertEquals(1, pool.size());
+  }
+
+  @ParameterizedTest
+  @ValueSource(booleans = {false, true})
+  public void testConcurrentInternIsUnique(boolean weak) throws Exception {
+    var pool = new SymbolPool(weak);
+    // Identity, not equality: every thread must get the same instances.
+    var seen = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    try (var executor = Executors.newFixedThreadPool(THREADS)) {
+      var futures =
+          IntStream.range(0, THREADS)
+              .mapToObj(
+                  _ ->
+                      executor.submit(
+                          () -> {
+                            for (int i = 0; i < NAMES; i++) {
+                              seen.add(pool.intern("sym" + i));
+                            }
+                          }))
+              .toList();
+      for (var future : futures) {
+        future.get();
+      }
+    }
+
+    assertEquals(NAMES, seen.size());
+  }
+
+  @Test
+  public void testWeakPoolDropsUnreferencedSymbols() throws InterruptedException {
+    var pool = new SymbolPool(true);
+    var kept = pool.intern("kept");
+    var dropped = new WeakReference<>(pool.intern("dropped"));
+    assertEquals(2, pool.size());
+
+    // Collected symbols are only removed when the next symbols are created, so each attempt
+    // creates one, which is kept to count it.
+    var created = new ArrayList<RegSymSXP>();
+    for (int i = 0; i < 100 && pool.size() == 2 + created.size(); i++) {
+      System.gc();
+      Thread.sleep(10);
+      created.add(pool.intern("created" + i));
+    }
+
+    assertNull(dropped.get());
+    assertEquals(1 + created.size(), pool.size());
+    assertSame(kept, pool.intern("kept"));
+    var again = pool.intern("dropped");
+    assertEquals("dropped", again.name());
+    assertSame(again, pool.intern("dropped"));
+    assertEquals(2 + created.size(), pool.size());
+    assertTrue(created.stream().allMatch(s -> s == pool.intern(s.name())));
+  }
+}
@@ -0,0 +1,37 @@
+package org.prlprg.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FilesTest {
+  @TempDir Path tempDir;
+
+  @Test
+  void testCreatePrivateDirectory() throws IOException {
+    var dir = Files.createPrivateDirectory(tempDir.resolve("a/b"));
+
+    assertEquals(
+        "rwx------",
+        PosixFilePermissions.toString(java.nio.file.Files.getPosixFilePermissions(dir)));
+    // Existing private directories are accepted.
+    Files.createPrivateDirectory(dir);
+  }
+
+  @Test
+  void testCreatePrivateDirectoryRefusesSharedDirectories() throws IOException {
+    var shared = java.nio.file.Files.createDirectory(tempDir.resolve("shared"));
+    java.nio.file.Files.setPosixFilePermissions(
+        shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+    var link =
+        java.nio.file.Files.createSymbolicLink(
+            tempDir.resolve("link"), Files.createPrivateDirectory(tempDir.resolve("private")));
+
+    assertThrows(IOException.class, () -> Files.createPrivateDirectory(shared));
+    assertThrows(IOException.class, () -> Files.createPrivateDirectory(link));
+  }
+}
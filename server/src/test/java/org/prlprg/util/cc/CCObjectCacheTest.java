@@ -0,0 +1,104 @@
+package org.prlprg.util.cc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CCObjectCacheTest {
+  private static final String SOURCE =
+      """
+      int gen_QQQ_1(int x) { return x + 1; }
+      int gen_QQQ(int x) { return gen_QQQ_1(x) * 2; }
+      """;
+
+  @TempDir Path tempDir;
+
+  @Test
+  void testIdenticalUnitsAreCompiledOnce() throws Exception {
+    var cache = new CCObjectCache(tempDir.resolve("cache"));
+    var first = tempDir.resolve("first.o");
+    var second = tempDir.resolve("second.o");
+
+    CCCompilationBuilder.fromSource(SOURCE, first).flag("-c").cache(cache, "salt").compile();
+    CCCompilationBuilder.fromSource(SOURCE, second).flag("-c").cache(cache, "salt").compile();
+
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+    assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+  }
+
+  @Test
+  void testKeyDependsOnFlagsAndSalt() throws Exception {
+    var cache = new CCObjectCache(tempDir.resolve("cache"));
+    var output = tempDir.resolve("out.o");
+
+    CCCompilationBuilder.fromSource(SOURCE, output).flag("-c").cache(cache, "salt").compile();
+    CCCompilationBuilder.fromSource(SOURCE, output)
+        .flag("-c")
+        .flag("-O2")
+        .cache(cache, "salt")
+        .compile();
+    CCCompilationBuilder.fromSource(SOURCE, output).flag("-c").cache(cache, "other").compile();
+
+    assertEquals(0, cache.hits());
+    assertEquals(3, cache.misses());
+  }
+
+  @Test
+  void testInvalidEntriesAreMisses() throws Exception {
+    var cache = new CCObjectCache(tempDir.resolve("cache"));
+    var first = tempDir.resolve("first.o");
+    var second = tempDir.resolve("second.o");
+
+    CCCompilationBuilder.fromSource(SOURCE, first).flag("-c").cache(cache, "salt").compile();
+    try (var entries = Files.walk(tempDir.resolve("cache"))) {
+      for (var entry : entries.filter(Files::isRegularFile).toList()) {
+        Files.write(entry, "not an object".getBytes());
+      }
+    }
+    CCCompilationBuilder.fromSource(SOURCE, second).flag("-c").cache(cache, "salt").compile();
+
+    assertEquals(0, cache.hits());
+    assertEquals(2, cache.misses());
+    assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+  }
+
+  @Test
+  void testRenameSymbol() throws Exception {
+    var output = tempDir.resolve("out.o");
+    CCCompilationBuilder.fromSource(SOURCE, output).flag("-c").compile();
+
+    var renamed = tempDir.resolve("renamed.o");
+    Files.write(
+        renamed, CCObjectCache.renameSymbol(Files.readAllBytes(output), "gen_QQQ", "gen_123"));
+
+    var nm = new ProcessBuilder("nm", renamed.toString()).redirectErrorStream(true).start();
+    var symbols = new String(nm.getInputStream().readAllBytes());
+    assertEquals(0, nm.waitFor(), symbols);
+    assertTrue(symbols.contains(" T gen_123\n"), symbols);
+    assertTrue(symbols.contains(" T gen_123_1\n"), symbols);
+    assertFalse(symbols.contains("QQQ"), symbols);
+  }
+
+  @Test
+  void testRenameSymbolOnlyRenamesSymbols() throws Exception {
+    var output = tempDir.resolve("out.o");
+    CCCompilationBuilder.fromSource("const char *gen_QQQ(void) { return \"gen_QQQ\"; }\n", output)
+        .flag("-c")
+        .compile();
+
+    var renamed = CCObjectCache.renameSymbol(Files.readAllBytes(output), "gen_QQQ", "gen_123");
+
+    var object = new String(renamed, StandardCharsets.ISO_8859_1);
+    assertTrue(object.contains("gen_123\0"));
+    // The string literal is data, not a symbol.
+    assertTrue(object.contains("gen_QQQ\0"));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> CCObjectCache.renameSymbol("not an object".getBytes(), "gen_QQQ", "gen_123"));
+  }
+}
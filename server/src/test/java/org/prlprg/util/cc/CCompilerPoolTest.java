@@ -0,0 +1,82 @@
+package org.prlprg.util.cc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CCompilerPoolTest {
+  @TempDir Path tempDir;
+
+  @Test
+  void testCompileFromSource() throws Exception {
+    var output = tempDir.resolve("f.o");
+    CCCompilationBuilder.fromSource("int f(int x) { return x + 1; }\n", output)
+        .flag("-c")
+        .compile();
+
+    assertTrue(Files.size(output) > 0);
+  }
+
+  @Test
+  void testCompilationErrorFromSource() {
+    var output = tempDir.resolve("f.o");
+    var e =
+        assertThrows(
+            CCompilationException.class,
+            () ->
+                CCCompilationBuilder.fromSource("int f(int x) { return y; }\n", output)
+                    .flag("-c")
+                    .compile());
+    assertTrue(e.getMessage().contains("return y"));
+  }
+
+  @Test
+  void testTimeout() throws Exception {
+    var pool = new CCompilerPool(1, 1, 1);
+    var result = pool.run(new ProcessBuilder("sleep", "10"), null);
+
+    assertTrue(result.timedOut());
+    assertEquals(0, pool.activeJobs());
+  }
+
+  @Test
+  void testTimeoutWhileWritingInput() throws Exception {
+    // More than a pipe holds, which `sleep` never reads.
+    var pool = new CCompilerPool(1, 1, 1);
+    var result = pool.run(new ProcessBuilder("sleep", "10"), "x".repeat(1 << 20));
+
+    assertTrue(result.timedOut());
+    assertEquals(0, pool.activeJobs());
+  }
+
+  @Test
+  void testInputNotRead() throws Exception {
+    var pool = new CCompilerPool(1, 1, 10);
+    var result = pool.run(new ProcessBuilder("sh", "-c", "echo done"), "x".repeat(1 << 20));
+
+    assertFalse(result.timedOut());
+    assertEquals(0, result.exitCode());
+    assertEquals("done\n", result.stdout());
+  }
+
+  @Test
+  void testBusy() throws Exception {
+    var pool = new CCompilerPool(1, 0, 10);
+
+    try (var executor = Executors.newSingleThreadExecutor()) {
+      var running = executor.submit(() -> pool.run(new ProcessBuilder("sleep", "1"), null));
+      while (pool.activeJobs() == 0) {
+        Thread.onSpinWait();
+      }
+
+      assertThrows(CCompilerBusyException.class, () -> pool.run(new ProcessBuilder("true"), null));
+      assertFalse(running.get().timedOut());
+    }
+
+    assertEquals(0, pool.run(new ProcessBuilder("true"), null).exitCode());
+  }
+}
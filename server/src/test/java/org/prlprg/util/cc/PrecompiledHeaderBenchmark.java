@@ -0,0 +1,66 @@
+package org.prlprg.util.cc;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.prlprg.service.RshCompiler;
+import org.prlprg.service.RshCompiler.RuntimeVariant;
+
+/// Compile times of a small bc2c-like unit with and without the precompiled runtime header.
+///
+/// Not run with the tests, run it with `mvn test -Dtest=PrecompiledHeaderBenchmark`. It needs the
+/// R headers, so that the runtime header can be compiled.
+@SuppressWarnings("NewClassNamingConvention")
+public class PrecompiledHeaderBenchmark {
+  private static final int WARMUP = 3;
+  private static final int ITERATIONS = 20;
+  private static final String SOURCE =
+      """
+      #include <runtime.h>
+
+      SEXP f(SEXP RHO, SEXP CCP) {
+        return R_NilValue;
+      }
+      """;
+
+  @TempDir Path tempDir;
+
+  @Test
+  void benchmark() throws Exception {
+    for (var level : new int[] {0, 2, 3}) {
+      RshCompiler.disablePrecompiledHeaders();
+      var without = time(level);
+
+      RshCompiler.precompileHeaders();
+      var with = time(level);
+
+      System.err.printf(
+          "-O%d: %.1f ms without precompiled header, %.1f ms with (%.1fx)%n",
+          level, without, with, without / with);
+    }
+  }
+
+  /// Average time of a compilation, in milliseconds.
+  private double time(int level) throws Exception {
+    var output = tempDir.resolve("out.o");
+    var compiler = RshCompiler.getInstance(level, RuntimeVariant.DIRECT_BC2C);
+    for (int i = 0; i < WARMUP; i++) {
+      try {
+        compiler.createBuilder(SOURCE, output).flag("-c").compile();
+      } catch (CCompilationException e) {
+        assumeTrue(false, "The runtime header doesn't compile here: " + e.getMessage());
+      }
+    }
+
+    var start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      compiler.createBuilder(SOURCE, output).flag("-c").compile();
+    }
+    var elapsed = System.nanoTime() - start;
+    Files.deleteIfExists(output);
+    return elapsed / 1e6 / ITERATIONS;
+  }
+}